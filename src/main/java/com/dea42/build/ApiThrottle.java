@@ -0,0 +1,162 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Sleeper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Wraps the credential of the Sheets client so every call made through it
+ * waits for a token from a shared TokenBucket and is retried with exponential
+ * backoff plus jitter on 429 (over quota), 5xx and IO errors. The time spent
+ * waiting and the number of retries are added to the given counters.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class ApiThrottle implements HttpRequestInitializer {
+	private static final int INITIAL_BACKOFF_MILLIS = 1000;
+	private static final int MAX_BACKOFF_MILLIS = 64000;
+	// +/- this fraction of each backoff so parallel callers do not retry together
+	private static final double JITTER = 0.5;
+
+	private final HttpRequestInitializer delegate;
+	private final TokenBucket bucket;
+	private final int maxRetries;
+	private final AtomicLong throttledNanos;
+	private final AtomicLong retries;
+	private final NanoClock clock;
+	private final Sleeper sleeper;
+
+	/**
+	 *
+	 * @param delegate       usually the credential. May be null.
+	 * @param bucket         shared by all calls. May be null for no limit.
+	 * @param maxRetries     per call
+	 * @param throttledNanos added to with the time spent waiting for a token or
+	 *                       to retry
+	 * @param retries        added to with each retry
+	 */
+	public ApiThrottle(HttpRequestInitializer delegate, TokenBucket bucket, int maxRetries, AtomicLong throttledNanos,
+			AtomicLong retries) {
+		this(delegate, bucket, maxRetries, throttledNanos, retries, NanoClock.SYSTEM, Sleeper.DEFAULT);
+	}
+
+	/**
+	 *
+	 * @param delegate       usually the credential. May be null.
+	 * @param bucket         shared by all calls. May be null for no limit.
+	 * @param maxRetries     per call
+	 * @param throttledNanos added to with the time spent waiting for a token or
+	 *                       to retry
+	 * @param retries        added to with each retry
+	 * @param clock          for the backoff
+	 * @param sleeper        used to wait between retries
+	 */
+	public ApiThrottle(HttpRequestInitializer delegate, TokenBucket bucket, int maxRetries, AtomicLong throttledNanos,
+			AtomicLong retries, NanoClock clock, final Sleeper sleeper) {
+		this.delegate = delegate;
+		this.bucket = bucket;
+		this.maxRetries = maxRetries;
+		this.throttledNanos = throttledNanos;
+		this.retries = retries;
+		this.clock = clock;
+		this.sleeper = new Sleeper() {
+			@Override
+			public void sleep(long millis) throws InterruptedException {
+				ApiThrottle.this.throttledNanos.addAndGet(millis * 1000000L);
+				sleeper.sleep(millis);
+			}
+		};
+	}
+
+	private ExponentialBackOff newBackOff() {
+		return new ExponentialBackOff.Builder().setInitialIntervalMillis(INITIAL_BACKOFF_MILLIS)
+				.setMaxIntervalMillis(MAX_BACKOFF_MILLIS).setRandomizationFactor(JITTER).setNanoClock(clock).build();
+	}
+
+	/**
+	 *
+	 * @param statusCode
+	 * @return true for the codes worth retrying
+	 */
+	public static boolean isRetryable(int statusCode) {
+		return statusCode == 429 || statusCode / 100 == 5;
+	}
+
+	@Override
+	public void initialize(HttpRequest request) throws IOException {
+		if (delegate != null)
+			delegate.initialize(request);
+
+		// the credential sets itself as both to add the token and refresh it on a 401
+		final HttpExecuteInterceptor auth = request.getInterceptor();
+		final HttpUnsuccessfulResponseHandler authRetry = request.getUnsuccessfulResponseHandler();
+		final HttpBackOffUnsuccessfulResponseHandler backOffHandler = new HttpBackOffUnsuccessfulResponseHandler(
+				newBackOff()).setSleeper(sleeper)
+						.setBackOffRequired(new HttpBackOffUnsuccessfulResponseHandler.BackOffRequired() {
+							@Override
+							public boolean isRequired(HttpResponse response) {
+								return isRetryable(response.getStatusCode());
+							}
+						});
+		final HttpIOExceptionHandler ioHandler = new HttpBackOffIOExceptionHandler(newBackOff()).setSleeper(sleeper);
+
+		request.setNumberOfRetries(maxRetries);
+		// called before every try so retries wait for a token too
+		request.setInterceptor(new HttpExecuteInterceptor() {
+			@Override
+			public void intercept(HttpRequest request) throws IOException {
+				if (bucket != null) {
+					try {
+						throttledNanos.addAndGet(bucket.acquire());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted waiting to call " + request.getUrl());
+					}
+				}
+				if (auth != null)
+					auth.intercept(request);
+			}
+		});
+		request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler() {
+			@Override
+			public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry)
+					throws IOException {
+				if (authRetry != null && authRetry.handleResponse(request, response, supportsRetry))
+					return true;
+				boolean retry = backOffHandler.handleResponse(request, response, supportsRetry);
+				if (retry) {
+					retries.incrementAndGet();
+					log.warn("Got " + response.getStatusCode() + " from " + request.getUrl() + " retrying");
+				}
+				return retry;
+			}
+		});
+		request.setIOExceptionHandler(new HttpIOExceptionHandler() {
+			@Override
+			public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException {
+				boolean retry = ioHandler.handleIOException(request, supportsRetry);
+				if (retry) {
+					retries.incrementAndGet();
+					log.warn("IO error calling " + request.getUrl() + " retrying");
+				}
+				return retry;
+			}
+		});
+	}
+}
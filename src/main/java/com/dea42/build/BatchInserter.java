@@ -0,0 +1,319 @@
+package com.dea42.build;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.dea42.common.Db;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * RowSink that prepares one parameterized INSERT for a table and sends the rows
+ * with addBatch() / executeBatch() in chunks of batchSize, all in one
+ * transaction per table. The connection comes from the Db so it is the run's
+ * session connection when one is open. If a chunk is rejected it is rolled
+ * back and replayed a row at a time so the bad rows can be counted and logged
+ * like they were before.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class BatchInserter implements RowSink {
+	protected final Db db;
+	protected final String tableName;
+	protected final String sql;
+	protected final Class<?>[] types;
+	protected final int batchSize;
+	protected final boolean failOnAnyError;
+
+	protected Connection conn;
+	private PreparedStatement ps;
+	private final List<Object[]> pending = new ArrayList<>();
+	private final List<Integer> pendingIds = new ArrayList<>();
+	private final List<Integer> failedIds = new ArrayList<>();
+	protected int passed = 0;
+	protected int failed = 0;
+	private int lastRowId = 0;
+	private int committedRowId = 0;
+
+	/**
+	 *
+	 * @param db             DB to write to
+	 * @param tableName      used for logging
+	 * @param sql            INSERT with one ? per bound column
+	 * @param types          field class of each bound column
+	 * @param batchSize      number of rows to send per executeBatch()
+	 * @param failOnAnyError throw on the first row the DB rejects
+	 * @throws SQLException
+	 */
+	public BatchInserter(Db db, String tableName, String sql, Class<?>[] types, int batchSize,
+			boolean failOnAnyError) throws SQLException {
+		this.db = db;
+		this.tableName = tableName;
+		this.sql = sql;
+		this.types = types;
+		this.batchSize = batchSize < 1 ? 1 : batchSize;
+		this.failOnAnyError = failOnAnyError;
+		open();
+	}
+
+	/**
+	 * Get the connection and start the table's transaction
+	 *
+	 * @throws SQLException
+	 */
+	protected void open() throws SQLException {
+		log.debug("Preparing:" + sql);
+		conn = db.begin(getClass().getSimpleName() + ".open()");
+		ps = conn.prepareStatement(sql);
+	}
+
+	@Override
+	public void addRow(int rowId, Object[] vals) throws SQLException {
+		pending.add(vals);
+		pendingIds.add(rowId);
+		if (pending.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Send the pending rows to the DB.
+	 *
+	 * @throws SQLException
+	 */
+	protected void flush() throws SQLException {
+		if (pending.isEmpty())
+			return;
+
+		try {
+			writePending(pending, pendingIds);
+			lastRowId = pendingIds.get(pendingIds.size() - 1);
+		} finally {
+			pending.clear();
+			pendingIds.clear();
+		}
+	}
+
+	/**
+	 * Write a chunk of rows with one executeBatch(). Bulk loaders override this
+	 * and call it for chunks they could not load.
+	 *
+	 * @param rows   values of each row
+	 * @param rowIds sheet row number of each row
+	 * @throws SQLException if failOnAnyError is set and a row fails
+	 */
+	protected void writePending(List<Object[]> rows, List<Integer> rowIds) throws SQLException {
+		Savepoint sp = conn.setSavepoint();
+		try {
+			for (Object[] vals : rows) {
+				bindRow(ps, vals);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			releaseSavepoint(sp);
+			passed += rows.size();
+		} catch (SQLException e) {
+			// note SQLite throws a plain SQLException instead of a BatchUpdateException
+			log.warn(tableName + " batch failed, retrying one row at a time:" + e.getMessage());
+			conn.rollback(sp);
+			releaseSavepoint(sp);
+			ps.clearBatch();
+			retryPending(rows, rowIds);
+		}
+	}
+
+	/**
+	 * Drop a chunk's savepoint once it is no longer needed so they do not pile up
+	 * until the table's commit. Note SQL Server has no RELEASE SAVEPOINT and frees
+	 * them at the commit anyway.
+	 *
+	 * @param sp
+	 * @throws SQLException
+	 */
+	protected void releaseSavepoint(Savepoint sp) throws SQLException {
+		if (!db.isSqlserver())
+			conn.releaseSavepoint(sp);
+	}
+
+	/**
+	 * Run the rows one at a time counting each pass / fail
+	 *
+	 * @throws SQLException if failOnAnyError is set
+	 */
+	private void retryPending(List<Object[]> rows, List<Integer> rowIds) throws SQLException {
+		for (int i = 0; i < rows.size(); i++) {
+			Object[] vals = rows.get(i);
+			try {
+				bindRow(ps, vals);
+				ps.executeUpdate();
+				passed++;
+			} catch (SQLException e) {
+				log.warn(e.getMessage());
+				log.warn(tableName + " rowId:" + rowIds.get(i) + " " + Arrays.toString(vals));
+				if (failOnAnyError) {
+					throw e;
+				}
+				failed++;
+				failedIds.add(rowIds.get(i));
+			}
+			// the rows before one that throws still get committed by close()
+			lastRowId = rowIds.get(i);
+		}
+	}
+
+	@Override
+	public void checkpoint() throws SQLException {
+		flush();
+		conn.commit();
+		committedRowId = lastRowId;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if (conn == null)
+			return;
+		try {
+			flush();
+		} finally {
+			// commit what made it in even if the last chunk threw so it matches the
+			// row at a time behavior
+			try {
+				// Db.commit() skips a connection that was lost
+				boolean open = !conn.isClosed();
+				db.commit(getClass().getSimpleName() + ".close()");
+				if (open)
+					committedRowId = lastRowId;
+			} finally {
+				try {
+					release();
+				} finally {
+					conn = null;
+					db.close(getClass().getSimpleName() + ".close()");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Free anything held for the table once its transaction is committed. Called
+	 * while the connection is still open.
+	 *
+	 * @throws SQLException
+	 */
+	protected void release() throws SQLException {
+		ps.close();
+	}
+
+	@Override
+	public int getPassed() {
+		return passed;
+	}
+
+	@Override
+	public int getFailed() {
+		return failed;
+	}
+
+	@Override
+	public List<Integer> getFailedRowIds() {
+		return failedIds;
+	}
+
+	@Override
+	public int getLastRowId() {
+		return lastRowId;
+	}
+
+	@Override
+	public int getCommittedRowId() {
+		return committedRowId;
+	}
+
+	protected void bindRow(PreparedStatement stmt, Object[] vals) throws SQLException {
+		boolean sqlite = db.isSQLite();
+		for (int i = 0; i < vals.length; i++) {
+			bind(stmt, i + 1, vals[i], types[i], sqlite);
+		}
+	}
+
+	/**
+	 * Bind val to the parameter idx using the type the DB expects for fieldCls.
+	 * Note SQLite gets dates, times and booleans as numbers to match the type
+	 * hints the tables are created with.
+	 *
+	 * @param stmt
+	 * @param idx      1 based parameter index
+	 * @param val
+	 * @param fieldCls class the column was created for
+	 * @param sqlite
+	 * @throws SQLException
+	 */
+	public static void bind(PreparedStatement stmt, int idx, Object val, Class<?> fieldCls, boolean sqlite)
+			throws SQLException {
+		if (val == null) {
+			stmt.setNull(idx, sqlType(fieldCls, sqlite));
+		} else if (val instanceof String) {
+			stmt.setString(idx, (String) val);
+		} else if (val instanceof Integer) {
+			stmt.setInt(idx, (Integer) val);
+		} else if (val instanceof Long) {
+			stmt.setLong(idx, (Long) val);
+		} else if (val instanceof BigDecimal) {
+			if (sqlite)
+				stmt.setDouble(idx, ((BigDecimal) val).doubleValue());
+			else
+				stmt.setBigDecimal(idx, (BigDecimal) val);
+		} else if (val instanceof Boolean) {
+			if (sqlite)
+				stmt.setInt(idx, ((Boolean) val) ? 1 : 0);
+			else
+				stmt.setBoolean(idx, (Boolean) val);
+		} else if (val instanceof Time) {
+			if (sqlite)
+				stmt.setLong(idx, ((Time) val).getTime());
+			else
+				stmt.setTime(idx, (Time) val);
+		} else if (val instanceof Date) {
+			if (sqlite)
+				stmt.setLong(idx, ((Date) val).getTime());
+			else
+				stmt.setTimestamp(idx, new Timestamp(((Date) val).getTime()));
+		} else {
+			stmt.setObject(idx, val);
+		}
+	}
+
+	/**
+	 *
+	 * @param fieldCls
+	 * @param sqlite
+	 * @return the java.sql.Types value to use for a null of fieldCls
+	 */
+	public static int sqlType(Class<?> fieldCls, boolean sqlite) {
+		if (fieldCls == null || fieldCls.isAssignableFrom(String.class))
+			return Types.VARCHAR;
+		if (fieldCls.isAssignableFrom(Integer.class))
+			return Types.INTEGER;
+		if (fieldCls.isAssignableFrom(Long.class))
+			return Types.BIGINT;
+		if (fieldCls.isAssignableFrom(Boolean.class))
+			return sqlite ? Types.INTEGER : Types.BOOLEAN;
+		if (fieldCls.isAssignableFrom(Date.class))
+			return sqlite ? Types.BIGINT : Types.TIMESTAMP;
+		if (fieldCls.isAssignableFrom(Time.class))
+			return sqlite ? Types.BIGINT : Types.TIME;
+		return Types.REAL;
+	}
+}
@@ -0,0 +1,117 @@
+package com.dea42.build;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Where each column of a tab goes, worked out once from the .columns, .user
+ * and .required properties and the header row so the per cell work while
+ * parsing is just array lookups.
+ *
+ * @author avata
+ *
+ */
+public class ColumnPlan {
+	/** column is not imported */
+	public static final byte SKIP = 0;
+	/** column goes in the main table */
+	public static final byte MAIN = 1;
+	/** column goes in the user table */
+	public static final byte USER = 2;
+
+	private final byte[] dest;
+	private final String[] headers;
+	private final String[] linkHeaders;
+	private final BitSet required;
+
+	/**
+	 *
+	 * @param wanted   0 based columns for the main table or empty for all
+	 * @param user     0 based columns for the user table
+	 * @param required 0 based columns that must have a value
+	 * @param headers  field name of each column. Columns past the end or with a
+	 *                 null name are skipped.
+	 */
+	public ColumnPlan(BitSet wanted, BitSet user, BitSet required, String[] headers) {
+		this.headers = headers.clone();
+		this.dest = new byte[headers.length];
+		this.linkHeaders = new String[headers.length];
+		this.required = (BitSet) required.clone();
+		for (int i = 0; i < headers.length; i++) {
+			if (headers[i] == null) {
+				dest[i] = SKIP;
+			} else if (user.get(i)) {
+				dest[i] = USER;
+			} else if (wanted.isEmpty() || wanted.get(i)) {
+				dest[i] = MAIN;
+			} else {
+				dest[i] = SKIP;
+			}
+			if (dest[i] != SKIP)
+				linkHeaders[i] = headers[i] + " link";
+		}
+	}
+
+	/**
+	 *
+	 * @param cols column numbers as from Sheets2DB.strToCols()
+	 * @return cols as a BitSet
+	 */
+	public static BitSet toBits(List<Integer> cols) {
+		BitSet rtn = new BitSet();
+		for (Integer col : cols) {
+			rtn.set(col);
+		}
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @return number of columns in the header row
+	 */
+	public int size() {
+		return dest.length;
+	}
+
+	/**
+	 *
+	 * @param col 0 based column
+	 * @return SKIP, MAIN or USER
+	 */
+	public byte getDest(int col) {
+		if (col < dest.length)
+			return dest[col];
+		return SKIP;
+	}
+
+	/**
+	 *
+	 * @param col 0 based column
+	 * @return field name or null if skipped
+	 */
+	public String getHeader(int col) {
+		if (col < headers.length)
+			return headers[col];
+		return null;
+	}
+
+	/**
+	 *
+	 * @param col 0 based column
+	 * @return field name for the URL of a HYPERLINK() in the column
+	 */
+	public String getLinkHeader(int col) {
+		if (col < linkHeaders.length)
+			return linkHeaders[col];
+		return null;
+	}
+
+	/**
+	 *
+	 * @param col 0 based column
+	 * @return true if the column must have a value
+	 */
+	public boolean isRequired(int col) {
+		return required.get(col);
+	}
+}
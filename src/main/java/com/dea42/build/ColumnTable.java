@@ -0,0 +1,585 @@
+package com.dea42.build;
+
+import java.io.Closeable;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the cell values of a tab column by column instead of a HashMap per row.
+ * Each column is stored in a typed vector picked from the first value put in
+ * it. Integers and Longs go in primitive arrays, Dates and Times as epoch
+ * millis, Booleans as bits and Strings as codes into a per column dictionary
+ * so equal values share one instance and the column's distinct count comes
+ * for free. An Integer column that gets a Long is widened to Longs and a column
+ * whose type has become String has its earlier values turned into Strings like
+ * the insert would. Anything else, or a column that ends up with other mixed
+ * types, is kept boxed so get() hands back the same class that was put in.
+ * 
+ * Rows are read back in order with a Cursor.
+ *
+ * @author avata
+ *
+ */
+public class ColumnTable implements Closeable {
+	private static final int INITIAL_ROWS = 16;
+
+	private final List<String> names = new ArrayList<>();
+	private final List<Column> columns = new ArrayList<>();
+	private final Map<String, Integer> nameIdx = new HashMap<>();
+	// sheet row number of each row
+	private int[] rowIds = new int[INITIAL_ROWS];
+	private int rowCount = 0;
+
+	/**
+	 * Add a row
+	 *
+	 * @param rowId sheet row number
+	 * @return index of the new row
+	 */
+	public int addRow(int rowId) {
+		if (rowCount == rowIds.length)
+			rowIds = Arrays.copyOf(rowIds, rowCount * 2);
+		rowIds[rowCount] = rowId;
+		return rowCount++;
+	}
+
+	/**
+	 *
+	 * @return number of rows
+	 */
+	public int size() {
+		return rowCount;
+	}
+
+	/**
+	 *
+	 * @return number of rows held in memory. Less than size() if rows were
+	 *         spilled to disk.
+	 */
+	public int getRowsInMemory() {
+		return rowCount;
+	}
+
+	/**
+	 *
+	 * @param row index
+	 * @return sheet row number of the row
+	 */
+	public int getRowId(int row) {
+		return rowIds[row];
+	}
+
+	/**
+	 *
+	 * @return BitSet with every row set
+	 */
+	public BitSet allRows() {
+		BitSet rtn = new BitSet(size());
+		rtn.set(0, size());
+		return rtn;
+	}
+
+	/**
+	 * Add a column if not already there
+	 * 
+	 * @param name column name
+	 * @return index of the column to use with set(int, int, Object)
+	 */
+	public int addColumn(String name) {
+		Integer idx = nameIdx.get(name);
+		if (idx == null) {
+			idx = names.size();
+			names.add(name);
+			columns.add(null);
+			nameIdx.put(name, idx);
+		}
+		return idx;
+	}
+
+	/**
+	 * 
+	 * @param colIdx index from addColumn()
+	 * @return the column's name
+	 */
+	public String getColumnName(int colIdx) {
+		return names.get(colIdx);
+	}
+
+	/**
+	 * 
+	 * @return number of columns added
+	 */
+	public int getColumnCount() {
+		return names.size();
+	}
+
+	/**
+	 * 
+	 * @param name column name
+	 * @return number of distinct values in the column, 0 if it is blank or -1 if
+	 *         it is not all Strings so is not counted
+	 */
+	public int getDistinctCount(String name) {
+		Set<String> dict = getDictionary(name);
+		if (dict != null)
+			return dict.size();
+		Integer idx = nameIdx.get(name);
+		return idx == null || columns.get(idx) == null ? 0 : -1;
+	}
+
+	/**
+	 * 
+	 * @param name column name
+	 * @return the distinct values of a String column or null if the column is
+	 *         not all Strings
+	 */
+	Set<String> getDictionary(String name) {
+		Integer idx = nameIdx.get(name);
+		if (idx == null)
+			return null;
+		Column col = columns.get(idx);
+		if (col instanceof StringColumn)
+			return ((StringColumn) col).lookup.keySet();
+		return null;
+	}
+
+	/**
+	 *
+	 * @param row  index
+	 * @param name column name
+	 * @param val  value or null for blank
+	 */
+	public void set(int row, String name, Object val) {
+		set(row, addColumn(name), val);
+	}
+
+	/**
+	 *
+	 * @param row    index
+	 * @param colIdx index from addColumn()
+	 * @param val    value or null for blank
+	 */
+	public void set(int row, int colIdx, Object val) {
+		set(row, colIdx, val, null);
+	}
+
+	/**
+	 *
+	 * @param row    index
+	 * @param colIdx index from addColumn()
+	 * @param val    value or null for blank
+	 * @param type   type of the column so far including val. Used to pick what
+	 *               the column is converted to if val does not fit. May be
+	 *               null.
+	 */
+	public void set(int row, int colIdx, Object val, Class<?> type) {
+		Column col = columns.get(colIdx);
+		if (val == null) {
+			if (col != null)
+				col.present.clear(row);
+			return;
+		}
+		if (col == null) {
+			col = Column.forValue(val);
+			columns.set(colIdx, col);
+		} else if (!col.accepts(val)) {
+			col = Column.widen(col, val, type);
+			columns.set(colIdx, col);
+		}
+		col.store(row, val);
+		col.present.set(row);
+	}
+
+	/**
+	 *
+	 * @param row  index
+	 * @param name column name
+	 * @return the value or null if blank / no such column
+	 */
+	public Object get(int row, String name) {
+		Integer idx = nameIdx.get(name);
+		if (idx == null)
+			return null;
+		Column col = columns.get(idx);
+		if (col == null || !col.present.get(row))
+			return null;
+		return col.load(row);
+	}
+
+	/**
+	 *
+	 * @param row index
+	 * @return the row's non blank values like a Map.toString() for logging
+	 */
+	public String rowToString(int row) {
+		StringBuilder sb = new StringBuilder("{");
+		for (String name : names) {
+			Object val = get(row, name);
+			if (val != null) {
+				if (sb.length() > 1)
+					sb.append(", ");
+				sb.append(name).append('=').append(val);
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * 
+	 * @param rows the rows to read
+	 * @return a Cursor positioned before the first of rows
+	 */
+	public Cursor cursor(BitSet rows) {
+		return new Cursor(rows);
+	}
+
+	/**
+	 * Free anything held outside the heap. Nothing to do for an in memory table.
+	 */
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append("[rows=").append(size())
+				.append(", columns={");
+		boolean addcom = false;
+		for (int i = 0; i < names.size(); i++) {
+			if (addcom)
+				sb.append(", ");
+			else
+				addcom = true;
+			Column col = columns.get(i);
+			sb.append(names.get(i)).append('=').append(col == null ? "empty" : col.getClass().getSimpleName());
+		}
+		return sb.append("}]").toString();
+	}
+
+	/**
+	 * Walks a set of rows in order.
+	 */
+	public class Cursor implements Closeable {
+		protected final BitSet rows;
+		protected int row = -1;
+
+		protected Cursor(BitSet rows) {
+			this.rows = rows;
+		}
+
+		/**
+		 * Move to the next row
+		 * 
+		 * @return false if there are no more rows
+		 */
+		public boolean next() {
+			if (row == Integer.MAX_VALUE)
+				return false;
+			row = rows.nextSetBit(row + 1);
+			if (row < 0 || row >= size()) {
+				row = Integer.MAX_VALUE;
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * 
+		 * @return index of the current row
+		 */
+		public int getRow() {
+			return row;
+		}
+
+		/**
+		 * 
+		 * @return sheet row number of the current row
+		 */
+		public int getRowId() {
+			return ColumnTable.this.getRowId(row);
+		}
+
+		/**
+		 * 
+		 * @param name column name
+		 * @return the current row's value or null if blank
+		 */
+		public Object get(String name) {
+			return ColumnTable.this.get(row, name);
+		}
+
+		@Override
+		public String toString() {
+			return rowToString(row);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * One column's values. present has a bit set for each row that is not
+	 * blank.
+	 */
+	abstract static class Column {
+		final BitSet present = new BitSet();
+
+		static Column forValue(Object val) {
+			Class<?> cls = val.getClass();
+			if (cls == String.class)
+				return new StringColumn();
+			if (cls == Integer.class)
+				return new IntColumn();
+			if (cls == Long.class)
+				return new LongColumn();
+			if (cls == Boolean.class)
+				return new BooleanColumn();
+			if (cls == Date.class || cls == Time.class)
+				return new DateColumn(cls == Time.class);
+			return new ObjectColumn(null);
+		}
+
+		/**
+		 * 
+		 * @param col  column val does not fit in
+		 * @param val  not null
+		 * @param type type of the column including val or null
+		 * @return a new column holding col's values that val fits in
+		 */
+		static Column widen(Column col, Object val, Class<?> type) {
+			if (type == String.class && val.getClass() == String.class)
+				return new StringColumn(col);
+			if (type == Long.class && col.getClass() == IntColumn.class && val.getClass() == Long.class)
+				return new LongColumn(col);
+			return new ObjectColumn(col);
+		}
+
+		/**
+		 *
+		 * @param val not null
+		 * @return true if val can be stored here and come back as the same class
+		 */
+		abstract boolean accepts(Object val);
+
+		abstract void store(int row, Object val);
+
+		/**
+		 * Only called for rows with the present bit set
+		 */
+		abstract Object load(int row);
+
+		static int grow(int len, int row) {
+			return Math.max(row + 1, Math.max(INITIAL_ROWS, len * 2));
+		}
+	}
+
+	static class IntColumn extends Column {
+		private int[] vals = new int[0];
+
+		@Override
+		boolean accepts(Object val) {
+			return val.getClass() == Integer.class;
+		}
+
+		@Override
+		void store(int row, Object val) {
+			if (row >= vals.length)
+				vals = Arrays.copyOf(vals, grow(vals.length, row));
+			vals[row] = (Integer) val;
+		}
+
+		@Override
+		Object load(int row) {
+			return vals[row];
+		}
+	}
+
+	static class LongColumn extends Column {
+		protected long[] vals = new long[0];
+
+		LongColumn() {
+		}
+
+		/**
+		 *
+		 * @param from IntColumn to copy the values of
+		 */
+		LongColumn(Column from) {
+			vals = new long[((IntColumn) from).vals.length];
+			for (int row = from.present.nextSetBit(0); row >= 0; row = from.present.nextSetBit(row + 1)) {
+				vals[row] = ((IntColumn) from).vals[row];
+				present.set(row);
+			}
+		}
+
+		@Override
+		boolean accepts(Object val) {
+			return val.getClass() == Long.class;
+		}
+
+		@Override
+		void store(int row, Object val) {
+			if (row >= vals.length)
+				vals = Arrays.copyOf(vals, grow(vals.length, row));
+			vals[row] = toLong(val);
+		}
+
+		protected long toLong(Object val) {
+			return (Long) val;
+		}
+
+		@Override
+		Object load(int row) {
+			return vals[row];
+		}
+	}
+
+	/**
+	 * Dates or Times as epoch millis
+	 */
+	static class DateColumn extends LongColumn {
+		private final boolean time;
+
+		DateColumn(boolean time) {
+			this.time = time;
+		}
+
+		@Override
+		boolean accepts(Object val) {
+			return val.getClass() == (time ? Time.class : Date.class);
+		}
+
+		@Override
+		protected long toLong(Object val) {
+			return ((Date) val).getTime();
+		}
+
+		@Override
+		Object load(int row) {
+			if (time)
+				return new Time(vals[row]);
+			return new Date(vals[row]);
+		}
+	}
+
+	static class BooleanColumn extends Column {
+		private final BitSet vals = new BitSet();
+
+		@Override
+		boolean accepts(Object val) {
+			return val.getClass() == Boolean.class;
+		}
+
+		@Override
+		void store(int row, Object val) {
+			vals.set(row, (Boolean) val);
+		}
+
+		@Override
+		Object load(int row) {
+			return vals.get(row);
+		}
+	}
+
+	/**
+	 * Strings as codes into a dictionary of the distinct values so repeated
+	 * values like network names are only held once.
+	 */
+	static class StringColumn extends Column {
+		private int[] codes = new int[0];
+		private final List<String> dict = new ArrayList<>();
+		private final Map<String, Integer> lookup = new HashMap<>();
+
+		StringColumn() {
+		}
+
+		/**
+		 *
+		 * @param from column to copy the values of as Strings
+		 */
+		StringColumn(Column from) {
+			for (int row = from.present.nextSetBit(0); row >= 0; row = from.present.nextSetBit(row + 1)) {
+				store(row, from.load(row).toString());
+				present.set(row);
+			}
+		}
+
+		@Override
+		boolean accepts(Object val) {
+			return val.getClass() == String.class;
+		}
+
+		@Override
+		void store(int row, Object val) {
+			if (row >= codes.length)
+				codes = Arrays.copyOf(codes, grow(codes.length, row));
+			String s = (String) val;
+			Integer code = lookup.get(s);
+			if (code == null) {
+				code = dict.size();
+				dict.add(s);
+				lookup.put(s, code);
+			}
+			codes[row] = code;
+		}
+
+		@Override
+		Object load(int row) {
+			return dict.get(codes[row]);
+		}
+	}
+
+	/**
+	 * Fall back for other types and mixed columns. Strings still share one
+	 * instance per value.
+	 */
+	static class ObjectColumn extends Column {
+		private Object[] vals = new Object[0];
+		private final Map<String, String> strings = new HashMap<>();
+
+		/**
+		 *
+		 * @param from column to copy the values of or null
+		 */
+		ObjectColumn(Column from) {
+			if (from != null) {
+				for (int row = from.present.nextSetBit(0); row >= 0; row = from.present.nextSetBit(row + 1)) {
+					store(row, from.load(row));
+					present.set(row);
+				}
+			}
+		}
+
+		@Override
+		boolean accepts(Object val) {
+			return true;
+		}
+
+		@Override
+		void store(int row, Object val) {
+			if (row >= vals.length)
+				vals = Arrays.copyOf(vals, grow(vals.length, row));
+			if (val instanceof String) {
+				String s = strings.get(val);
+				if (s == null)
+					strings.put((String) val, (String) val);
+				else
+					val = s;
+			}
+			vals[row] = val;
+		}
+
+		@Override
+		Object load(int row) {
+			return vals[row];
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package com.dea42.build;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What has been learned about a column while parsing a tab. The type only
+ * widens as rows are read (Integer -> Long -> BigDecimal -> String) so one odd
+ * row does not flip the column back and forth. If the type was set in the
+ * properties it is fixed and values are converted to it instead. Also keeps the
+ * shortest and longest text form of the values in case the column ends up a
+ * String plus the range, digits and rough distinct count genTable() needs to
+ * pick a compact SQL type.
+ *
+ * @author avata
+ *
+ */
+public class ColumnType {
+	private Class<?> type;
+	private final boolean fixed;
+	private int maxLen = 0;
+	private int minLen = Integer.MAX_VALUE;
+	// non null values added
+	private long count = 0;
+	// range of the Integer and Long values
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+	// digits before and after the point of the numbers
+	private int maxIntDigits = 0;
+	private int maxScale = 0;
+	private HyperLogLog distinct;
+
+	/**
+	 *
+	 * @param configured type from the properties or null to work it out from the
+	 *                   data
+	 */
+	public ColumnType(Class<?> configured) {
+		this.type = configured;
+		this.fixed = configured != null;
+	}
+
+	/**
+	 *
+	 * @return the column type so far or null if there has only been blanks
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 *
+	 * @return true if the type came from the properties
+	 */
+	public boolean isFixed() {
+		return fixed;
+	}
+
+	/**
+	 *
+	 * @return length of the longest value as text
+	 */
+	public int getMaxLen() {
+		return maxLen;
+	}
+
+	/**
+	 *
+	 * @return length of the shortest value as text or 0 if there were none
+	 */
+	public int getMinLen() {
+		return count == 0 ? 0 : minLen;
+	}
+
+	/**
+	 *
+	 * @return number of non blank values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return smallest Integer or Long value
+	 */
+	public long getMin() {
+		return min;
+	}
+
+	/**
+	 *
+	 * @return largest Integer or Long value
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 *
+	 * @return most digits before the decimal point of the numbers
+	 */
+	public int getMaxIntDigits() {
+		return maxIntDigits;
+	}
+
+	/**
+	 *
+	 * @return most digits after the decimal point of the numbers
+	 */
+	public int getMaxScale() {
+		return maxScale;
+	}
+
+	/**
+	 *
+	 * @return estimated number of distinct values
+	 */
+	public long getDistinct() {
+		return distinct == null ? 0 : distinct.estimate();
+	}
+
+	/**
+	 * Update the type, lengths and stats with a typed value
+	 *
+	 * @param val not null
+	 */
+	public void add(Object val) {
+		if (!fixed) {
+			type = widen(type, val.getClass());
+		}
+		int len = textLen(val);
+		if (len > maxLen)
+			maxLen = len;
+		if (len < minLen)
+			minLen = len;
+		count++;
+		if (val instanceof Integer || val instanceof Long) {
+			long l = ((Number) val).longValue();
+			if (l < min)
+				min = l;
+			if (l > max)
+				max = l;
+			int digits = l < 0 ? len - 1 : len;
+			if (digits > maxIntDigits)
+				maxIntDigits = digits;
+		} else if (val instanceof BigDecimal) {
+			BigDecimal bd = (BigDecimal) val;
+			int scale = Math.max(0, bd.scale());
+			if (scale > maxScale)
+				maxScale = scale;
+			int digits = bd.precision() - bd.scale();
+			if (digits > maxIntDigits)
+				maxIntDigits = digits;
+		}
+		if (distinct == null)
+			distinct = new HyperLogLog();
+		distinct.add(val);
+	}
+
+	/**
+	 *
+	 * @param rows rows in the table the column is in
+	 * @return the stats as a map for the stats report
+	 */
+	public Map<String, Object> toMap(long rows) {
+		Map<String, Object> rtn = new LinkedHashMap<>();
+		rtn.put("type", type == null ? null : type.getSimpleName());
+		rtn.put("nulls", Math.max(0, rows - count));
+		rtn.put("distinct", getDistinct());
+		rtn.put("minLen", getMinLen());
+		rtn.put("maxLen", maxLen);
+		if (min <= max) {
+			rtn.put("min", min);
+			rtn.put("max", max);
+		}
+		if (type == Integer.class || type == Long.class || type == BigDecimal.class) {
+			rtn.put("precision", maxIntDigits + maxScale);
+			rtn.put("scale", maxScale);
+		}
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @param cur type so far or null
+	 * @param cls type of the next value
+	 * @return the narrowest type that can hold both
+	 */
+	public static Class<?> widen(Class<?> cur, Class<?> cls) {
+		if (cur == null || cur == cls)
+			return cls;
+		int curRank = numRank(cur);
+		int clsRank = numRank(cls);
+		if (curRank > 0 && clsRank > 0)
+			return curRank > clsRank ? cur : cls;
+		return String.class;
+	}
+
+	private static int numRank(Class<?> cls) {
+		if (cls == Integer.class)
+			return 1;
+		if (cls == Long.class)
+			return 2;
+		if (cls == BigDecimal.class)
+			return 3;
+		return 0;
+	}
+
+	/**
+	 * Convert a value of a narrower type to the column type
+	 *
+	 * @param val
+	 * @param to  column type
+	 * @return the converted value or null if to is not wider than val's type
+	 */
+	public static Object widenVal(Object val, Class<?> to) {
+		if (to == String.class)
+			return val.toString();
+		if (to == Long.class && val instanceof Integer)
+			return ((Integer) val).longValue();
+		if (to == BigDecimal.class && (val instanceof Integer || val instanceof Long))
+			return BigDecimal.valueOf(((Number) val).longValue());
+		return null;
+	}
+
+	/**
+	 *
+	 * @param val
+	 * @return length of val.toString() without building it for the common types
+	 */
+	static int textLen(Object val) {
+		if (val instanceof String)
+			return ((String) val).length();
+		if (val instanceof Integer || val instanceof Long) {
+			long l = ((Number) val).longValue();
+			int len = l < 0 ? 2 : 1;
+			while (l <= -10 || l >= 10) {
+				l /= 10;
+				len++;
+			}
+			return len;
+		}
+		if (val instanceof Boolean)
+			return ((Boolean) val) ? 4 : 5;
+		return val.toString().length();
+	}
+}
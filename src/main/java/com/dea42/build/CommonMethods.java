@@ -155,6 +155,9 @@ public class CommonMethods {
 		// SQLite tables to always ignore
 		filteredTables.add("hibernate_sequence");
 		filteredTables.add("sqlite_sequence");
+		// Sheets2DB sync state
+		filteredTables.add(DeltaSync.TABLES_TABLE);
+		filteredTables.add(DeltaSync.ROWS_TABLE);
 
 		File outDir = Utils.getPath(baseDir).toFile();
 		if (!outDir.exists()) {
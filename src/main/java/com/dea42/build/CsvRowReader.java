@@ -0,0 +1,145 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the rows of a CSV file as written by File / Download / CSV in Google
+ * sheets or by Excel. Fields may be quoted with " in which case they can hold
+ * commas, line breaks and "" for a quote. All values are text except TRUE and
+ * FALSE which are what check boxes are exported as.
+ *
+ * @author avata
+ *
+ */
+public class CsvRowReader implements RowReader {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final char BOM = '\uFEFF';
+
+	private final Reader in;
+	private final char delimiter;
+	private final char[] buf = new char[BUFFER_SIZE];
+	private int pos = 0;
+	private int len = 0;
+	private boolean eof = false;
+	private final StringBuilder field = new StringBuilder();
+
+	/**
+	 *
+	 * @param file      UTF-8 CSV file
+	 * @param delimiter usually ,
+	 * @throws IOException
+	 */
+	public CsvRowReader(Path file, char delimiter) throws IOException {
+		this.in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+		this.delimiter = delimiter;
+		if (fill() && buf[0] == BOM)
+			pos++;
+	}
+
+	private boolean fill() throws IOException {
+		if (eof)
+			return false;
+		len = in.read(buf, 0, buf.length);
+		pos = 0;
+		if (len <= 0) {
+			len = 0;
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return next char or -1 at the end of the file
+	 * @throws IOException
+	 */
+	private int read() throws IOException {
+		if (pos == len && !fill())
+			return -1;
+		return buf[pos++];
+	}
+
+	/**
+	 *
+	 * @return next char without reading it or -1 at the end of the file
+	 * @throws IOException
+	 */
+	private int peek() throws IOException {
+		if (pos == len && !fill())
+			return -1;
+		return buf[pos];
+	}
+
+	@Override
+	public List<Object> next() throws IOException {
+		int c = read();
+		if (c == -1)
+			return null;
+
+		List<Object> row = new ArrayList<>();
+		field.setLength(0);
+		boolean quoted = false;
+		while (true) {
+			if (quoted) {
+				if (c == -1)
+					throw new IOException("End of file inside a quoted field");
+				if (c == '"') {
+					if (peek() == '"') {
+						read();
+						field.append('"');
+					} else {
+						quoted = false;
+					}
+				} else {
+					field.append((char) c);
+				}
+			} else if (c == '"' && field.length() == 0) {
+				quoted = true;
+			} else if (c == delimiter) {
+				row.add(toValue());
+			} else if (c == '\n' || c == '\r' || c == -1) {
+				if (c == '\r' && peek() == '\n')
+					read();
+				row.add(toValue());
+				break;
+			} else {
+				field.append((char) c);
+			}
+			c = read();
+		}
+		// a blank line is a blank row
+		if (row.size() == 1 && "".equals(row.get(0)))
+			row.clear();
+		return row;
+	}
+
+	private Object toValue() {
+		String s = field.toString();
+		field.setLength(0);
+		if ("TRUE".equals(s))
+			return Boolean.TRUE;
+		if ("FALSE".equals(s))
+			return Boolean.FALSE;
+		return s;
+	}
+
+	/**
+	 * CSV files only have the values
+	 */
+	@Override
+	public List<Object> getFormulas() {
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,290 @@
+package com.dea42.build;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Recognizes the date / time formats found in the sheets and turns them into
+ * epoch millis in one pass over the string without creating exceptions or
+ * other garbage when the string is not a date. Thread safe. Handles:<br>
+ * [EEE ]MM/dd/yy hh:mm[:ss] a<br>
+ * [EEE ]MM/dd/yy HH:mm[:ss]<br>
+ * [EEE ]MM-dd-yy hh:mm[:ss] a<br>
+ * [EEE ]MM-dd-yy HH:mm[:ss]<br>
+ * MM/dd/yy<br>
+ * MM-dd-yy<br>
+ * yyyy-MM-dd[ HH:mm[:ss[.SSS]]]<br>
+ * hh:mm[:ss] a<br>
+ * HH:mm[:ss]<br>
+ * yyyyMMddHHmm (sortable date returned by TiVo)<br>
+ * Like a lenient SimpleDateFormat out of range fields roll over, 12 AM is
+ * midnight, a two digit year is put within 80 years before and 20 years after
+ * now and any other year is taken as is. Times without a date are on
+ * 1970-01-01.
+ *
+ * @author avata
+ *
+ */
+public class DateClassifier {
+	private static final String[] WEEKDAYS = { "sunday", "monday", "tuesday", "wednesday", "thursday", "friday",
+			"saturday" };
+	private static final int MAX_FIELD_DIGITS = 4;
+	private static final int MAX_FRACTION_DIGITS = 9;
+	public static final DateTimeFormatter DB_DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+	public static final DateTimeFormatter TIME_ONLY24S = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+	private final ZoneId zone;
+	// first year of the 100 year window two digit years are put in
+	private final int centuryStartYear;
+
+	/**
+	 * Uses the default time zone and puts two digit years in the 100 years
+	 * starting 80 years ago like SimpleDateFormat does.
+	 */
+	public DateClassifier() {
+		this(ZoneId.systemDefault(), LocalDate.now().getYear() - 80);
+	}
+
+	/**
+	 *
+	 * @param zone             zone the strings are local to
+	 * @param centuryStartYear first year of the window two digit years are put in
+	 */
+	public DateClassifier(ZoneId zone, int centuryStartYear) {
+		this.zone = zone;
+		this.centuryStartYear = centuryStartYear;
+	}
+
+	/**
+	 *
+	 * @param ms epoch millis
+	 * @return ms as yyyy-MM-dd HH:mm:ss.SSS in the local zone
+	 */
+	public String formatDateTime(long ms) {
+		return DB_DATETIME.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(ms), zone));
+	}
+
+	/**
+	 *
+	 * @param ms epoch millis
+	 * @return ms as HH:mm:ss in the local zone
+	 */
+	public String formatTime(long ms) {
+		return TIME_ONLY24S.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(ms), zone));
+	}
+
+	/**
+	 *
+	 * @param source
+	 * @return date as ms or 0 if not a date / time
+	 */
+	public long parse(String source) {
+		if (source == null || source.length() < 5 || source.length() > 30)
+			return 0;
+
+		String s = source.trim();
+		int len = s.length();
+		if (len == 0)
+			return 0;
+
+		int pos = 0;
+		boolean hasWeekday = false;
+		if (isLetter(s.charAt(0))) {
+			pos = skipWeekday(s);
+			if (pos < 0)
+				return 0;
+			hasWeekday = true;
+		}
+
+		// first number, either the month, the year or the hour
+		int start = pos;
+		pos = skipDigits(s, pos);
+		int digits = pos - start;
+		if (digits == 0)
+			return 0;
+
+		if (pos == len) {
+			if (!hasWeekday && digits == 12)
+				return tivo(s);
+			return 0;
+		}
+
+		int year;
+		int month;
+		int day;
+		char sep = s.charAt(pos);
+		if (sep == '/' || sep == '-') {
+			if (digits > MAX_FIELD_DIGITS)
+				return 0;
+			int n1 = toInt(s, start, pos);
+			int n2Start = ++pos;
+			pos = skipDigits(s, pos);
+			if (pos == n2Start || pos - n2Start > MAX_FIELD_DIGITS || pos == len || s.charAt(pos) != sep)
+				return 0;
+			int n2 = toInt(s, n2Start, pos);
+			int n3Start = ++pos;
+			pos = skipDigits(s, pos);
+			if (pos == n3Start || pos - n3Start > MAX_FIELD_DIGITS)
+				return 0;
+			int n3 = toInt(s, n3Start, pos);
+			if (sep == '-' && digits == 4) {
+				year = n1;
+				month = n2;
+				day = n3;
+			} else {
+				month = n1;
+				day = n2;
+				year = pos - n3Start == 2 ? twoDigitYear(n3) : n3;
+			}
+			if (pos == len) {
+				// date only is not expected with a day of the week
+				if (hasWeekday)
+					return 0;
+				return toMillis(year, month, day, 0, 0, 0, 0);
+			}
+			if (s.charAt(pos) != ' ')
+				return 0;
+			while (pos < len && s.charAt(pos) == ' ')
+				pos++;
+			start = pos;
+			pos = skipDigits(s, pos);
+			digits = pos - start;
+			if (digits == 0 || pos == len || s.charAt(pos) != ':')
+				return 0;
+		} else if (sep == ':' && !hasWeekday) {
+			year = 1970;
+			month = 1;
+			day = 1;
+		} else {
+			return 0;
+		}
+
+		// time starting with the hour at start
+		if (digits > MAX_FIELD_DIGITS)
+			return 0;
+		int hour = toInt(s, start, pos);
+		int minStart = ++pos;
+		pos = skipDigits(s, pos);
+		if (pos == minStart || pos - minStart > MAX_FIELD_DIGITS)
+			return 0;
+		int min = toInt(s, minStart, pos);
+		int sec = 0;
+		int nanos = 0;
+		if (pos < len && s.charAt(pos) == ':') {
+			int secStart = ++pos;
+			pos = skipDigits(s, pos);
+			if (pos == secStart || pos - secStart > MAX_FIELD_DIGITS)
+				return 0;
+			sec = toInt(s, secStart, pos);
+			if (pos < len && s.charAt(pos) == '.') {
+				int fracStart = ++pos;
+				pos = skipDigits(s, pos);
+				int fracDigits = pos - fracStart;
+				if (fracDigits == 0 || fracDigits > MAX_FRACTION_DIGITS)
+					return 0;
+				nanos = toInt(s, fracStart, pos);
+				for (int i = fracDigits; i < MAX_FRACTION_DIGITS; i++)
+					nanos *= 10;
+			}
+		}
+		if (pos < len) {
+			if (s.charAt(pos) != ' ')
+				return 0;
+			while (pos < len && s.charAt(pos) == ' ')
+				pos++;
+			// AM / PM then anything after a space is ignored like a time zone is by
+			// SimpleDateFormat
+			if (len - pos < 2 || (s.charAt(pos + 1) != 'M' && s.charAt(pos + 1) != 'm')
+					|| (len - pos > 2 && s.charAt(pos + 2) != ' '))
+				return 0;
+			char ap = s.charAt(pos);
+			if (hour == 12)
+				hour = 0;
+			if (ap == 'P' || ap == 'p')
+				hour += 12;
+			else if (ap != 'A' && ap != 'a')
+				return 0;
+		}
+
+		return toMillis(year, month, day, hour, min, sec, nanos);
+	}
+
+	/**
+	 * yyyyMMddHHmm
+	 */
+	private long tivo(String s) {
+		return toMillis(toInt(s, 0, 4), toInt(s, 4, 6), toInt(s, 6, 8), toInt(s, 8, 10), toInt(s, 10, 12), 0, 0);
+	}
+
+	/**
+	 * Rolls over out of range fields the way a lenient Calendar does
+	 */
+	private long toMillis(int year, int month, int day, int hour, int min, int sec, int nanos) {
+		LocalDateTime ldt = LocalDate.of(year, 1, 1).plusMonths(month - 1L).plusDays(day - 1L).atStartOfDay()
+				.plusHours(hour).plusMinutes(min).plusSeconds(sec).plusNanos(nanos);
+		return ldt.atZone(zone).toInstant().toEpochMilli();
+	}
+
+	private int twoDigitYear(int yy) {
+		int rtn = (centuryStartYear / 100) * 100 + yy;
+		if (rtn < centuryStartYear)
+			rtn += 100;
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @param s
+	 * @return index after the weekday and the spaces after it or -1 if s does
+	 *         not start with one
+	 */
+	private static int skipWeekday(String s) {
+		int len = s.length();
+		int end = 0;
+		while (end < len && isLetter(s.charAt(end)))
+			end++;
+		if (end == len || s.charAt(end) != ' ' || !isWeekday(s, end))
+			return -1;
+		while (end < len && s.charAt(end) == ' ')
+			end++;
+		return end;
+	}
+
+	/**
+	 *
+	 * @param s
+	 * @param end length of the word at the start of s
+	 * @return true if the word is a weekday name or the 3 letter short form of
+	 *         one
+	 */
+	private static boolean isWeekday(String s, int end) {
+		for (String day : WEEKDAYS) {
+			if ((end == 3 || end == day.length()) && s.regionMatches(true, 0, day, 0, end))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+	}
+
+	private static int skipDigits(String s, int pos) {
+		while (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9')
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * Digits between start and end which are known to be short enough to fit
+	 */
+	private static int toInt(String s, int start, int end) {
+		int rtn = 0;
+		for (int i = start; i < end; i++)
+			rtn = rtn * 10 + (s.charAt(i) - '0');
+		return rtn;
+	}
+}
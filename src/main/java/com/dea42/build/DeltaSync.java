@@ -0,0 +1,482 @@
+package com.dea42.build;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dea42.common.Db;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps a hash of every row imported in a side table so a re-run only has to
+ * write the rows that changed instead of dropping and reloading every table.
+ * Rows are matched on a key which is the id made from the sheet row or the
+ * value of the table's .naturalKey field. Changed and new rows are written with
+ * the DB's UPSERT and rows no longer in the sheet are deleted. A hash of the
+ * CREATE TABLE is kept too so a table is only rebuilt when its columns change.
+ * When not enabled it just forgets the state of any table that gets rebuilt so
+ * a later sync run does not trust it.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class DeltaSync {
+	/** table holding the CREATE TABLE hash of each table synced */
+	public static final String TABLES_TABLE = "SyncTables";
+	/** table holding the key and content hash of each row synced */
+	public static final String ROWS_TABLE = "SyncRows";
+	// longest natural key value that can be stored
+	private static final int MAX_KEY_LEN = 255;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final Db db;
+	private final boolean enabled;
+	private final int batchSize;
+	private final boolean failOnAnyError;
+	// null till checked
+	private Boolean hasState;
+
+	/**
+	 *
+	 * @param db             DB being imported into
+	 * @param enabled        true to sync instead of reloading
+	 * @param batchSize      rows per executeBatch() for the state updates
+	 * @param failOnAnyError throw on the first row the DB rejects
+	 */
+	public DeltaSync(Db db, boolean enabled, int batchSize, boolean failOnAnyError) {
+		this.db = db;
+		this.enabled = enabled;
+		this.batchSize = batchSize;
+		this.failOnAnyError = failOnAnyError;
+	}
+
+	/**
+	 *
+	 * @return true if syncing instead of reloading
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Create the side tables if syncing or see if they exist from an earlier
+	 * sync if not.
+	 *
+	 * @throws SQLException
+	 */
+	private void start() throws SQLException {
+		if (hasState != null)
+			return;
+
+		if (enabled) {
+			createIfMissing(TABLES_TABLE, "tableName VARCHAR(128) NOT NULL PRIMARY KEY, schemaHash BIGINT NOT NULL");
+			createIfMissing(ROWS_TABLE, "tableName VARCHAR(128) NOT NULL, rowKey VARCHAR(" + MAX_KEY_LEN
+					+ ") NOT NULL, rowHash BIGINT NOT NULL, PRIMARY KEY (tableName, rowKey)");
+			hasState = true;
+		} else {
+			Connection conn = db.getConnection(getClass().getSimpleName() + ".start()");
+			try (ResultSet rs = conn.getMetaData().getTables(null, null, "%", null)) {
+				hasState = false;
+				while (rs.next()) {
+					if (TABLES_TABLE.equalsIgnoreCase(rs.getString("TABLE_NAME"))) {
+						hasState = true;
+						break;
+					}
+				}
+			} finally {
+				db.close(getClass().getSimpleName() + ".start()");
+			}
+		}
+	}
+
+	private void createIfMissing(String table, String columns) throws SQLException {
+		String sql = "CREATE TABLE " + db.getPrefix() + table + " (" + columns + ")";
+		if (db.isSqlserver())
+			sql = "IF OBJECT_ID('" + db.getPrefix() + table + "', 'U') IS NULL " + sql;
+		else
+			sql = sql.replaceFirst("CREATE TABLE ", "CREATE TABLE IF NOT EXISTS ");
+		execute(sql);
+	}
+
+	/**
+	 *
+	 * @param tableName
+	 * @param ddl       the CREATE TABLE the table would be built with
+	 * @return true if syncing and the table was last built with ddl and still has
+	 *         the rows recorded for it
+	 * @throws SQLException
+	 */
+	public boolean isUnchanged(String tableName, String ddl) throws SQLException {
+		if (!enabled)
+			return false;
+
+		start();
+		Long stored = queryLong("SELECT schemaHash FROM " + db.getPrefix() + TABLES_TABLE + " WHERE tableName = ?",
+				tableName);
+		if (stored == null || stored != hash(ddl))
+			return false;
+
+		// in case the table was dropped or changed by something else
+		Long rows;
+		try {
+			rows = queryLong("SELECT COUNT(*) FROM " + db.getPrefix() + tableName);
+		} catch (SQLException e) {
+			log.warn(tableName + " could not be counted so will be rebuilt:" + e.getMessage());
+			return false;
+		}
+		Long known = queryLong("SELECT COUNT(*) FROM " + db.getPrefix() + ROWS_TABLE + " WHERE tableName = ?",
+				tableName);
+		if (!rows.equals(known)) {
+			log.warn(tableName + " has " + rows + " rows but " + known + " were recorded so will be rebuilt");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Call after the table has been (re)created. When syncing records the new
+	 * schema and clears the row state. When not just forgets the table.
+	 *
+	 * @param tableName
+	 * @param ddl       the CREATE TABLE the table was built with
+	 * @throws SQLException
+	 */
+	public void reset(String tableName, String ddl) throws SQLException {
+		start();
+		if (!hasState)
+			return;
+
+		execute("DELETE FROM " + db.getPrefix() + ROWS_TABLE + " WHERE tableName = ?", tableName);
+		if (enabled) {
+			String sql = upsertSql(db.getPrefix() + TABLES_TABLE, Arrays.asList("tableName", "schemaHash"),
+					Arrays.asList("?", "?"), Collections.singletonList("tableName"), Collections.<String>emptyList());
+			execute(sql, tableName, hash(ddl));
+		} else {
+			execute("DELETE FROM " + db.getPrefix() + TABLES_TABLE + " WHERE tableName = ?", tableName);
+		}
+	}
+
+	/**
+	 * Start syncing the rows of a table
+	 *
+	 * @param tableName
+	 * @param keyCol    field rows are matched on
+	 * @param keyIsId   true if keyCol is the id column, else the key is bound as
+	 *                  a String
+	 * @return TableSync to run the rows through
+	 * @throws SQLException
+	 */
+	public TableSync begin(String tableName, String keyCol, boolean keyIsId) throws SQLException {
+		start();
+		Map<String, Long> oldHashes = new HashMap<>();
+		Connection conn = db.getConnection(getClass().getSimpleName() + ".begin()");
+		try (PreparedStatement ps = conn.prepareStatement(
+				"SELECT rowKey, rowHash FROM " + db.getPrefix() + ROWS_TABLE + " WHERE tableName = ?")) {
+			ps.setString(1, tableName);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					oldHashes.put(rs.getString(1), rs.getLong(2));
+				}
+			}
+		} finally {
+			db.close(getClass().getSimpleName() + ".begin()");
+		}
+		log.debug(tableName + " has " + oldHashes.size() + " rows recorded");
+		return new TableSync(tableName, keyCol, keyIsId, oldHashes);
+	}
+
+	/**
+	 * Build an insert that updates the row instead if one with the same key
+	 * exists.
+	 *
+	 * @param table          table name with any schema prefix
+	 * @param cols           field names
+	 * @param values         value for each of cols, either ? or an SQL
+	 *                       expression
+	 * @param keyCols        fields of the primary key or unique constraint to
+	 *                       match rows on
+	 * @param insertOnlyCols fields that are not changed on update
+	 * @return SQL in the DB's dialect
+	 */
+	public String upsertSql(String table, List<String> cols, List<String> values, List<String> keyCols,
+			List<String> insertOnlyCols) {
+		List<String> updateCols = new ArrayList<>();
+		for (String col : cols) {
+			if (!keyCols.contains(col) && !insertOnlyCols.contains(col))
+				updateCols.add(col);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		if (db.isSqlserver()) {
+			sb.append("MERGE INTO ").append(table).append(" AS d USING (VALUES (").append(String.join(", ", values))
+					.append(")) AS s (").append(String.join(", ", cols)).append(") ON ");
+			for (int i = 0; i < keyCols.size(); i++) {
+				if (i > 0)
+					sb.append(" AND ");
+				sb.append("d.").append(keyCols.get(i)).append(" = s.").append(keyCols.get(i));
+			}
+			if (!updateCols.isEmpty()) {
+				sb.append(" WHEN MATCHED THEN UPDATE SET ");
+				for (int i = 0; i < updateCols.size(); i++) {
+					if (i > 0)
+						sb.append(", ");
+					sb.append(updateCols.get(i)).append(" = s.").append(updateCols.get(i));
+				}
+			}
+			sb.append(" WHEN NOT MATCHED THEN INSERT (").append(String.join(", ", cols)).append(") VALUES (");
+			for (int i = 0; i < cols.size(); i++) {
+				if (i > 0)
+					sb.append(", ");
+				sb.append("s.").append(cols.get(i));
+			}
+			return sb.append(");").toString();
+		}
+
+		sb.append("INSERT INTO ").append(table).append(" (");
+		for (int i = 0; i < cols.size(); i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(quote(cols.get(i)));
+		}
+		sb.append(") VALUES (").append(String.join(", ", values)).append(")");
+		if (db.isMySQL()) {
+			sb.append(" ON DUPLICATE KEY UPDATE ");
+			if (updateCols.isEmpty())
+				updateCols.add(keyCols.get(0));
+			for (int i = 0; i < updateCols.size(); i++) {
+				if (i > 0)
+					sb.append(", ");
+				String col = quote(updateCols.get(i));
+				sb.append(col).append(" = VALUES(").append(col).append(")");
+			}
+		} else {
+			sb.append(" ON CONFLICT (").append(String.join(", ", keyCols)).append(") DO ");
+			if (updateCols.isEmpty()) {
+				sb.append("NOTHING");
+			} else {
+				sb.append("UPDATE SET ");
+				for (int i = 0; i < updateCols.size(); i++) {
+					if (i > 0)
+						sb.append(", ");
+					sb.append(updateCols.get(i)).append(" = excluded.").append(updateCols.get(i));
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private String quote(String col) {
+		if (db.isMySQL())
+			return "`" + col + "`";
+		return col;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the values from the index from on. Dates are hashed
+	 * by their time since toString() drops the millis.
+	 *
+	 * @param vals
+	 * @param from first index to include
+	 * @return hash that only changes if a value does
+	 */
+	public static long hash(Object[] vals, int from) {
+		long h = FNV_OFFSET;
+		for (int i = from; i < vals.length; i++) {
+			Object val = vals[i];
+			if (val != null) {
+				String s;
+				if (val instanceof Date)
+					s = Long.toString(((Date) val).getTime());
+				else
+					s = val.toString();
+				for (int c = 0; c < s.length(); c++) {
+					h ^= s.charAt(c);
+					h *= FNV_PRIME;
+				}
+			}
+			// mark the end of the value and if it was null so the fields can't run
+			// together
+			h ^= val == null ? 0x1e : 0x1f;
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+	/**
+	 *
+	 * @param s
+	 * @return 64 bit FNV-1a hash of s
+	 */
+	public static long hash(String s) {
+		return hash(new Object[] { s }, 0);
+	}
+
+	private Long queryLong(String sql, Object... params) throws SQLException {
+		Connection conn = db.getConnection(getClass().getSimpleName() + ".queryLong()");
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			bindParams(ps, params);
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next())
+					return rs.getLong(1);
+				return null;
+			}
+		} finally {
+			db.close(getClass().getSimpleName() + ".queryLong()");
+		}
+	}
+
+	private void execute(String sql, Object... params) throws SQLException {
+		log.debug("Running:" + sql);
+		Connection conn = db.getConnection(getClass().getSimpleName() + ".execute()");
+		try {
+			if (params.length == 0) {
+				try (Statement stmt = conn.createStatement()) {
+					stmt.execute(sql);
+				}
+			} else {
+				try (PreparedStatement ps = conn.prepareStatement(sql)) {
+					bindParams(ps, params);
+					ps.executeUpdate();
+				}
+			}
+		} finally {
+			db.close(getClass().getSimpleName() + ".execute()");
+		}
+	}
+
+	private void bindParams(PreparedStatement ps, Object[] params) throws SQLException {
+		boolean sqlite = db.isSQLite();
+		for (int i = 0; i < params.length; i++) {
+			BatchInserter.bind(ps, i + 1, params[i], params[i].getClass(), sqlite);
+		}
+	}
+
+	/**
+	 * Works out which rows of a table need writing and once they are written
+	 * records them and deletes the rows no longer in the sheet.
+	 */
+	public class TableSync {
+		private final String tableName;
+		private final String keyCol;
+		private final boolean keyIsId;
+		// rows recorded last time, whatever is left at the end is deleted
+		private final Map<String, Long> oldHashes;
+		// rowId to {key, hash} of the rows to be written
+		private final Map<Integer, Object[]> changed = new LinkedHashMap<>();
+		private int unchanged = 0;
+		private int deleted = 0;
+
+		TableSync(String tableName, String keyCol, boolean keyIsId, Map<String, Long> oldHashes) {
+			this.tableName = tableName;
+			this.keyCol = keyCol;
+			this.keyIsId = keyIsId;
+			this.oldHashes = oldHashes;
+		}
+
+		/**
+		 *
+		 * @param rowId sheet row
+		 * @param key   value of the key field as a String
+		 * @param hash  from DeltaSync.hash() of the row's values
+		 * @return true if the row is new or changed and needs writing
+		 */
+		public boolean isChanged(int rowId, String key, long hash) {
+			if (key.length() > MAX_KEY_LEN) {
+				throw new IllegalArgumentException(
+						tableName + " rowId:" + rowId + " key is longer than " + MAX_KEY_LEN + ":" + key);
+			}
+			Long old = oldHashes.remove(key);
+			if (old != null && old == hash) {
+				unchanged++;
+				return false;
+			}
+			changed.put(rowId, new Object[] { tableName, key, hash });
+			return true;
+		}
+
+		/**
+		 * Record the rows written and delete the ones that are gone.
+		 *
+		 * @param failedRowIds rows the DB rejected which are left unrecorded so
+		 *                     they are tried again next time
+		 * @throws SQLException
+		 */
+		public void finish(List<Integer> failedRowIds) throws SQLException {
+			for (Integer rowId : failedRowIds) {
+				changed.remove(rowId);
+			}
+			String upsert = upsertSql(db.getPrefix() + ROWS_TABLE, Arrays.asList("tableName", "rowKey", "rowHash"),
+					Arrays.asList("?", "?", "?"), Arrays.asList("tableName", "rowKey"), Collections.<String>emptyList());
+			RowSink state = new BatchInserter(db, ROWS_TABLE, upsert,
+					new Class<?>[] { String.class, String.class, Long.class }, batchSize, failOnAnyError);
+			try {
+				for (Map.Entry<Integer, Object[]> e : changed.entrySet()) {
+					state.addRow(e.getKey(), e.getValue());
+				}
+			} finally {
+				state.close();
+			}
+
+			if (oldHashes.isEmpty())
+				return;
+
+			// one after the other since outside of a session closing a sink closes the
+			// connection
+			RowSink gone = new BatchInserter(db, tableName,
+					"DELETE FROM " + db.getPrefix() + tableName + " WHERE " + quote(keyCol) + " = ?",
+					new Class<?>[] { keyIsId ? Long.class : String.class }, batchSize, failOnAnyError);
+			try {
+				int i = 0;
+				for (String key : oldHashes.keySet()) {
+					Object keyVal = key;
+					if (keyIsId)
+						keyVal = Long.parseLong(key);
+					gone.addRow(i++, new Object[] { keyVal });
+				}
+			} finally {
+				gone.close();
+			}
+			RowSink goneState = new BatchInserter(db, ROWS_TABLE,
+					"DELETE FROM " + db.getPrefix() + ROWS_TABLE + " WHERE tableName = ? AND rowKey = ?",
+					new Class<?>[] { String.class, String.class }, batchSize, failOnAnyError);
+			try {
+				int i = 0;
+				for (String key : oldHashes.keySet()) {
+					goneState.addRow(i++, new Object[] { tableName, key });
+				}
+			} finally {
+				goneState.close();
+			}
+			deleted = gone.getPassed();
+		}
+
+		/**
+		 *
+		 * @return rows that were the same as last time
+		 */
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		/**
+		 *
+		 * @return rows deleted since they are no longer in the sheet
+		 */
+		public int getDeleted() {
+			return deleted;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * TabularSource that reads local files instead of calling Google. The path can
+ * be a .csv, .xlsx or .ods file or a folder of them in which case every tab of
+ * every file is used. A CSV file is one tab named after the file without the
+ * extension. The first row of each tab is taken to be the header row and the
+ * rows are streamed from the file as they are imported.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class FileSource implements TabularSource {
+	public static final String CSV = ".csv";
+	public static final String XLSX = ".xlsx";
+	public static final String ODS = ".ods";
+
+	private final Path path;
+	private final char delimiter;
+	private final AtomicLong bytesRead;
+	// tab name to the file it is in
+	private Map<String, Path> tabFiles;
+	// files already counted in bytesRead
+	private final Set<Path> counted = new HashSet<>();
+
+	/**
+	 *
+	 * @param path      file or folder of files to import
+	 * @param delimiter field delimiter for CSV files
+	 */
+	public FileSource(Path path, char delimiter) {
+		this(path, delimiter, new AtomicLong());
+	}
+
+	/**
+	 *
+	 * @param path      file or folder of files to import
+	 * @param delimiter field delimiter for CSV files
+	 * @param bytesRead added to with the size of each file as it is opened
+	 */
+	public FileSource(Path path, char delimiter, AtomicLong bytesRead) {
+		this.path = path;
+		this.delimiter = delimiter;
+		this.bytesRead = bytesRead;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return true if file is a type FileSource can read
+	 */
+	public static boolean isSupported(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith(CSV) || name.endsWith(XLSX) || name.endsWith(ODS);
+	}
+
+	private Map<String, Path> getTabFiles() throws IOException {
+		if (tabFiles == null) {
+			Map<String, Path> map = new LinkedHashMap<>();
+			if (Files.isDirectory(path)) {
+				List<Path> files = new ArrayList<>();
+				try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
+					for (Path file : ds) {
+						if (Files.isRegularFile(file) && isSupported(file))
+							files.add(file);
+					}
+				}
+				// keep the order the same from run to run
+				files.sort(null);
+				for (Path file : files) {
+					addTabs(map, file);
+				}
+			} else if (Files.isRegularFile(path) && isSupported(path)) {
+				addTabs(map, path);
+			} else {
+				throw new IOException(path + " is not a folder or a .csv, .xlsx or .ods file");
+			}
+			tabFiles = map;
+		}
+		return tabFiles;
+	}
+
+	private void addTabs(Map<String, Path> map, Path file) throws IOException {
+		String name = file.getFileName().toString();
+		List<String> tabNames;
+		if (name.toLowerCase().endsWith(CSV)) {
+			tabNames = new ArrayList<>();
+			tabNames.add(name.substring(0, name.length() - CSV.length()));
+		} else if (name.toLowerCase().endsWith(XLSX)) {
+			tabNames = XlsxRowReader.sheetNames(file);
+		} else {
+			tabNames = OdsRowReader.tableNames(file);
+		}
+		for (String tabName : tabNames) {
+			Path prev = map.put(tabName, file);
+			if (prev != null)
+				log.warn("Tab " + tabName + " in " + file + " replaces the one in " + prev);
+		}
+	}
+
+	private RowReader open(String tabName, Path file) throws IOException {
+		synchronized (counted) {
+			if (counted.add(file))
+				bytesRead.addAndGet(Files.size(file));
+		}
+		String name = file.getFileName().toString().toLowerCase();
+		if (name.endsWith(CSV))
+			return new CsvRowReader(file, delimiter);
+		if (name.endsWith(XLSX))
+			return new XlsxRowReader(file, tabName);
+		return new OdsRowReader(file, tabName);
+	}
+
+	/**
+	 * The row counts are not known without reading the files so are set to
+	 * Integer.MAX_VALUE.
+	 */
+	@Override
+	public List<Sheet> getTabs() throws IOException {
+		List<Sheet> rtn = new ArrayList<>();
+		for (String tabName : getTabFiles().keySet()) {
+			rtn.add(new Sheet().setProperties(new SheetProperties().setTitle(tabName).setGridProperties(
+					new GridProperties().setRowCount(Integer.MAX_VALUE).setFrozenRowCount(1))));
+		}
+		return rtn;
+	}
+
+	/**
+	 * Nothing is read until the returned TabValues are iterated.
+	 */
+	@Override
+	public Map<String, SheetFetcher.TabValues> fetch(List<String> tabNames) throws IOException {
+		Map<String, Path> files = getTabFiles();
+		Map<String, SheetFetcher.TabValues> rtn = new LinkedHashMap<>();
+		for (String tabName : tabNames) {
+			Path file = files.get(tabName);
+			if (file != null)
+				rtn.put(tabName, new StreamedTab(tabName, file));
+		}
+		return rtn;
+	}
+
+	@Override
+	public void close() {
+		// files are opened and closed by each StreamedTab
+	}
+
+	/**
+	 * TabValues that reads the rows from the file as they are iterated over.
+	 */
+	private class StreamedTab extends SheetFetcher.TabValues {
+		private final String tabName;
+		private final Path file;
+		private RowReader reader;
+		// 0 based index of the row last returned
+		private int rowIdx = -1;
+		private List<Object> formulaRow;
+
+		StreamedTab(String tabName, Path file) {
+			super(null, null);
+			this.tabName = tabName;
+			this.file = file;
+		}
+
+		@Override
+		public Iterator<List<Object>> iterator() {
+			if (reader != null)
+				throw new IllegalStateException(tabName + " can only be read once");
+			try {
+				reader = open(tabName, file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return new Iterator<List<Object>>() {
+				// read a row ahead so hasNext() knows if there is one
+				private List<Object> nextRow = read();
+				private List<Object> nextFormulas = reader.getFormulas();
+
+				private List<Object> read() {
+					try {
+						return reader.next();
+					} catch (IOException e) {
+						throw new UncheckedIOException("Failed reading " + tabName + " from " + file, e);
+					}
+				}
+
+				@Override
+				public boolean hasNext() {
+					return nextRow != null;
+				}
+
+				@Override
+				public List<Object> next() {
+					if (nextRow == null)
+						throw new NoSuchElementException();
+					List<Object> rtn = nextRow;
+					formulaRow = nextFormulas;
+					rowIdx++;
+					nextRow = read();
+					nextFormulas = reader.getFormulas();
+					return rtn;
+				}
+			};
+		}
+
+		/**
+		 * Only the formulas of the row last returned are available.
+		 */
+		@Override
+		public List<Object> getFormulaRow(int idx) {
+			if (idx != rowIdx)
+				return null;
+			return formulaRow;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (reader != null)
+				reader.close();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.dea42.build;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * TabularSource that reads a Google sheet with the Sheets API.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class GoogleSource implements TabularSource {
+	/**
+	 * Scope needed to check the revision of the sheet for the cache
+	 */
+	public static final String DRIVE_METADATA_SCOPE = "https://www.googleapis.com/auth/drive.metadata.readonly";
+	private static final String DRIVE_FILES_URL = "https://www.googleapis.com/drive/v3/files/";
+	// cache key of the spreadsheets().get() response
+	private static final String SPREADSHEET_KEY = ResponseCache.key("spreadsheet",
+			Collections.<String>emptyList());
+
+	private final Sheets service;
+	private final String spreadsheetId;
+	private final AtomicLong bytesRead;
+	// rows per request when paging through a tab. 0 to get whole tabs.
+	private final int window;
+	// tab name to GridProperties.rowCount from getTabs()
+	private final Map<String, Integer> rowCounts = new HashMap<>();
+	// may be null
+	private final ResponseCache cache;
+	// Drive version of the sheet, "" if not known. Only looked up once.
+	private String revision;
+
+	/**
+	 *
+	 * @param service       authorized Sheets service
+	 * @param spreadsheetId id of the sheet from its URL
+	 */
+	public GoogleSource(Sheets service, String spreadsheetId) {
+		this(service, spreadsheetId, new AtomicLong());
+	}
+
+	/**
+	 *
+	 * @param service       authorized Sheets service
+	 * @param spreadsheetId id of the sheet from its URL
+	 * @param bytesRead     added to with the size of the cell data fetched
+	 */
+	public GoogleSource(Sheets service, String spreadsheetId, AtomicLong bytesRead) {
+		this(service, spreadsheetId, bytesRead, 0);
+	}
+
+	/**
+	 *
+	 * @param service       authorized Sheets service
+	 * @param spreadsheetId id of the sheet from its URL
+	 * @param bytesRead     added to with the size of the cell data fetched
+	 * @param window        rows to get per request when paging through a tab. 0
+	 *                      to get whole tabs at once.
+	 */
+	public GoogleSource(Sheets service, String spreadsheetId, AtomicLong bytesRead, int window) {
+		this(service, spreadsheetId, bytesRead, window, null);
+	}
+
+	/**
+	 *
+	 * @param service       authorized Sheets service. Not called in replay mode.
+	 * @param spreadsheetId id of the sheet from its URL
+	 * @param bytesRead     added to with the size of the cell data fetched
+	 * @param window        rows to get per request when paging through a tab. 0
+	 *                      to get whole tabs at once.
+	 * @param cache         where to save responses and read them back from
+	 *                      instead of calling Google. May be null.
+	 */
+	public GoogleSource(Sheets service, String spreadsheetId, AtomicLong bytesRead, int window,
+			ResponseCache cache) {
+		this.service = service;
+		this.spreadsheetId = spreadsheetId;
+		this.bytesRead = bytesRead;
+		this.window = window;
+		this.cache = cache;
+	}
+
+	/**
+	 * Get the Drive version of the sheet which goes up with every change to it.
+	 * Needs the DRIVE_METADATA_SCOPE.
+	 *
+	 * @return the version or null if not checked or it could not be got
+	 */
+	private synchronized String revision() {
+		if (cache == null || !cache.isCheckRevision() || cache.isReplay())
+			return null;
+		if (revision == null) {
+			revision = "";
+			try {
+				HttpResponse response = service.getRequestFactory()
+						.buildGetRequest(new GenericUrl(DRIVE_FILES_URL + spreadsheetId + "?fields=version")).execute();
+				GenericJson json = service.getObjectParser().parseAndClose(response.getContent(),
+						response.getContentCharset(), GenericJson.class);
+				if (json.get("version") != null)
+					revision = json.get("version").toString();
+				log.info(spreadsheetId + " is at revision " + revision);
+			} catch (IOException e) {
+				log.warn("Failed to get the revision of " + spreadsheetId + " so using the cache TTL instead", e);
+			}
+		}
+		return revision.isEmpty() ? null : revision;
+	}
+
+	private Spreadsheet getSpreadsheet() throws IOException {
+		if (cache == null)
+			return service.spreadsheets().get(spreadsheetId).execute();
+
+		String rev = revision();
+		byte[] json = cache.get(spreadsheetId, rev, SPREADSHEET_KEY);
+		if (json == null) {
+			if (cache.isReplay())
+				throw new IOException(spreadsheetId + " is not in the cache " + cache);
+			HttpResponse response = service.spreadsheets().get(spreadsheetId).executeUnparsed();
+			json = response.parseAsString().getBytes(StandardCharsets.UTF_8);
+			cache.put(spreadsheetId, rev, SPREADSHEET_KEY, json);
+		}
+		return service.getObjectParser().parseAndClose(new ByteArrayInputStream(json), StandardCharsets.UTF_8,
+				Spreadsheet.class);
+	}
+
+	/**
+	 * With a cache the tabs come from it if the sheet has not changed.
+	 */
+	@Override
+	public List<Sheet> getTabs() throws IOException {
+		Spreadsheet spreadsheet = getSpreadsheet();
+		List<Sheet> rtn = spreadsheet.getSheets();
+		synchronized (rowCounts) {
+			for (Sheet sheet : rtn) {
+				SheetProperties p = sheet.getProperties();
+				if (p.getGridProperties() != null && p.getGridProperties().getRowCount() != null)
+					rowCounts.put(p.getTitle(), p.getGridProperties().getRowCount());
+			}
+		}
+		return rtn;
+	}
+
+	/**
+	 * Gets the values and formulas of all the tabs in two calls or with a window
+	 * set returns tabs that page through their rows as they are read. Windowed
+	 * tabs stop at the row counts from getTabs() if it was called.
+	 */
+	@Override
+	public Map<String, SheetFetcher.TabValues> fetch(List<String> tabNames) throws IOException {
+		Map<String, Integer> counts;
+		synchronized (rowCounts) {
+			counts = new HashMap<>(rowCounts);
+		}
+		return new SheetFetcher(service, spreadsheetId, bytesRead, window, cache, revision()).fetch(tabNames,
+				counts);
+	}
+
+	@Override
+	public void close() {
+		// nothing held open between calls
+	}
+}
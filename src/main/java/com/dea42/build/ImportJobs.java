@@ -0,0 +1,270 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.dea42.common.Utils;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.sheets.v4.Sheets;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs Sheets2DB for each of the bundles listed in genSpring.jobs so several
+ * spreadsheets, each with its own tabs and column settings, can be loaded in
+ * one go. Up to genSpring.jobThreads jobs run at once sharing one rate limited
+ * Sheets client. Jobs loading the same DB take turns writing to it while the
+ * others fetch and parse. The results of all the jobs are saved together in
+ * REPORT_FILE.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class ImportJobs {
+	public static final String PROPKEY = CommonMethods.PROPKEY;
+	public static final String REPORT_FILE = "jobsReport.json";
+
+	private final ResourceBundle bundle;
+	private final List<String> jobs;
+	private final boolean failOnAnyError;
+	/**
+	 * most jobs to run at the same time
+	 */
+	private int jobThreads = 2;
+	/**
+	 * carry on from the run manifests left by a failed run
+	 */
+	private boolean resume = false;
+	/**
+	 * time spent waiting on the shared rate limit
+	 */
+	private final AtomicLong throttledNanos = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	/**
+	 *
+	 * @param bundleName     bundle with the list of jobs in genSpring.jobs
+	 * @param failOnAnyError
+	 */
+	public ImportJobs(String bundleName, boolean failOnAnyError) {
+		this.bundle = ResourceBundle.getBundle(bundleName);
+		this.failOnAnyError = failOnAnyError;
+		jobs = Utils.getPropList(bundle, PROPKEY + ".jobs");
+		jobThreads = Utils.getProp(bundle, PROPKEY + ".jobThreads", jobThreads);
+	}
+
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	/**
+	 * Make the Sheets client the jobs share if any of them read from Google.
+	 *
+	 * @return the client or null if none of the jobs need one
+	 * @throws Exception
+	 */
+	private Sheets newService() throws Exception {
+		boolean google = false;
+		boolean authorize = false;
+		boolean driveMetadata = false;
+		for (String job : jobs) {
+			ResourceBundle jobBundle = ResourceBundle.getBundle(job);
+			if (!StringUtils.isBlank(Utils.getProp(jobBundle, PROPKEY + ".source", null)))
+				continue;
+			google = true;
+			String cacheMode = Utils.getProp(jobBundle, PROPKEY + ".cache", "off");
+			if (!"replay".equalsIgnoreCase(cacheMode))
+				authorize = true;
+			if (!"off".equalsIgnoreCase(cacheMode) && Utils.getProp(jobBundle, PROPKEY + ".cacheRevision", false))
+				driveMetadata = true;
+		}
+		if (!google)
+			return null;
+
+		return Sheets2DB.newService(authorize, driveMetadata, Utils.getProp(bundle, PROPKEY + ".requestsPerMinute", 60),
+				Utils.getProp(bundle, PROPKEY + ".maxRetries", 10), throttledNanos, retries);
+	}
+
+	/**
+	 * Each job clears its genSpring.outdir/Scripts when it starts so two jobs
+	 * with the same outdir would delete each other's scripts and run manifests.
+	 *
+	 * @throws IllegalArgumentException if two of the jobs have the same outdir
+	 */
+	private void checkOutdirs() {
+		Map<Path, String> outdirs = new HashMap<>();
+		for (String job : jobs) {
+			ResourceBundle jobBundle = ResourceBundle.getBundle(job);
+			Path outdir = Utils.getPath(Utils.getProp(jobBundle, PROPKEY + ".outdir", "target")).toAbsolutePath()
+					.normalize();
+			String other = outdirs.put(outdir, job);
+			if (other != null)
+				throw new IllegalArgumentException(
+						"Jobs " + other + " and " + job + " both use " + outdir + " as " + PROPKEY + ".outdir");
+		}
+	}
+
+	/**
+	 * Import one job
+	 *
+	 * @return its results for the report
+	 */
+	private Map<String, Object> runJob(String job, Sheets service, Map<String, Lock> dbLocks) throws Exception {
+		Map<String, Object> rtn = new LinkedHashMap<>();
+		rtn.put("job", job);
+		long start = System.nanoTime();
+		Sheets2DB s = new Sheets2DB(job, failOnAnyError);
+		rtn.put("source", s.getSourceName());
+		s.setJob(job, service, dbLocks);
+		s.setResume(resume);
+		try {
+			s.getSheet();
+		} finally {
+			rtn.put("complete", s.isComplete());
+			rtn.put("passed", s.getPassed());
+			rtn.put("failed", s.getFailed());
+			rtn.put("skipped", s.getSkipped());
+			rtn.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			rtn.put("stats", s.getStats().toMap());
+		}
+		return rtn;
+	}
+
+	/**
+	 * Run all the jobs and save the report to genSpring.outdir
+	 *
+	 * @return the report
+	 * @throws Exception the first job failure if failOnAnyError
+	 */
+	public Map<String, Object> run() throws Exception {
+		long start = System.nanoTime();
+		checkOutdirs();
+		final Sheets service = newService();
+		// jobs writing to the same db.url take turns, the others write at the same
+		// time
+		final Map<String, Lock> dbLocks = new HashMap<>();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(jobThreads, jobs.size())),
+				new ThreadFactory() {
+					private int cnt = 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "importJob-" + (++cnt));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		List<Map<String, Object>> results = new ArrayList<>();
+		Exception firstError = null;
+		int passed = 0;
+		int failed = 0;
+		int skipped = 0;
+		int complete = 0;
+		try {
+			List<Future<Map<String, Object>>> running = new ArrayList<>();
+			for (final String job : jobs) {
+				running.add(pool.submit(new Callable<Map<String, Object>>() {
+					@Override
+					public Map<String, Object> call() throws Exception {
+						return runJob(job, service, dbLocks);
+					}
+				}));
+			}
+
+			for (int i = 0; i < jobs.size(); i++) {
+				Map<String, Object> result;
+				try {
+					result = running.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					log.error("Job " + jobs.get(i) + " failed", cause);
+					result = new LinkedHashMap<>();
+					result.put("job", jobs.get(i));
+					result.put("complete", false);
+					result.put("error", String.valueOf(cause));
+					if (firstError == null)
+						firstError = cause instanceof Exception ? (Exception) cause : e;
+				}
+				if (Boolean.TRUE.equals(result.get("complete")))
+					complete++;
+				if (result.get("passed") != null) {
+					passed += (Integer) result.get("passed");
+					failed += (Integer) result.get("failed");
+					skipped += (Integer) result.get("skipped");
+				}
+				results.add(result);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("jobs", jobs.size());
+		report.put("complete", complete);
+		report.put("passed", passed);
+		report.put("failed", failed);
+		report.put("skipped", skipped);
+		report.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		report.put("throttledMillis", TimeUnit.NANOSECONDS.toMillis(throttledNanos.get()));
+		report.put("retries", retries.get());
+		report.put("results", results);
+		writeReport(Utils.getPath(Utils.getProp(bundle, PROPKEY + ".outdir", "target"), REPORT_FILE), report);
+
+		System.out.println("Completed " + complete + " of " + jobs.size() + " jobs.");
+		System.out.println("Inserted " + passed + " records.");
+		System.out.println("Failed to insert " + failed + " records.");
+		System.out.println("Skipped inserting " + skipped + " records.");
+		if (firstError != null && failOnAnyError)
+			throw firstError;
+		return report;
+	}
+
+	private void writeReport(Path file, Map<String, Object> report) {
+		try {
+			Files.createDirectories(file.getParent());
+			Files.write(file,
+					JacksonFactory.getDefaultInstance().toPrettyString(report).getBytes(StandardCharsets.UTF_8));
+			System.out.println("Jobs report saved to " + file);
+		} catch (IOException e) {
+			log.warn("Failed to save report to " + file, e);
+		}
+	}
+
+	/**
+	 *
+	 * @param args bundle with the jobs list, defaults to genSpringJobs. Add
+	 *             --resume to carry on from a failed run.
+	 */
+	public static void main(String... args) {
+		try {
+			List<String> argList = new ArrayList<>(Arrays.asList(args));
+			boolean resume = argList.remove("--resume");
+			ImportJobs jobs = new ImportJobs(argList.isEmpty() ? PROPKEY + "Jobs" : argList.get(0), false);
+			jobs.setResume(resume);
+			jobs.run();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
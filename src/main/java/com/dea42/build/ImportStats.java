@@ -0,0 +1,515 @@
+package com.dea42.build;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Counters and phase timings for one Sheets2DB run. Everything is a counter or
+ * a nanoTime() per table per phase so collecting them costs next to nothing.
+ * Registered as an MBean while the run is going and written out as JSON at the
+ * end. Safe to update from the parse threads.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class ImportStats implements ImportStatsMBean {
+	public static final String OBJECT_NAME = "com.dea42.build:type=ImportStats";
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	/**
+	 * Parts of the import timed. FETCH only covers the calls to the source, rows
+	 * streamed from files or paged in with genSpring.fetchWindow are read during
+	 * PARSE.
+	 */
+	public enum Phase {
+		FETCH, PARSE, DDL, INSERT, CONSTRAINTS
+	}
+
+	/**
+	 * Stats of one table
+	 */
+	public static class TabStats {
+		private final String tableName;
+		private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+		private volatile long rowsParsed;
+		private volatile long rowsInserted;
+		private volatile long rowsFailed;
+		private volatile long rowsSkipped;
+		private volatile long bufferedRows;
+		// column name to count of values converted to the column's type when
+		// inserting. Only updated from the thread writing the table.
+		private final Map<String, long[]> conversions = new LinkedHashMap<>();
+		// column name to count of distinct values for the String columns
+		private final Map<String, Integer> distinct = new LinkedHashMap<>();
+		// column name to what was learned about its values while parsing
+		private final Map<String, Map<String, Object>> columns = new LinkedHashMap<>();
+
+		TabStats(String tableName) {
+			this.tableName = tableName;
+		}
+
+		public String getTableName() {
+			return tableName;
+		}
+
+		public long getNanos(Phase phase) {
+			return phaseNanos.get(phase.ordinal());
+		}
+
+		public long getRowsParsed() {
+			return rowsParsed;
+		}
+
+		public long getRowsInserted() {
+			return rowsInserted;
+		}
+
+		public long getRowsFailed() {
+			return rowsFailed;
+		}
+
+		public long getRowsSkipped() {
+			return rowsSkipped;
+		}
+
+		public long getBufferedRows() {
+			return bufferedRows;
+		}
+
+		/**
+		 * Count a value converted to its column's type
+		 *
+		 * @param column
+		 */
+		public synchronized void converted(String column) {
+			long[] cnt = conversions.get(column);
+			if (cnt == null) {
+				cnt = new long[1];
+				conversions.put(column, cnt);
+			}
+			cnt[0]++;
+		}
+
+		public synchronized long getConversions(String column) {
+			long[] cnt = conversions.get(column);
+			return cnt == null ? 0 : cnt[0];
+		}
+
+		/**
+		 * Note the distinct values of a column
+		 *
+		 * @param column
+		 * @param count  ignored if less than 0 for not known
+		 */
+		public synchronized void distinct(String column, int count) {
+			if (count >= 0)
+				distinct.put(column, count);
+		}
+
+		/**
+		 *
+		 * @param column
+		 * @return distinct values in column or -1 if not known
+		 */
+		public synchronized int getDistinct(String column) {
+			Integer cnt = distinct.get(column);
+			return cnt == null ? -1 : cnt;
+		}
+
+		/**
+		 * Save what was learned about a column's values for the generator
+		 *
+		 * @param column
+		 * @param stats  from ColumnType.toMap()
+		 */
+		public synchronized void column(String column, Map<String, Object> stats) {
+			columns.put(column, stats);
+		}
+
+		/**
+		 *
+		 * @param column
+		 * @return the column's stats or null if not parsed
+		 */
+		public synchronized Map<String, Object> getColumn(String column) {
+			return columns.get(column);
+		}
+
+		synchronized Map<String, Object> toMap() {
+			Map<String, Object> rtn = new LinkedHashMap<>();
+			rtn.put("table", tableName);
+			rtn.put("rowsParsed", rowsParsed);
+			rtn.put("rowsInserted", rowsInserted);
+			rtn.put("rowsFailed", rowsFailed);
+			rtn.put("rowsSkipped", rowsSkipped);
+			rtn.put("bufferedRows", bufferedRows);
+			rtn.put("rowsPerSecond", rate(rowsInserted, getNanos(Phase.INSERT)));
+			rtn.put("millis", phaseMillis(phaseNanos));
+			Map<String, Object> conv = new LinkedHashMap<>();
+			for (Map.Entry<String, long[]> e : conversions.entrySet()) {
+				conv.put(e.getKey(), e.getValue()[0]);
+			}
+			rtn.put("conversions", conv);
+			rtn.put("distinct", new LinkedHashMap<>(distinct));
+			rtn.put("columns", new LinkedHashMap<>(columns));
+			return rtn;
+		}
+	}
+
+	/**
+	 * InputStream that counts the bytes read through it
+	 */
+	public static class CountingInputStream extends FilterInputStream {
+		private final AtomicLong count;
+
+		/**
+		 *
+		 * @param in
+		 * @param count added to as bytes are read
+		 */
+		public CountingInputStream(InputStream in, AtomicLong count) {
+			super(in);
+			this.count = count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				count.incrementAndGet();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count.addAndGet(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count.addAndGet(skipped);
+			return skipped;
+		}
+	}
+
+	private final long started = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+	private final AtomicLong bytesFetched = new AtomicLong();
+	private final AtomicLong throttledNanos = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong bufferedRows = new AtomicLong();
+	private final AtomicLong peakBufferedRows = new AtomicLong();
+	// guarded by this
+	private final Map<String, TabStats> tables = new LinkedHashMap<>();
+	private volatile String currentTable;
+	private ObjectName registered;
+
+	/**
+	 *
+	 * @param tableName
+	 * @return the stats for tableName, created if needed
+	 */
+	public synchronized TabStats table(String tableName) {
+		TabStats rtn = tables.get(tableName);
+		if (rtn == null) {
+			rtn = new TabStats(tableName);
+			tables.put(tableName, rtn);
+		}
+		return rtn;
+	}
+
+	/**
+	 * Add time to a phase of the run that is not for a table
+	 *
+	 * @param phase
+	 * @param startNanos System.nanoTime() when the phase started
+	 */
+	public void add(Phase phase, long startNanos) {
+		phaseNanos.addAndGet(phase.ordinal(), System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Add time to a phase for a table, also counted in the run's total
+	 *
+	 * @param tab
+	 * @param phase
+	 * @param startNanos System.nanoTime() when the phase started
+	 */
+	public void add(TabStats tab, Phase phase, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		currentTable = tab.tableName;
+		tab.phaseNanos.addAndGet(phase.ordinal(), nanos);
+		phaseNanos.addAndGet(phase.ordinal(), nanos);
+	}
+
+	/**
+	 * Record a table parsed and the rows it holds in memory till released
+	 *
+	 * @param tab
+	 * @param rowsParsed
+	 * @param rowsInMemory
+	 */
+	public void parsed(TabStats tab, long rowsParsed, long rowsInMemory) {
+		synchronized (tab) {
+			tab.rowsParsed = rowsParsed;
+			tab.bufferedRows = rowsInMemory;
+		}
+		long now = bufferedRows.addAndGet(rowsInMemory);
+		long peak = peakBufferedRows.get();
+		while (now > peak && !peakBufferedRows.compareAndSet(peak, now)) {
+			peak = peakBufferedRows.get();
+		}
+	}
+
+	/**
+	 * The table's rows have been written and freed
+	 *
+	 * @param tab
+	 */
+	public void released(TabStats tab) {
+		synchronized (tab) {
+			bufferedRows.addAndGet(-tab.bufferedRows);
+			tab.bufferedRows = 0;
+		}
+	}
+
+	/**
+	 * Add the results of writing a table
+	 *
+	 * @param tab
+	 * @param inserted
+	 * @param failed
+	 * @param skipped
+	 */
+	public void written(TabStats tab, long inserted, long failed, long skipped) {
+		tab.rowsInserted += inserted;
+		tab.rowsFailed += failed;
+		tab.rowsSkipped += skipped;
+	}
+
+	/**
+	 *
+	 * @return counter to add bytes read from the source to
+	 */
+	public AtomicLong getBytesCounter() {
+		return bytesFetched;
+	}
+
+	/**
+	 *
+	 * @return counter to add time spent waiting on the API quota or to retry to
+	 */
+	public AtomicLong getThrottledCounter() {
+		return throttledNanos;
+	}
+
+	/**
+	 *
+	 * @return counter to add API calls retried to
+	 */
+	public AtomicLong getRetryCounter() {
+		return retries;
+	}
+
+	/**
+	 * Show the stats over JMX. Replaces the MBean of any earlier run in this JVM.
+	 */
+	public void register() {
+		register(null);
+	}
+
+	/**
+	 * Show the stats over JMX. Replaces the MBean of any earlier run of the same
+	 * job in this JVM.
+	 * 
+	 * @param job added to the name so jobs running together each get their own.
+	 *            May be null.
+	 */
+	public void register(String job) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(
+					job == null ? OBJECT_NAME : OBJECT_NAME + ",job=" + ObjectName.quote(job));
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			registered = name;
+		} catch (JMException e) {
+			log.warn("Failed to register " + OBJECT_NAME, e);
+		}
+	}
+
+	public void unregister() {
+		if (registered == null)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(registered))
+				server.unregisterMBean(registered);
+		} catch (JMException e) {
+			log.warn("Failed to unregister " + OBJECT_NAME, e);
+		}
+		registered = null;
+	}
+
+	private static double rate(long rows, long nanos) {
+		if (nanos <= 0)
+			return 0;
+		return Math.round(rows * 1000000000.0 / nanos * 10) / 10.0;
+	}
+
+	private static Map<String, Object> phaseMillis(AtomicLongArray nanos) {
+		Map<String, Object> rtn = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			rtn.put(phase.name().toLowerCase(), nanos.get(phase.ordinal()) / NANOS_PER_MILLI);
+		}
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @return the stats as a tree of maps and lists to write as JSON
+	 */
+	public synchronized Map<String, Object> toMap() {
+		Map<String, Object> rtn = new LinkedHashMap<>();
+		rtn.put("started", started);
+		rtn.put("elapsedMillis", getElapsedMillis());
+		rtn.put("rowsParsed", getRowsParsed());
+		rtn.put("rowsInserted", getRowsInserted());
+		rtn.put("rowsFailed", getRowsFailed());
+		long skipped = 0;
+		for (TabStats tab : tables.values()) {
+			skipped += tab.rowsSkipped;
+		}
+		rtn.put("rowsSkipped", skipped);
+		rtn.put("rowsPerSecond", getRowsPerSecond());
+		rtn.put("bytesFetched", getBytesFetched());
+		rtn.put("throttledMillis", getThrottledMillis());
+		rtn.put("retries", getRetries());
+		rtn.put("peakBufferedRows", getPeakBufferedRows());
+		rtn.put("millis", phaseMillis(phaseNanos));
+		List<Object> tabs = new ArrayList<>();
+		for (TabStats tab : tables.values()) {
+			tabs.add(tab.toMap());
+		}
+		rtn.put("tables", tabs);
+		return rtn;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return (System.nanoTime() - startNanos) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public String getCurrentTable() {
+		return currentTable;
+	}
+
+	@Override
+	public synchronized int getTablesStarted() {
+		return tables.size();
+	}
+
+	@Override
+	public synchronized long getRowsParsed() {
+		long rtn = 0;
+		for (TabStats tab : tables.values()) {
+			rtn += tab.rowsParsed;
+		}
+		return rtn;
+	}
+
+	@Override
+	public synchronized long getRowsInserted() {
+		long rtn = 0;
+		for (TabStats tab : tables.values()) {
+			rtn += tab.rowsInserted;
+		}
+		return rtn;
+	}
+
+	@Override
+	public synchronized long getRowsFailed() {
+		long rtn = 0;
+		for (TabStats tab : tables.values()) {
+			rtn += tab.rowsFailed;
+		}
+		return rtn;
+	}
+
+	@Override
+	public double getRowsPerSecond() {
+		return rate(getRowsInserted(), phaseNanos.get(Phase.INSERT.ordinal()));
+	}
+
+	@Override
+	public long getBytesFetched() {
+		return bytesFetched.get();
+	}
+
+	@Override
+	public long getThrottledMillis() {
+		return throttledNanos.get() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.get();
+	}
+
+	@Override
+	public long getBufferedRows() {
+		return bufferedRows.get();
+	}
+
+	@Override
+	public long getPeakBufferedRows() {
+		return peakBufferedRows.get();
+	}
+
+	@Override
+	public long getFetchMillis() {
+		return phaseNanos.get(Phase.FETCH.ordinal()) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getParseMillis() {
+		return phaseNanos.get(Phase.PARSE.ordinal()) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getDdlMillis() {
+		return phaseNanos.get(Phase.DDL.ordinal()) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getInsertMillis() {
+		return phaseNanos.get(Phase.INSERT.ordinal()) / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public long getConstraintsMillis() {
+		return phaseNanos.get(Phase.CONSTRAINTS.ordinal()) / NANOS_PER_MILLI;
+	}
+}
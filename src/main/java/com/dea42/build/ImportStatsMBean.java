@@ -0,0 +1,51 @@
+package com.dea42.build;
+
+/**
+ * What ImportStats shows over JMX while Sheets2DB runs. Times are in
+ * milliseconds.
+ *
+ * @author avata
+ *
+ */
+public interface ImportStatsMBean {
+
+	long getElapsedMillis();
+
+	/**
+	 * @return table a phase last finished for
+	 */
+	String getCurrentTable();
+
+	int getTablesStarted();
+
+	long getRowsParsed();
+
+	long getRowsInserted();
+
+	long getRowsFailed();
+
+	double getRowsPerSecond();
+
+	long getBytesFetched();
+
+	/**
+	 * @return time spent waiting for the API quota or to retry a call
+	 */
+	long getThrottledMillis();
+
+	long getRetries();
+
+	long getBufferedRows();
+
+	long getPeakBufferedRows();
+
+	long getFetchMillis();
+
+	long getParseMillis();
+
+	long getDdlMillis();
+
+	long getInsertMillis();
+
+	long getConstraintsMillis();
+}
@@ -0,0 +1,67 @@
+package com.dea42.build;
+
+/**
+ * Gathers the rows of a table saved to a script into multi-row INSERT INTO
+ * table (columns) VALUES (...),(...); statements of up to maxRows rows and
+ * maxChars characters so the column list is not repeated on every row and the
+ * script replays in far fewer statements. With maxRows 1 each row gets its own
+ * INSERT. Call flush() to write any rows still pending.
+ *
+ * @author avata
+ *
+ */
+public class InsertScript {
+	private final ScriptWriter scripts;
+	private final String fileName;
+	private final String head;
+	private final int maxRows;
+	private final int maxChars;
+	private final StringBuilder sb = new StringBuilder();
+	private int rows = 0;
+
+	/**
+	 *
+	 * @param scripts  where to write the statements
+	 * @param fileName script to add them to
+	 * @param head     INSERT INTO table (columns) VALUES
+	 * @param maxRows  most rows per statement
+	 * @param maxChars most characters per statement. A row longer than this
+	 *                 still gets a statement of its own.
+	 */
+	public InsertScript(ScriptWriter scripts, String fileName, String head, int maxRows, int maxChars) {
+		this.scripts = scripts;
+		this.fileName = fileName;
+		this.head = head;
+		this.maxRows = Math.max(1, maxRows);
+		this.maxChars = maxChars;
+	}
+
+	/**
+	 *
+	 * @param values the row's values as (a, b, ...)
+	 */
+	public void add(String values) {
+		// the comma and closing ;
+		if (rows > 0 && sb.length() + values.length() + 2 > maxChars)
+			flush();
+		if (rows == 0)
+			sb.append(head);
+		else
+			sb.append(',');
+		sb.append(values);
+		if (++rows >= maxRows)
+			flush();
+	}
+
+	/**
+	 * Write the pending rows if any
+	 */
+	public void flush() {
+		if (rows == 0)
+			return;
+		sb.append(';');
+		scripts.println(fileName, sb.toString());
+		sb.setLength(0);
+		rows = 0;
+	}
+}
@@ -0,0 +1,185 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+import com.dea42.common.Db;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * BatchInserter for MySQL that writes each chunk of rows to a tab separated
+ * temp file and sends it with LOAD DATA LOCAL INFILE. That needs
+ * allowLoadLocalInfile=true on the db.url and local_infile on in the server. If
+ * the load is refused the rest of the table goes in with the batched INSERTs.
+ * MySQL skips bad rows of a LOCAL load with a warning instead of failing so a
+ * chunk that does not load every row is rolled back and retried with INSERTs
+ * to find the bad rows.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class MySqlBulkInserter extends BatchInserter {
+	private final String loadSql;
+	private Path file;
+	private boolean disabled = false;
+
+	/**
+	 *
+	 * @param db             DB to write to
+	 * @param tableName      used for logging
+	 * @param table          table to load with the schema prefix if any
+	 * @param cols           column of each bound value
+	 * @param nowCols        columns set to NOW() instead of being bound
+	 * @param sql            INSERT for the fall back
+	 * @param types          field class of each bound column
+	 * @param batchSize      number of rows per file
+	 * @param failOnAnyError throw on the first row the DB rejects
+	 * @throws SQLException
+	 */
+	public MySqlBulkInserter(Db db, String tableName, String table, List<String> cols, List<String> nowCols,
+			String sql, Class<?>[] types, int batchSize, boolean failOnAnyError) throws SQLException {
+		super(db, tableName, sql, types, batchSize, failOnAnyError);
+		StringBuilder sb = new StringBuilder();
+		for (String col : cols) {
+			if (sb.length() > 0)
+				sb.append(",");
+			sb.append('`').append(col).append('`');
+		}
+		StringBuilder set = new StringBuilder();
+		for (String col : nowCols) {
+			set.append(set.length() == 0 ? " SET " : ",").append('`').append(col).append("`=NOW()");
+		}
+		loadSql = " INTO TABLE " + table + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'"
+				+ " LINES TERMINATED BY '\\n' (" + sb + ")" + set;
+	}
+
+	@Override
+	protected void writePending(List<Object[]> rows, List<Integer> rowIds) throws SQLException {
+		if (disabled) {
+			super.writePending(rows, rowIds);
+			return;
+		}
+
+		try {
+			if (file == null)
+				file = Files.createTempFile("genSpring", ".tsv");
+			try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				for (Object[] vals : rows) {
+					writeRow(out, vals);
+				}
+			}
+		} catch (IOException e) {
+			log.warn(tableName + " failed to write " + file + " using INSERTs:" + e.getMessage());
+			disabled = true;
+			super.writePending(rows, rowIds);
+			return;
+		}
+
+		Savepoint sp = conn.setSavepoint();
+		int loaded;
+		try (Statement stmt = conn.createStatement()) {
+			loaded = stmt.executeUpdate("LOAD DATA LOCAL INFILE '"
+					+ file.toAbsolutePath().toString().replace('\\', '/').replace("'", "\\'") + "'" + loadSql);
+			// values that got truncated or converted would have failed as INSERTs
+			if (stmt.getWarnings() != null)
+				loaded = -1;
+		} catch (SQLException e) {
+			log.warn(tableName + " LOAD DATA failed so using INSERTs:" + e.getMessage());
+			conn.rollback(sp);
+			releaseSavepoint(sp);
+			disabled = true;
+			super.writePending(rows, rowIds);
+			return;
+		}
+		if (loaded == rows.size()) {
+			releaseSavepoint(sp);
+			passed += loaded;
+		} else {
+			log.warn(tableName + " LOAD DATA skipped or changed some of " + rows.size()
+					+ " rows, retrying the chunk with INSERTs");
+			conn.rollback(sp);
+			releaseSavepoint(sp);
+			super.writePending(rows, rowIds);
+		}
+	}
+
+	/**
+	 * Write a row as a line of the file. Nulls are \N and tabs, line breaks and \
+	 * in values are escaped with \.
+	 *
+	 * @param out
+	 * @param vals
+	 * @throws IOException
+	 */
+	static void writeRow(Writer out, Object[] vals) throws IOException {
+		for (int i = 0; i < vals.length; i++) {
+			if (i > 0)
+				out.write('\t');
+			Object val = vals[i];
+			if (val == null) {
+				out.write("\\N");
+			} else if (val instanceof Boolean) {
+				out.write((Boolean) val ? '1' : '0');
+			} else if (val instanceof BigDecimal) {
+				out.write(((BigDecimal) val).toPlainString());
+			} else if (val instanceof Time) {
+				out.write(val.toString());
+			} else if (val instanceof Date) {
+				out.write(new Timestamp(((Date) val).getTime()).toString());
+			} else {
+				String s = val.toString();
+				for (int c = 0; c < s.length(); c++) {
+					char ch = s.charAt(c);
+					switch (ch) {
+					case '\\':
+						out.write("\\\\");
+						break;
+					case '\t':
+						out.write("\\t");
+						break;
+					case '\n':
+						out.write("\\n");
+						break;
+					case '\r':
+						out.write("\\r");
+						break;
+					case '\0':
+						out.write("\\0");
+						break;
+					default:
+						out.write(ch);
+					}
+				}
+			}
+		}
+		out.write('\n');
+	}
+
+	@Override
+	protected void release() throws SQLException {
+		try {
+			super.release();
+		} finally {
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					log.warn("Failed to delete " + file, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams the rows of one table of an OpenDocument .ods file by pulling
+ * content.xml from the zip with StAX. Repeated rows and cells are expanded
+ * except for the blank ones at the end of a row or the table which
+ * spreadsheets write out to the last possible column / row. Dates come back as
+ * yyyy-MM-dd HH:mm:ss text and times as HH:mm:ss.
+ *
+ * @author avata
+ *
+ */
+public class OdsRowReader implements RowReader {
+	private static final String TABLE_NS = "urn:oasis:names:tc:opendocument:xmlns:table:1.0";
+	private static final String OFFICE_NS = "urn:oasis:names:tc:opendocument:xmlns:office:1.0";
+	private static final String TEXT_NS = "urn:oasis:names:tc:opendocument:xmlns:text:1.0";
+	private static final String CONTENT = "content.xml";
+
+	private final ZipFile zip;
+	private final InputStream in;
+	private final XMLStreamReader xml;
+	// blank rows not returned yet in case they are the trailing ones
+	private int blankRows = 0;
+	// the row being repeated and how many more times
+	private List<Object> repeatValues;
+	private List<Object> repeatFormulas;
+	private int repeats = 0;
+	private List<Object> formulas;
+	private boolean done = false;
+
+	/**
+	 *
+	 * @param file      .ods file
+	 * @param tableName table (tab) to read
+	 * @throws IOException if the file can not be read or has no tableName table
+	 */
+	public OdsRowReader(Path file, String tableName) throws IOException {
+		zip = new ZipFile(file.toFile());
+		try {
+			in = openContent(zip, file);
+			xml = XlsxRowReader.newXmlInputFactory().createXMLStreamReader(in);
+			if (!findTable(xml, tableName))
+				throw new IOException(file + " has no table " + tableName);
+		} catch (IOException | RuntimeException e) {
+			zip.close();
+			throw e;
+		} catch (XMLStreamException e) {
+			zip.close();
+			throw new IOException("Failed to read " + file, e);
+		}
+	}
+
+	private static InputStream openContent(ZipFile zip, Path file) throws IOException {
+		ZipEntry entry = zip.getEntry(CONTENT);
+		if (entry == null)
+			throw new IOException(file + " has no " + CONTENT);
+		return zip.getInputStream(entry);
+	}
+
+	/**
+	 * Move xml to just inside the named table
+	 *
+	 * @return false if not found
+	 */
+	private static boolean findTable(XMLStreamReader xml, String tableName) throws XMLStreamException {
+		while (xml.hasNext()) {
+			if (xml.next() == XMLStreamConstants.START_ELEMENT && isTable(xml)
+					&& tableName.equals(xml.getAttributeValue(TABLE_NS, "name")))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isTable(XMLStreamReader xml) {
+		return "table".equals(xml.getLocalName()) && TABLE_NS.equals(xml.getNamespaceURI());
+	}
+
+	/**
+	 * Note this reads through the whole of content.xml.
+	 *
+	 * @param file .ods file
+	 * @return names of the tables in order
+	 * @throws IOException
+	 */
+	public static List<String> tableNames(Path file) throws IOException {
+		List<String> rtn = new ArrayList<>();
+		try (ZipFile zip = new ZipFile(file.toFile()); InputStream in = openContent(zip, file)) {
+			XMLStreamReader xml = XlsxRowReader.newXmlInputFactory().createXMLStreamReader(in);
+			try {
+				while (xml.hasNext()) {
+					if (xml.next() == XMLStreamConstants.START_ELEMENT && isTable(xml))
+						rtn.add(xml.getAttributeValue(TABLE_NS, "name"));
+				}
+			} finally {
+				xml.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to read " + file, e);
+		}
+		return rtn;
+	}
+
+	@Override
+	public List<Object> next() throws IOException {
+		if (blankRows > 0) {
+			blankRows--;
+			formulas = null;
+			return new ArrayList<>();
+		}
+		if (repeats > 0) {
+			repeats--;
+			formulas = repeatFormulas;
+			return new ArrayList<>(repeatValues);
+		}
+		if (done)
+			return null;
+
+		try {
+			while (xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT && "table-row".equals(xml.getLocalName())) {
+					int rowRepeat = getRepeat("number-rows-repeated");
+					readRow();
+					if (repeatValues.isEmpty()) {
+						blankRows += rowRepeat;
+						continue;
+					}
+					repeats = rowRepeat;
+					// blank rows before this one first
+					return next();
+				} else if (event == XMLStreamConstants.END_ELEMENT && isTable(xml)) {
+					break;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to read " + CONTENT, e);
+		}
+		// the trailing blank rows are dropped
+		done = true;
+		blankRows = 0;
+		return null;
+	}
+
+	private int getRepeat(String attr) {
+		String s = xml.getAttributeValue(TABLE_NS, attr);
+		if (s == null)
+			return 1;
+		return Integer.parseInt(s);
+	}
+
+	/**
+	 * Read a table-row into repeatValues / repeatFormulas
+	 */
+	private void readRow() throws XMLStreamException {
+		repeatValues = new ArrayList<>();
+		repeatFormulas = null;
+		// blank cells not added yet in case they are the trailing ones
+		int blankCells = 0;
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT
+					&& ("table-cell".equals(xml.getLocalName()) || "covered-table-cell".equals(xml.getLocalName()))) {
+				int cellRepeat = getRepeat("number-columns-repeated");
+				String formula = xml.getAttributeValue(TABLE_NS, "formula");
+				Object val = readCell();
+				if ("".equals(val) && formula == null) {
+					blankCells += cellRepeat;
+					continue;
+				}
+				for (; blankCells > 0; blankCells--)
+					repeatValues.add("");
+				for (int i = 0; i < cellRepeat; i++) {
+					if (formula != null) {
+						if (repeatFormulas == null)
+							repeatFormulas = new ArrayList<>();
+						while (repeatFormulas.size() < repeatValues.size())
+							repeatFormulas.add(null);
+						// of:=HYPERLINK(...) to =HYPERLINK(...)
+						int idx = formula.indexOf(':');
+						repeatFormulas.add(idx > -1 && idx < formula.indexOf('=') ? formula.substring(idx + 1) : formula);
+					}
+					repeatValues.add(val);
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT && "table-row".equals(xml.getLocalName())) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Read the value of the cell xml is on through to its end tag
+	 */
+	private Object readCell() throws XMLStreamException {
+		String type = xml.getAttributeValue(OFFICE_NS, "value-type");
+		Object rtn = null;
+		if ("float".equals(type) || "percentage".equals(type) || "currency".equals(type)) {
+			rtn = new BigDecimal(xml.getAttributeValue(OFFICE_NS, "value"));
+		} else if ("boolean".equals(type)) {
+			rtn = Boolean.valueOf(xml.getAttributeValue(OFFICE_NS, "boolean-value"));
+		} else if ("date".equals(type)) {
+			rtn = xml.getAttributeValue(OFFICE_NS, "date-value").replace('T', ' ');
+		} else if ("time".equals(type)) {
+			rtn = isoTime(xml.getAttributeValue(OFFICE_NS, "time-value"));
+		}
+
+		// text is in text:p elements with text:s for runs of spaces
+		StringBuilder text = new StringBuilder();
+		int paragraphs = 0;
+		int depth = 1;
+		while (depth > 0 && xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				if (TEXT_NS.equals(xml.getNamespaceURI())) {
+					String name = xml.getLocalName();
+					if ("p".equals(name) && paragraphs++ > 0) {
+						text.append('\n');
+					} else if ("s".equals(name)) {
+						String c = xml.getAttributeValue(TEXT_NS, "c");
+						for (int i = c == null ? 1 : Integer.parseInt(c); i > 0; i--)
+							text.append(' ');
+					} else if ("tab".equals(name)) {
+						text.append('\t');
+					} else if ("line-break".equals(name)) {
+						text.append('\n');
+					}
+				}
+			} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+				text.append(xml.getText());
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		if (rtn == null)
+			rtn = text.toString();
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @param s ISO 8601 duration like PT13H03M00S
+	 * @return HH:mm:ss
+	 */
+	static String isoTime(String s) {
+		int h = 0;
+		int m = 0;
+		int sec = 0;
+		int num = 0;
+		boolean frac = false;
+		for (int i = s.indexOf('T') + 1; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (!frac)
+					num = num * 10 + (c - '0');
+			} else if (c == '.') {
+				frac = true;
+			} else {
+				if (c == 'H')
+					h = num;
+				else if (c == 'M')
+					m = num;
+				else if (c == 'S')
+					sec = num;
+				num = 0;
+				frac = false;
+			}
+		}
+		return String.format("%02d:%02d:%02d", h, m, sec);
+	}
+
+	@Override
+	public List<Object> getFormulas() {
+		return formulas;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			zip.close();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.dea42.build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.dea42.common.Utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gzipped copies of the Sheets API responses saved on disk so a sheet that has
+ * not changed since the last run can be imported without getting its cells
+ * again. Entries are kept per spreadsheet under a folder for the revision they
+ * came from. If the revision is not known they go in LATEST and are good for
+ * ttlMillis. In replay mode whatever was saved last is used and nothing is
+ * fetched.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class ResponseCache {
+	public static final String LATEST = "latest";
+	private static final String EXT = ".json.gz";
+
+	private final Path dir;
+	private final long ttlMillis;
+	private final boolean checkRevision;
+	private final boolean replay;
+	// spreadsheet folder to the revision folder the others were cleared out for
+	private final Map<Path, Path> kept = new HashMap<>();
+
+	/**
+	 *
+	 * @param dir           folder to keep the responses in
+	 * @param ttlMillis     how long an entry is good for if the revision is not
+	 *                      known
+	 * @param checkRevision if true entries are kept till the spreadsheet's
+	 *                      revision changes instead
+	 * @param replay        only use what is in the cache
+	 */
+	public ResponseCache(Path dir, long ttlMillis, boolean checkRevision, boolean replay) {
+		this.dir = dir;
+		this.ttlMillis = ttlMillis;
+		this.checkRevision = checkRevision;
+		this.replay = replay;
+	}
+
+	public boolean isCheckRevision() {
+		return checkRevision;
+	}
+
+	public boolean isReplay() {
+		return replay;
+	}
+
+	/**
+	 *
+	 * @param renderOption
+	 * @param ranges
+	 * @return file safe key for a request
+	 */
+	public static String key(String renderOption, List<String> ranges) {
+		StringBuilder sb = new StringBuilder(renderOption);
+		for (String range : ranges) {
+			sb.append('\n').append(range);
+		}
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			StringBuilder rtn = new StringBuilder();
+			for (byte b : md.digest(sb.toString().getBytes(StandardCharsets.UTF_8))) {
+				rtn.append(String.format("%02x", b));
+			}
+			return rtn.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Path sheetDir(String spreadsheetId) {
+		return dir.resolve(spreadsheetId.replaceAll("[^A-Za-z0-9_-]", "_"));
+	}
+
+	/**
+	 *
+	 * @param spreadsheetId
+	 * @param revision      null if not known
+	 * @param key
+	 * @return the saved response or null if there is not a current one
+	 * @throws IOException
+	 */
+	public byte[] get(String spreadsheetId, String revision, String key) throws IOException {
+		Path file = null;
+		if (replay) {
+			// the newest copy of any revision
+			for (Path revDir : revisionDirs(spreadsheetId)) {
+				Path p = revDir.resolve(key + EXT);
+				if (Files.isRegularFile(p)
+						&& (file == null || Files.getLastModifiedTime(p).compareTo(Files.getLastModifiedTime(file)) > 0))
+					file = p;
+			}
+		} else {
+			Path p = sheetDir(spreadsheetId).resolve(revision == null ? LATEST : revision).resolve(key + EXT);
+			if (Files.isRegularFile(p) && (revision != null
+					|| System.currentTimeMillis() - Files.getLastModifiedTime(p).toMillis() < ttlMillis))
+				file = p;
+		}
+		if (file == null)
+			return null;
+
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			log.debug("Read " + file);
+			return out.toByteArray();
+		} catch (IOException e) {
+			log.warn("Ignoring unreadable " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Save a response. With a revision the folders of any other revisions of the
+	 * sheet are deleted.
+	 *
+	 * @param spreadsheetId
+	 * @param revision      null if not known
+	 * @param key
+	 * @param json          the response body
+	 */
+	public void put(String spreadsheetId, String revision, String key, byte[] json) {
+		Path revDir = sheetDir(spreadsheetId).resolve(revision == null ? LATEST : revision);
+		Path file = revDir.resolve(key + EXT);
+		Path tmp = revDir.resolve(key + EXT + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			if (revision != null)
+				prune(spreadsheetId, revDir);
+			Files.createDirectories(revDir);
+			try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+				out.write(json);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Failed to save " + file, e);
+			tmp.toFile().delete();
+		}
+	}
+
+	private List<Path> revisionDirs(String spreadsheetId) throws IOException {
+		List<Path> rtn = new ArrayList<>();
+		Path sheetDir = sheetDir(spreadsheetId);
+		if (Files.isDirectory(sheetDir)) {
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(sheetDir)) {
+				for (Path p : ds) {
+					if (Files.isDirectory(p))
+						rtn.add(p);
+				}
+			}
+		}
+		return rtn;
+	}
+
+	private synchronized void prune(String spreadsheetId, Path keep) throws IOException {
+		if (keep.equals(kept.put(keep.getParent(), keep)))
+			return;
+		for (Path revDir : revisionDirs(spreadsheetId)) {
+			if (!revDir.equals(keep)) {
+				log.info("Removing old cached revision " + revDir);
+				Utils.deletePath(revDir);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return dir.toString();
+	}
+}
@@ -0,0 +1,30 @@
+package com.dea42.build;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the rows of one tab of a local file in order without loading the whole
+ * tab. Cells come back in the same forms the Sheets API uses: numbers as
+ * BigDecimal, check boxes as Boolean, dates and everything else as text with ""
+ * for blank cells and formulas starting with =.
+ *
+ * @author avata
+ *
+ */
+public interface RowReader extends Closeable {
+
+	/**
+	 *
+	 * @return values of the next row, empty for a blank row or null at the end
+	 * @throws IOException
+	 */
+	List<Object> next() throws IOException;
+
+	/**
+	 *
+	 * @return formulas of the row last returned by next() or null if it has none
+	 */
+	List<Object> getFormulas();
+}
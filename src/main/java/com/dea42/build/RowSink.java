@@ -0,0 +1,68 @@
+package com.dea42.build;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Destination for the rows of one table during an import. Rows are handed over
+ * in column order as typed values and the sink decides how and when they get
+ * written to the DB.
+ *
+ * @author avata
+ *
+ */
+public interface RowSink extends AutoCloseable {
+
+	/**
+	 * Queue a row for writing.
+	 *
+	 * @param rowId sheet row number, used for logging failures
+	 * @param vals  values in the same order as the columns the sink was created
+	 *              with
+	 * @throws SQLException if failOnAnyError set and a row fails
+	 */
+	void addRow(int rowId, Object[] vals) throws SQLException;
+
+	/**
+	 * Write anything pending and commit the rows so far without ending the table.
+	 *
+	 * @throws SQLException
+	 */
+	void checkpoint() throws SQLException;
+
+	/**
+	 * Write anything still pending and end the table's transaction.
+	 *
+	 * @throws SQLException
+	 */
+	@Override
+	void close() throws SQLException;
+
+	/**
+	 * @return number of rows written so far
+	 */
+	int getPassed();
+
+	/**
+	 * @return number of rows rejected by the DB so far
+	 */
+	int getFailed();
+
+	/**
+	 * @return sheet row numbers of the rows rejected by the DB so far
+	 */
+	List<Integer> getFailedRowIds();
+
+	/**
+	 * @return sheet row number of the last row the DB took or rejected, 0 if none
+	 *         yet. Rows are added in sheet order so everything up to here is
+	 *         committed once close() or checkpoint() returns.
+	 */
+	int getLastRowId();
+
+	/**
+	 * @return sheet row number of the last row covered by a commit that
+	 *         succeeded, 0 if none yet. Safe to resume after.
+	 */
+	int getCommittedRowId();
+}
@@ -0,0 +1,203 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Key;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Progress of a Sheets2DB run saved to the scripts folder as each table is
+ * started, checkpointed and finished so a failed run can be picked up where it
+ * left off with --resume instead of starting over from the DROPs.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class RunManifest extends GenericJson {
+	public static final String FILE = "importManifest.json";
+	private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+	/**
+	 * How far a table got
+	 */
+	public static class TabState extends GenericJson {
+		@Key
+		private boolean done;
+		// sheet row number of the last row committed to the table
+		@Key
+		private int lastRow;
+		@Key
+		private int passed;
+		@Key
+		private int failed;
+		// constraints to add once all the tables are loaded
+		@Key
+		private List<String> constraints = new ArrayList<>();
+
+		public boolean isDone() {
+			return done;
+		}
+
+		public int getLastRow() {
+			return lastRow;
+		}
+
+		public int getPassed() {
+			return passed;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public List<String> getConstraints() {
+			return constraints;
+		}
+	}
+
+	// genSpring.source or genSpring.id the run is reading
+	@Key
+	private String source;
+	// set once the constraints are added
+	@Key
+	private boolean complete;
+	@Key
+	private Map<String, TabState> tables = new LinkedHashMap<>();
+	private Path file;
+
+	/**
+	 * Only for reading from JSON
+	 */
+	public RunManifest() {
+	}
+
+	/**
+	 *
+	 * @param file   where to save it
+	 * @param source what is being imported
+	 */
+	public RunManifest(Path file, String source) {
+		this.file = file;
+		this.source = source;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the manifest in file or null if there is not one that can be read
+	 */
+	public static RunManifest load(Path file) {
+		if (!Files.isRegularFile(file))
+			return null;
+		try (InputStream in = Files.newInputStream(file)) {
+			RunManifest rtn = JSON_FACTORY.fromInputStream(in, StandardCharsets.UTF_8, RunManifest.class);
+			rtn.file = file;
+			return rtn;
+		} catch (IOException | IllegalArgumentException e) {
+			log.warn("Failed to read " + file, e);
+			return null;
+		}
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 *
+	 * @param tableName
+	 * @return the table's state or null if the run did not get to it
+	 */
+	public synchronized TabState get(String tableName) {
+		return tables.get(tableName);
+	}
+
+	/**
+	 * Record the table as created
+	 *
+	 * @param tableName
+	 */
+	public synchronized void started(String tableName) {
+		tables.put(tableName, new TabState());
+		save();
+	}
+
+	/**
+	 * Record the rows committed to the table so far
+	 *
+	 * @param tableName
+	 * @param lastRow   sheet row number of the last row committed
+	 * @param passed
+	 * @param failed
+	 */
+	public synchronized void committed(String tableName, int lastRow, int passed, int failed) {
+		TabState state = state(tableName);
+		state.lastRow = lastRow;
+		state.passed = passed;
+		state.failed = failed;
+		save();
+	}
+
+	/**
+	 * Record the table as loaded
+	 *
+	 * @param tableName
+	 * @param constraints to add once all the tables are loaded
+	 */
+	public synchronized void done(String tableName, List<String> constraints) {
+		TabState state = state(tableName);
+		state.done = true;
+		state.constraints = new ArrayList<>(constraints);
+		save();
+	}
+
+	/**
+	 * Record the run as finished so there is nothing to resume
+	 */
+	public synchronized void complete() {
+		complete = true;
+		save();
+	}
+
+	private TabState state(String tableName) {
+		TabState rtn = tables.get(tableName);
+		if (rtn == null) {
+			rtn = new TabState();
+			tables.put(tableName, rtn);
+		}
+		return rtn;
+	}
+
+	/**
+	 * Write to a temp file then move it over the old one so a crash never leaves
+	 * half a manifest.
+	 */
+	private void save() {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParent());
+			Files.write(tmp, JSON_FACTORY.toPrettyString(this).getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Failed to save " + file, e);
+		}
+	}
+}
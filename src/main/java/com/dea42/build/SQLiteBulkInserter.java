@@ -0,0 +1,103 @@
+package com.dea42.build;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.dea42.common.Db;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * BatchInserter for SQLite that turns off the journal file and fsync and
+ * raises the page cache while a table is loaded, then puts the connection's
+ * settings back. If the import dies part way the DB file may need deleting but
+ * the tables are dropped and reloaded on the next run anyway.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class SQLiteBulkInserter extends BatchInserter {
+	/**
+	 * page cache while loading. Negative is in KiB so 64MB.
+	 */
+	public static final int CACHE_SIZE = -64 * 1024;
+
+	// settings to put back. Note these are set from open() which runs in the
+	// super constructor so must not have initializers.
+	private String journalMode;
+	private String synchronous;
+	private String cacheSize;
+
+	/**
+	 * @see BatchInserter#BatchInserter(Db, String, String, Class[], int, boolean)
+	 */
+	public SQLiteBulkInserter(Db db, String tableName, String sql, Class<?>[] types, int batchSize,
+			boolean failOnAnyError) throws SQLException {
+		super(db, tableName, sql, types, batchSize, failOnAnyError);
+	}
+
+	/**
+	 * The PRAGMAs can not be changed inside a transaction so are set before it
+	 * is started.
+	 */
+	@Override
+	protected void open() throws SQLException {
+		Connection c = db.getConnection(getClass().getSimpleName() + ".open()");
+		if (c.getAutoCommit()) {
+			try (Statement stmt = c.createStatement()) {
+				journalMode = pragma(stmt, "journal_mode", "MEMORY");
+				synchronous = pragma(stmt, "synchronous", "OFF");
+				cacheSize = pragma(stmt, "cache_size", "" + CACHE_SIZE);
+			}
+		} else {
+			log.warn(tableName + " loading with the default PRAGMAs as a transaction is already open");
+		}
+		super.open();
+	}
+
+	/**
+	 * Set a PRAGMA
+	 *
+	 * @param stmt
+	 * @param name
+	 * @param val
+	 * @return the value it had before or null if it could not be set
+	 */
+	private String pragma(Statement stmt, String name, String val) {
+		try {
+			String old = null;
+			try (ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+				if (rs.next())
+					old = rs.getString(1);
+			}
+			stmt.execute("PRAGMA " + name + "=" + val);
+			log.debug("PRAGMA " + name + "=" + val + " was " + old);
+			return old;
+		} catch (SQLException e) {
+			log.warn("Failed to set PRAGMA " + name + ":" + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Put the PRAGMAs back now the table is committed
+	 */
+	@Override
+	protected void release() throws SQLException {
+		try {
+			super.release();
+		} finally {
+			try (Statement stmt = conn.createStatement()) {
+				if (cacheSize != null)
+					pragma(stmt, "cache_size", cacheSize);
+				if (synchronous != null)
+					pragma(stmt, "synchronous", synchronous);
+				if (journalMode != null)
+					pragma(stmt, "journal_mode", journalMode);
+			}
+		}
+	}
+}
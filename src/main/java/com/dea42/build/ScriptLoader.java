@@ -0,0 +1,440 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.dea42.common.Db;
+import com.dea42.common.Utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rebuilds a DB from the per table scripts Sheets2DB saves to the
+ * SCRIPTS_FOLDER without going back to the sheet. The tables are dropped
+ * children first, then each is created and its .data.sql run in batches of
+ * genSpring.batchSize statements a transaction. Tables load on up to
+ * genSpring.loadThreads threads as soon as the tables they reference are
+ * loaded. The .constraints.sql are run last. SQLite only takes one writer so
+ * its tables are loaded one at a time.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class ScriptLoader extends CommonMethods {
+	private static final Pattern REFERENCES = Pattern.compile("REFERENCES\\s+[`\"\\[]?(\\w+)",
+			Pattern.CASE_INSENSITIVE);
+	// keeps a batch of multi-row INSERTs from taking too much memory
+	private static final int MAX_BATCH_CHARS = 16 * 1024 * 1024;
+
+	private final Path folder;
+	private final boolean failOnAnyError;
+	private int batchSize = 1000;
+	private int loadThreads = 4;
+	private final AtomicInteger statements = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * The scripts of a table
+	 */
+	private static class TableScripts {
+		private final String name;
+		private Path ddl;
+		private Path data;
+		private Path drop;
+		private Path constraints;
+		// tables this one references
+		private final Set<String> parents = new HashSet<>();
+
+		private TableScripts(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 *
+	 * @param bundleName     bundle with the DB to load
+	 * @param folder         where the scripts are. null for the SCRIPTS_FOLDER in
+	 *                       genSpring.outdir
+	 * @param failOnAnyError
+	 * @throws Exception
+	 */
+	public ScriptLoader(String bundleName, Path folder, boolean failOnAnyError) throws Exception {
+		this.failOnAnyError = failOnAnyError;
+		super.initVars(bundleName);
+		this.folder = folder == null ? Utils.getPath(baseDir, Sheets2DB.SCRIPTS_FOLDER) : folder;
+		batchSize = Utils.getProp(bundle, PROPKEY + ".batchSize", batchSize);
+		loadThreads = Utils.getProp(bundle, PROPKEY + ".loadThreads", loadThreads);
+	}
+
+	/**
+	 *
+	 * @return statements run
+	 */
+	public int getStatements() {
+		return statements.get();
+	}
+
+	/**
+	 *
+	 * @return statements that failed
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 *
+	 * @param fileName
+	 * @return fileName or its .gz in folder. null if neither is there.
+	 */
+	private Path find(String fileName) {
+		Path p = folder.resolve(fileName);
+		if (Files.isRegularFile(p))
+			return p;
+		p = folder.resolve(fileName + ".gz");
+		if (Files.isRegularFile(p))
+			return p;
+		return null;
+	}
+
+	/**
+	 * Find the tables in folder. A table's script is a .sql that starts with
+	 * CREATE TABLE which leaves out the combined DB.sql.
+	 *
+	 * @return tables by name
+	 * @throws IOException
+	 */
+	private Map<String, TableScripts> findTables() throws IOException {
+		Map<String, TableScripts> rtn = new TreeMap<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(folder)) {
+			for (Path p : ds) {
+				String fileName = p.getFileName().toString();
+				if (fileName.endsWith(".gz"))
+					fileName = fileName.substring(0, fileName.length() - 3);
+				if (!fileName.endsWith(".sql") || fileName.endsWith(".data.sql") || fileName.endsWith(".drop.sql")
+						|| fileName.endsWith(".constraints.sql"))
+					continue;
+				List<String> ddl = readAll(p);
+				if (ddl.isEmpty() || !ddl.get(0).toUpperCase().startsWith("CREATE TABLE"))
+					continue;
+				TableScripts table = new TableScripts(fileName.substring(0, fileName.length() - 4));
+				table.ddl = p;
+				table.data = find(table.name + ".data.sql");
+				table.drop = find(table.name + ".drop.sql");
+				table.constraints = find(table.name + ".constraints.sql");
+				addParents(table, ddl);
+				if (table.constraints != null)
+					addParents(table, readAll(table.constraints));
+				rtn.put(table.name, table);
+			}
+		}
+		return rtn;
+	}
+
+	private void addParents(TableScripts table, List<String> sqls) {
+		for (String sql : sqls) {
+			Matcher m = REFERENCES.matcher(sql);
+			while (m.find()) {
+				if (!m.group(1).equalsIgnoreCase(table.name))
+					table.parents.add(m.group(1));
+			}
+		}
+	}
+
+	private List<String> readAll(Path file) throws IOException {
+		List<String> rtn = new ArrayList<>();
+		try (SqlScriptReader in = new SqlScriptReader(file)) {
+			String sql;
+			while ((sql = in.next()) != null) {
+				rtn.add(sql);
+			}
+		}
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @param tables
+	 * @return the tables with the ones referenced before the ones referencing
+	 *         them. Tables in a loop are added in name order at the end.
+	 */
+	private List<TableScripts> fkOrder(Map<String, TableScripts> tables) {
+		List<TableScripts> rtn = new ArrayList<>();
+		Set<String> added = new HashSet<>();
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (TableScripts table : tables.values()) {
+				if (!added.contains(table.name) && isReady(table, tables, added)) {
+					rtn.add(table);
+					added.add(table.name);
+					progress = true;
+				}
+			}
+		}
+		for (TableScripts table : tables.values()) {
+			if (!added.contains(table.name)) {
+				log.warn(table.name + " is in a reference loop with " + table.parents);
+				rtn.add(table);
+			}
+		}
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @param table
+	 * @param tables
+	 * @param loaded
+	 * @return true if all of table's parents that are being loaded are in loaded
+	 */
+	private boolean isReady(TableScripts table, Map<String, TableScripts> tables, Set<String> loaded) {
+		for (String parent : table.parents) {
+			if (tables.containsKey(parent) && !loaded.contains(parent))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Run the statements in file one at a time outside of a transaction
+	 *
+	 * @param conn
+	 * @param file
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	private void runScript(Connection conn, Path file) throws SQLException, IOException {
+		try (SqlScriptReader in = new SqlScriptReader(file); Statement stmt = conn.createStatement()) {
+			String sql;
+			while ((sql = in.next()) != null) {
+				statements.incrementAndGet();
+				try {
+					stmt.execute(sql);
+				} catch (SQLException e) {
+					failed.incrementAndGet();
+					log.warn(e.getMessage());
+					log.warn(sql);
+					if (failOnAnyError)
+						throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run the statements in file in batches of batchSize a transaction. If a
+	 * batch fails it is rolled back and run again a statement at a time so only
+	 * the bad ones are lost.
+	 *
+	 * @param conn
+	 * @param file
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	private void runData(Connection conn, Path file) throws SQLException, IOException {
+		conn.setAutoCommit(false);
+		List<String> pending = new ArrayList<>();
+		int pendingChars = 0;
+		try (SqlScriptReader in = new SqlScriptReader(file); Statement stmt = conn.createStatement()) {
+			String sql;
+			while ((sql = in.next()) != null) {
+				stmt.addBatch(sql);
+				pending.add(sql);
+				pendingChars += sql.length();
+				if (pending.size() >= batchSize || pendingChars >= MAX_BATCH_CHARS) {
+					runBatch(conn, stmt, pending);
+					pendingChars = 0;
+				}
+			}
+			runBatch(conn, stmt, pending);
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private void runBatch(Connection conn, Statement stmt, List<String> pending) throws SQLException {
+		if (pending.isEmpty())
+			return;
+		statements.addAndGet(pending.size());
+		try {
+			stmt.executeBatch();
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			stmt.clearBatch();
+			log.warn("Batch failed with " + e.getMessage() + " running it a statement at a time");
+			for (String sql : pending) {
+				try {
+					stmt.execute(sql);
+					conn.commit();
+				} catch (SQLException ex) {
+					conn.rollback();
+					failed.incrementAndGet();
+					log.warn(ex.getMessage());
+					log.warn(sql);
+					if (failOnAnyError)
+						throw ex;
+				}
+			}
+		}
+		pending.clear();
+	}
+
+	/**
+	 * Create table and load its data on a connection of its own
+	 *
+	 * @param table
+	 * @throws Exception
+	 */
+	private void load(TableScripts table) throws Exception {
+		String calledBy = getClass().getSimpleName() + ".load(" + table.name + ")";
+		Db tableDb = new Db(calledBy, getBundelName());
+		try {
+			Connection conn = tableDb.getConnection(calledBy);
+			if (tableDb.isMySQL()) {
+				// the constraints are added once everything is loaded
+				try (Statement stmt = conn.createStatement()) {
+					stmt.execute("SET FOREIGN_KEY_CHECKS=0;");
+				}
+			}
+			long start = System.currentTimeMillis();
+			runScript(conn, table.ddl);
+			if (table.data != null)
+				runData(conn, table.data);
+			log.info("Loaded " + table.name + " in " + (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			tableDb.close(calledBy);
+		}
+	}
+
+	/**
+	 * Drop and reload all the tables in folder then add their constraints
+	 *
+	 * @throws Exception
+	 */
+	public void load() throws Exception {
+		long start = System.currentTimeMillis();
+		Map<String, TableScripts> tables = findTables();
+		List<TableScripts> ordered = fkOrder(tables);
+		log.info("Loading " + ordered.size() + " tables from " + folder);
+
+		String calledBy = getClass().getSimpleName() + ".load()";
+		Connection conn = db.getConnection(calledBy);
+		try {
+			// children first
+			List<TableScripts> reversed = new ArrayList<>(ordered);
+			Collections.reverse(reversed);
+			for (TableScripts table : reversed) {
+				if (table.drop != null) {
+					runScript(conn, table.drop);
+				} else {
+					try (Statement stmt = conn.createStatement()) {
+						stmt.execute("DROP TABLE IF EXISTS " + db.getPrefix() + table.name + ";");
+					}
+				}
+			}
+		} finally {
+			db.close(calledBy);
+		}
+
+		int threads = isSQLite() ? 1 : Math.max(1, Math.min(loadThreads, ordered.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int cnt = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "loadTable-" + (++cnt));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			CompletionService<String> loading = new ExecutorCompletionService<>(pool);
+			Set<String> loaded = new HashSet<>();
+			Set<String> submitted = new HashSet<>();
+			int running = 0;
+			while (loaded.size() < ordered.size()) {
+				for (final TableScripts table : ordered) {
+					// the tables in a loop are left till nothing else is running
+					if (!submitted.contains(table.name) && (isReady(table, tables, loaded) || running == 0)) {
+						submitted.add(table.name);
+						running++;
+						loading.submit(new Callable<String>() {
+							@Override
+							public String call() throws Exception {
+								load(table);
+								return table.name;
+							}
+						});
+					}
+				}
+				Future<String> done = loading.take();
+				running--;
+				try {
+					loaded.add(done.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception)
+						throw (Exception) cause;
+					throw e;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		conn = db.getConnection(calledBy);
+		try {
+			for (TableScripts table : ordered) {
+				if (table.constraints != null)
+					runScript(conn, table.constraints);
+			}
+		} finally {
+			db.close(calledBy);
+		}
+
+		System.out.println("Ran " + statements.get() + " statements loading " + ordered.size() + " tables in "
+				+ (System.currentTimeMillis() - start) + " ms.");
+		System.out.println("Failed to run " + failed.get() + " statements.");
+	}
+
+	/**
+	 *
+	 * @param args bundle with the DB to load, defaults to genSpring. Then
+	 *             optionally the folder the scripts are in.
+	 */
+	public static void main(String... args) {
+		try {
+			ScriptLoader loader = new ScriptLoader(args.length > 0 ? args[0] : PROPKEY,
+					args.length > 1 ? Utils.getPath(args[1]) : null, false);
+			loader.load();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
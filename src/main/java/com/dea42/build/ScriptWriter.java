@@ -0,0 +1,173 @@
+package com.dea42.build;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import com.dea42.common.Utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes the SQL scripts Sheets2DB saves to the SCRIPTS_FOLDER. Keeps one
+ * buffered writer per script file open for the run instead of opening the file
+ * for each line. Call flush() at table boundaries and close() at the end of the
+ * run. If disabled all writes are ignored. If gzip is set the files are
+ * compressed and get .gz added to their names. Each time a file is reopened a
+ * new gzip member is appended which gunzip and GZIPInputStream read as one.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class ScriptWriter implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Path folder;
+	private final boolean enabled;
+	private final boolean gzip;
+	private final Map<String, BufferedWriter> writers = new HashMap<>();
+
+	/**
+	 *
+	 * @param folder  where the scripts go
+	 * @param enabled if false nothing is written
+	 */
+	public ScriptWriter(Path folder, boolean enabled) {
+		this(folder, enabled, false);
+	}
+
+	/**
+	 *
+	 * @param folder  where the scripts go
+	 * @param enabled if false nothing is written
+	 * @param gzip    if true the scripts are gzipped
+	 */
+	public ScriptWriter(Path folder, boolean enabled, boolean gzip) {
+		this.folder = folder;
+		this.enabled = enabled;
+		this.gzip = gzip;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public Path getFolder() {
+		return folder;
+	}
+
+	/**
+	 *
+	 * @param fileName
+	 * @return the file fileName is written to
+	 */
+	public Path getPath(String fileName) {
+		return folder.resolve(gzip ? fileName + ".gz" : fileName);
+	}
+
+	/**
+	 * Append content plus a line separator to fileName
+	 *
+	 * @param fileName
+	 * @param content
+	 */
+	public synchronized void println(String fileName, String content) {
+		if (!enabled)
+			return;
+
+		BufferedWriter w = getWriter(fileName);
+		if (w == null)
+			return;
+		try {
+			w.write(content);
+			w.newLine();
+		} catch (IOException e) {
+			log.error("failed to write " + fileName, e);
+			closeQuietly(fileName);
+			getPath(fileName).toFile().delete();
+		}
+	}
+
+	private BufferedWriter getWriter(String fileName) {
+		BufferedWriter w = writers.get(fileName);
+		if (w == null) {
+			Path p = getPath(fileName);
+			try {
+				Files.createDirectories(folder);
+				if (gzip) {
+					// sync flush so flush() gets the lines so far to disk
+					w = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+							Files.newOutputStream(p, StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE,
+							true), Charset.defaultCharset()), BUFFER_SIZE);
+				} else {
+					w = new BufferedWriter(Files.newBufferedWriter(p, Charset.defaultCharset(),
+							StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE);
+				}
+				writers.put(fileName, w);
+				log.info("Writing:" + p.toString());
+			} catch (IOException e) {
+				log.error("failed to create " + p, e);
+				p.toFile().delete();
+			}
+		}
+		return w;
+	}
+
+	/**
+	 * Close fileName if open and delete it.
+	 *
+	 * @param fileName
+	 */
+	public synchronized void delete(String fileName) {
+		closeQuietly(fileName);
+		try {
+			Utils.deletePath(getPath(fileName));
+		} catch (IOException e) {
+			log.warn(e.getMessage());
+		}
+	}
+
+	/**
+	 * Push everything written so far to disk
+	 */
+	public synchronized void flush() {
+		for (Map.Entry<String, BufferedWriter> e : writers.entrySet()) {
+			try {
+				e.getValue().flush();
+			} catch (IOException ex) {
+				log.error("failed to flush " + e.getKey(), ex);
+			}
+		}
+	}
+
+	private void closeQuietly(String fileName) {
+		BufferedWriter w = writers.remove(fileName);
+		if (w != null) {
+			try {
+				w.close();
+			} catch (IOException e) {
+				log.error("failed to close " + fileName, e);
+			}
+		}
+	}
+
+	/**
+	 * Close all the open files. The writer can still be used after and will
+	 * reopen files in append mode as needed.
+	 */
+	@Override
+	public synchronized void close() {
+		for (String fileName : writers.keySet().toArray(new String[0])) {
+			closeQuietly(fileName);
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package com.dea42.build;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.BatchGetValuesResponse;
+import com.google.api.services.sheets.v4.model.ValueRange;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gets the cell data for a set of tabs from a Google sheet. Instead of two
+ * values().get() calls per tab (one for the values and one to find the
+ * HYPERLINK() formulas) it does one batchGet() per render option for all the
+ * tabs. With a window set each tab is instead paged through that many rows at
+ * a time as its rows are iterated so only one window of a tab is in memory.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class SheetFetcher {
+	/**
+	 * https://developers.google.com/sheets/api/reference/rest/v4/ValueRenderOption
+	 */
+	public static final String VALUES = "UNFORMATTED_VALUE";
+	public static final String FORMULAS = "FORMULA";
+
+	private final Sheets service;
+	private final String spreadsheetId;
+	// bytes of the responses read
+	private final AtomicLong bytesRead;
+	// rows per request when paging through a tab. 0 to get whole tabs.
+	private final int window;
+	// where responses are saved to and read back from. null for none
+	private final ResponseCache cache;
+	// of the spreadsheet for the cache. null if not known
+	private final String revision;
+
+	/**
+	 * Cell values and formulas for one tab. Rows are in the same order in both
+	 * lists though either can be shorter than the other if trailing rows are
+	 * empty. Sources that stream their rows override iterator() and
+	 * getFormulaRow() instead of filling in the lists so read the rows with
+	 * iterator() and close() when done.
+	 */
+	public static class TabValues implements Iterable<List<Object>>, Closeable {
+		private final List<List<Object>> values;
+		private final List<List<Object>> formulas;
+
+		public TabValues(List<List<Object>> values, List<List<Object>> formulas) {
+			this.values = values == null ? new ArrayList<>() : values;
+			this.formulas = formulas == null ? new ArrayList<>() : formulas;
+		}
+
+		public List<List<Object>> getValues() {
+			return values;
+		}
+
+		public List<List<Object>> getFormulas() {
+			return formulas;
+		}
+
+		/**
+		 *
+		 * @param rowIdx 0 based row index. For streamed rows only the row last
+		 *               returned by the iterator.
+		 * @return the formulas row or null if there is none
+		 */
+		public List<Object> getFormulaRow(int rowIdx) {
+			if (rowIdx < formulas.size())
+				return formulas.get(rowIdx);
+			return null;
+		}
+
+		/**
+		 * @return the rows of values in order
+		 */
+		@Override
+		public Iterator<List<Object>> iterator() {
+			return values.iterator();
+		}
+
+		/**
+		 * Release anything held open to stream the rows
+		 */
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	public SheetFetcher(Sheets service, String spreadsheetId) {
+		this(service, spreadsheetId, new AtomicLong());
+	}
+
+	/**
+	 *
+	 * @param service
+	 * @param spreadsheetId
+	 * @param bytesRead     added to with the size of each response
+	 */
+	public SheetFetcher(Sheets service, String spreadsheetId, AtomicLong bytesRead) {
+		this(service, spreadsheetId, bytesRead, 0);
+	}
+
+	/**
+	 *
+	 * @param service
+	 * @param spreadsheetId
+	 * @param bytesRead     added to with the size of each response
+	 * @param window        rows to get per request when paging through a tab. 0
+	 *                      to get whole tabs at once.
+	 */
+	public SheetFetcher(Sheets service, String spreadsheetId, AtomicLong bytesRead, int window) {
+		this(service, spreadsheetId, bytesRead, window, null, null);
+	}
+
+	/**
+	 *
+	 * @param service
+	 * @param spreadsheetId
+	 * @param bytesRead     added to with the size of each response
+	 * @param window        rows to get per request when paging through a tab. 0
+	 *                      to get whole tabs at once.
+	 * @param cache         where to save responses and read them back from
+	 *                      instead of calling Google. May be null.
+	 * @param revision      of the spreadsheet for the cache or null if not known
+	 */
+	public SheetFetcher(Sheets service, String spreadsheetId, AtomicLong bytesRead, int window,
+			ResponseCache cache, String revision) {
+		this.service = service;
+		this.spreadsheetId = spreadsheetId;
+		this.bytesRead = bytesRead;
+		this.window = window;
+		this.cache = cache;
+		this.revision = revision;
+	}
+
+	/**
+	 * Quote a tab name for use as an A1 range
+	 *
+	 * @param tabName
+	 * @return 'tabName' with any ' doubled
+	 */
+	public static String a1Tab(String tabName) {
+		return "'" + tabName.replace("'", "''") + "'";
+	}
+
+	/**
+	 * Get the values and formulas for all of tabNames in two calls.
+	 *
+	 * @param tabNames
+	 * @return map of tab name to its data
+	 * @throws IOException
+	 */
+	public Map<String, TabValues> fetch(List<String> tabNames) throws IOException {
+		return fetch(tabNames, Collections.<String, Integer>emptyMap());
+	}
+
+	/**
+	 * Get the values and formulas for all of tabNames in two calls or if a window
+	 * is set return tabs that get their rows a window at a time as iterated.
+	 *
+	 * @param tabNames
+	 * @param rowCounts tab name to its GridProperties.rowCount. Windowed tabs
+	 *                  not in here are read till a window comes back empty.
+	 * @return map of tab name to its data
+	 * @throws IOException
+	 */
+	public Map<String, TabValues> fetch(List<String> tabNames, Map<String, Integer> rowCounts) throws IOException {
+		Map<String, TabValues> rtn = new HashMap<>();
+		if (tabNames.isEmpty())
+			return rtn;
+
+		if (window > 0) {
+			for (String tabName : tabNames) {
+				rtn.put(tabName, new WindowedTab(tabName, rowCounts.get(tabName)));
+			}
+			return rtn;
+		}
+
+		List<String> ranges = new ArrayList<>();
+		for (String tabName : tabNames) {
+			ranges.add(a1Tab(tabName));
+		}
+		List<ValueRange> values = batchGet(ranges, VALUES);
+		List<ValueRange> formulas = batchGet(ranges, FORMULAS);
+		for (int i = 0; i < tabNames.size(); i++) {
+			rtn.put(tabNames.get(i), new TabValues(values.get(i).getValues(), formulas.get(i).getValues()));
+		}
+
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @param ranges       A1 ranges to get
+	 * @param renderOption VALUES or FORMULAS
+	 * @return ValueRange for each range in the same order as ranges
+	 * @throws IOException
+	 */
+	protected List<ValueRange> batchGet(List<String> ranges, String renderOption) throws IOException {
+		String key = null;
+		BatchGetValuesResponse response = null;
+		if (cache != null) {
+			key = ResponseCache.key(renderOption, ranges);
+			byte[] json = cache.get(spreadsheetId, revision, key);
+			if (json != null) {
+				log.debug("batchGet(" + ranges + "," + renderOption + ") from cache");
+				response = service.getObjectParser().parseAndClose(new ByteArrayInputStream(json),
+						StandardCharsets.UTF_8, BatchGetValuesResponse.class);
+			} else if (cache.isReplay()) {
+				throw new IOException(ranges + " " + renderOption + " is not in the cache " + cache);
+			}
+		}
+		if (response == null) {
+			log.debug("batchGet(" + ranges + "," + renderOption + ")");
+			Sheets.Spreadsheets.Values.BatchGet request = service.spreadsheets().values().batchGet(spreadsheetId);
+			request.setRanges(ranges);
+			request.setValueRenderOption(renderOption);
+			// https://developers.google.com/sheets/api/reference/rest/v4/DateTimeRenderOption
+			request.setDateTimeRenderOption("FORMATTED_STRING");
+			// parsed here instead of with execute() so the bytes can be counted
+			HttpResponse httpResponse = request.executeUnparsed();
+			Charset charset = httpResponse.getContentCharset();
+			InputStream in = new ImportStats.CountingInputStream(httpResponse.getContent(), bytesRead);
+			if (cache != null) {
+				// read in whole to save a copy
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				try {
+					byte[] buf = new byte[64 * 1024];
+					int n;
+					while ((n = in.read(buf)) > 0) {
+						out.write(buf, 0, n);
+					}
+				} finally {
+					in.close();
+				}
+				byte[] json = out.toByteArray();
+				cache.put(spreadsheetId, revision, key, json);
+				in = new ByteArrayInputStream(json);
+			}
+			response = service.getObjectParser().parseAndClose(in, charset, BatchGetValuesResponse.class);
+		}
+		List<ValueRange> rtn = response.getValueRanges();
+		if (rtn == null || rtn.size() != ranges.size()) {
+			throw new IOException("Expected " + ranges.size() + " ranges back from batchGet but got "
+					+ (rtn == null ? 0 : rtn.size()));
+		}
+
+		return rtn;
+	}
+
+	/**
+	 * TabValues that gets its rows window rows at a time with a batchGet() per
+	 * render option for each window as they are iterated over.
+	 */
+	private class WindowedTab extends TabValues {
+		private final String tabName;
+		// last row of the tab or null if not known
+		private final Integer rowCount;
+		private boolean started = false;
+		// 1 based sheet row the current window starts at
+		private int windowStart = 1;
+		private List<List<Object>> windowValues = Collections.emptyList();
+		private List<List<Object>> windowFormulas = Collections.emptyList();
+		// 0 based index in the tab of the row last returned
+		private int rowIdx = -1;
+
+		WindowedTab(String tabName, Integer rowCount) {
+			super(null, null);
+			this.tabName = tabName;
+			this.rowCount = rowCount;
+		}
+
+		/**
+		 * Get the next window after the current one.
+		 *
+		 * @return false if there are no more rows in the tab
+		 */
+		private boolean nextWindow() throws IOException {
+			if (started)
+				windowStart += window;
+			started = true;
+			if (rowCount != null && windowStart > rowCount)
+				return false;
+
+			int end = windowStart + window - 1;
+			if (rowCount != null && end > rowCount)
+				end = rowCount;
+			// whole rows so the columns do not need to be known
+			List<String> ranges = Collections.singletonList(a1Tab(tabName) + "!" + windowStart + ":" + end);
+			windowValues = batchGet(ranges, VALUES).get(0).getValues();
+			if (windowValues == null)
+				windowValues = Collections.emptyList();
+			windowFormulas = batchGet(ranges, FORMULAS).get(0).getValues();
+			if (windowFormulas == null)
+				windowFormulas = Collections.emptyList();
+			return true;
+		}
+
+		@Override
+		public Iterator<List<Object>> iterator() {
+			if (started)
+				throw new IllegalStateException(tabName + " can only be read once");
+			return new Iterator<List<Object>>() {
+				// index in the window of the next row
+				private int idx = 0;
+				// Google leaves off trailing empty rows so rows missing from the end of a
+				// window are only known to be blank once a later window has rows
+				private int gapRows = 0;
+				// blank rows to return before the rest of the window
+				private int blankRows = 0;
+				private boolean done = false;
+
+				@Override
+				public boolean hasNext() {
+					while (!done && blankRows == 0 && idx >= windowValues.size()) {
+						if (started)
+							gapRows += window - windowValues.size();
+						try {
+							done = !nextWindow();
+						} catch (IOException e) {
+							throw new UncheckedIOException("Failed getting rows from " + windowStart + " of " + tabName,
+									e);
+						}
+						idx = 0;
+						if (windowValues.isEmpty()) {
+							// without a row count an empty window is taken as the end
+							if (rowCount == null)
+								done = true;
+						} else {
+							blankRows = gapRows;
+							gapRows = 0;
+						}
+					}
+					return !done;
+				}
+
+				@Override
+				public List<Object> next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					rowIdx++;
+					if (blankRows > 0) {
+						blankRows--;
+						return new ArrayList<>();
+					}
+					return windowValues.get(idx++);
+				}
+			};
+		}
+
+		/**
+		 * Only the formulas in the current window are available.
+		 */
+		@Override
+		public List<Object> getFormulaRow(int idx) {
+			int i = idx - (windowStart - 1);
+			if (i < 0 || i >= windowFormulas.size())
+				return null;
+			return windowFormulas.get(i);
+		}
+	}
+}
@@ -1,33 +1,47 @@
 package com.dea42.build;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Time;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.dea42.common.Db;
 import com.dea42.common.Utils;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.auth.oauth2.TokenResponseException;
@@ -45,8 +59,6 @@ import com.google.api.services.sheets.v4.SheetsScopes;
 import com.google.api.services.sheets.v4.model.GridProperties;
 import com.google.api.services.sheets.v4.model.Sheet;
 import com.google.api.services.sheets.v4.model.SheetProperties;
-import com.google.api.services.sheets.v4.model.Spreadsheet;
-import com.google.api.services.sheets.v4.model.ValueRange;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -74,40 +86,168 @@ public class Sheets2DB extends CommonMethods {
 	private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 	private static final String TOKENS_DIRECTORY_PATH = "tokens";
 	public static final String SCRIPTS_FOLDER = "Scripts";
+	// saved to SCRIPTS_FOLDER at the end of a run
+	public static final String STATS_FILE = "importStats.json";
+	// most decimal places a column can have and still be taken as money like
+	static final int MAX_COMPACT_SCALE = 4;
+	static final int MAX_COMPACT_PRECISION = 18;
+	// longest CHAR(n) the DBs all take
+	static final int MAX_CHAR_LEN = 255;
+
+	// Datetime Date and Time formats supported
+	private final DateClassifier dateClassifier = new DateClassifier();
 
-	/*
-	 * Datetime Date and Time formats supported
-	 */
-	public  final SimpleDateFormat sdfWK_DATE_TIME = new SimpleDateFormat("EEE MM/dd/yy hh:mm a");
-	public  final SimpleDateFormat sdfWK_DATE_TIME24 = new SimpleDateFormat("EEE MM/dd/yy HH:mm");
-	public  final SimpleDateFormat sdfDATE_TIME = new SimpleDateFormat("MM/dd/yy hh:mm a");
-	public  final SimpleDateFormat sdfDATE_TIME24 = new SimpleDateFormat("MM/dd/yy HH:mm");
-	public  final SimpleDateFormat sdfWK_DATE_TIMED = new SimpleDateFormat("EEE MM-dd-yy hh:mm a");
-	public  final SimpleDateFormat sdfWK_DATE_TIME24D = new SimpleDateFormat("EEE MM-dd-yy HH:mm");
-	public  final SimpleDateFormat sdfDATE_TIMED = new SimpleDateFormat("MM-dd-yy hh:mm a");
-	public  final SimpleDateFormat sdfDATE_TIME24D = new SimpleDateFormat("MM-dd-yy HH:mm");
-	public  final SimpleDateFormat sdfDATE_ONLY = new SimpleDateFormat("MM/dd/yy");
-	public  final SimpleDateFormat sdfDATE_ONLYD = new SimpleDateFormat("MM-dd-yy");
-	public  final SimpleDateFormat sdfTIVO_SORTABLE = new SimpleDateFormat("yyyyMMddHHmm");
-	public  final SimpleDateFormat sdfTIME_ONLY = new SimpleDateFormat("hh:mm a");
-	public  final SimpleDateFormat sdfTIME_ONLY24 = new SimpleDateFormat("HH:mm");
-	public  final SimpleDateFormat sdfTIME_ONLYS = new SimpleDateFormat("hh:mm:ss a");
-	public  final SimpleDateFormat sdfTIME_ONLY24S = new SimpleDateFormat("HH:mm:ss");
-
-	public  final SimpleDateFormat sdfDB_DATETIME = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 	/**
 	 * Global instance of the scopes required. If modifying these scopes, delete
 	 * your previously saved tokens/ folder. See
 	 * https://developers.google.com/sheets/api/quickstart/java
 	 */
 	private static final List<String> SCOPES = Collections.singletonList(SheetsScopes.SPREADSHEETS_READONLY);
+	/**
+	 * SCOPES plus what is needed to check the sheet's revision for the cache
+	 */
+	private static final List<String> CACHE_SCOPES = Arrays.asList(SheetsScopes.SPREADSHEETS_READONLY,
+			GoogleSource.DRIVE_METADATA_SCOPE);
 	private static final String CREDENTIALS_FILE_PATH = "/credentials.json";
 
 	private int passed = 0;
 	private int failed = 0;
 	private int skipped = 0;
+	private int unchanged = 0;
+	private int deleted = 0;
+	// table name to the natural key its rows were synced on so its user table can
+	// find their ids
+	private final Map<String, String> naturalKeys = new HashMap<>();
+	// lower case names of the tabs' tables, their user tables and the lookup
+	// tables made so far so a lookup table never replaces another table
+	private Set<String> reservedTables = Collections.synchronizedSet(new HashSet<String>());
 
 	private boolean failOnAnyError = false;
+	/**
+	 * number of rows sent to the DB per executeBatch()
+	 */
+	private int batchSize = 1000;
+	/**
+	 * number of tabs to fetch and parse at the same time
+	 */
+	private int parallelTabs = 1;
+	// max rows of a tab to hold in memory before spilling to a temp file. 0 for no
+	// limit
+	private int maxRowsInMemory = 0;
+	/**
+	 * use the DB's bulk load path instead of plain batched INSERTs when there is
+	 * one
+	 */
+	private boolean bulkLoad = true;
+	/**
+	 * rows to get per request when paging through a Google tab. 0 to get all the
+	 * tabs at once.
+	 */
+	private int fetchWindow = 0;
+	/**
+	 * Sheets API responses saved under target/ to reuse while the sheet is
+	 * unchanged. null if genSpring.cache=off
+	 */
+	private ResponseCache cache;
+	/**
+	 * most Sheets API calls to make a minute. 0 for no limit. Google's default
+	 * read quota is 60 a minute per user.
+	 */
+	private int requestsPerMinute = 60;
+	/**
+	 * times to retry a Sheets API call that hit the quota or failed
+	 */
+	private int maxRetries = 10;
+	/**
+	 * timings and counts of the run shown over JMX while running
+	 */
+	private ImportStats stats = new ImportStats();
+	/**
+	 * write the stats to SCRIPTS_FOLDER as JSON at the end of the run
+	 */
+	private boolean statsReport = true;
+	/**
+	 * commit and note the progress in the run manifest every this many rows of a
+	 * table. 0 to only note whole tables.
+	 */
+	private int checkpointRows = 10000;
+	/**
+	 * carry on from the run manifest left by a failed run instead of starting over
+	 */
+	private boolean resume = false;
+	/**
+	 * progress of the current getSheet() run
+	 */
+	private RunManifest manifest;
+	/**
+	 * true once the last getSheet() run got to the end
+	 */
+	private boolean complete = false;
+	/**
+	 * name of the ImportJobs job this is run as. null when run on its own.
+	 */
+	private String jobName;
+	/**
+	 * bundle with the db.* settings of the DB written to when this is one of
+	 * the targets of another run. null for the run's own DB.
+	 */
+	private String targetName;
+	/**
+	 * other DBs the parsed tabs are also written to from genSpring.targets
+	 */
+	private final List<Sheets2DB> targets = new ArrayList<>();
+	/**
+	 * writes the tables to the targets while this writes its own DB
+	 */
+	private ExecutorService targetPool;
+	/**
+	 * set when writing to this target failed so it is skipped for the rest of
+	 * the run
+	 */
+	private boolean targetFailed = false;
+	/**
+	 * Sheets client shared by the jobs of an ImportJobs run. null to make one.
+	 */
+	private Sheets sharedService;
+	/**
+	 * held while writing to the DB so jobs loading the same DB take turns. null
+	 * when run on its own. Jobs and targets writing to other DBs have their own.
+	 */
+	private Lock writeLock;
+	/**
+	 * only writes the rows that changed since the last run if genSpring.sync is
+	 * true
+	 */
+	private DeltaSync sync;
+	/**
+	 * where the SQL run gets saved to
+	 */
+	private ScriptWriter scripts;
+	/**
+	 * most rows per INSERT saved to the scripts. 1 for an INSERT per row.
+	 */
+	private int scriptRows = 1;
+	/**
+	 * most characters per INSERT saved to the scripts
+	 */
+	private int scriptMaxChars = 1000000;
+	/**
+	 * pick the tightest SQL types the parsed values fit instead of the usual
+	 * INTEGER / REAL / VARCHAR
+	 */
+	private boolean compactTypes = false;
+	/**
+	 * move low cardinality text columns to lookup tables with a key to them
+	 */
+	private boolean lookupTables = false;
+	/**
+	 * most distinct values a column can have to be moved to a lookup table
+	 */
+	private int lookupMaxDistinct = 50;
+	/**
+	 * constraint statements to run once all the tables are loaded
+	 */
+	private List<String> constraintSql = new ArrayList<>();
 
 	/**
 	 * default constructor using the sheet bundle name
@@ -127,231 +267,81 @@ public class Sheets2DB extends CommonMethods {
 	 * @throws IOException
 	 */
 	public Sheets2DB(String bundelName, boolean failOnAnyError) throws Exception {
-		this.failOnAnyError = failOnAnyError;
-		super.initVars(bundelName);
+		this(bundelName, null, failOnAnyError);
 	}
 
-	protected long parseDateStr(String source) {
-		log.debug("source:" + source);
-
-		if (source == null || source.length() < 5 || source.length() > 30)
-			return 0;
-
-		source = source.trim();
-
-		int slashCnt = 0;
-		int colonCnt = 0;
-		int dashCnt = 0;
-		boolean isNum = true;
-		for (int i = 0; i < source.length(); i++) {
-			if (source.charAt(i) == '/')
-				slashCnt++;
-			else if (source.charAt(i) == ':')
-				colonCnt++;
-			else if (source.charAt(i) == '-')
-				dashCnt++;
-			else if (!Character.isDigit(source.charAt(i)))
-				isNum = false;
-		}
-		boolean hasSlashs = slashCnt == 2;
-		boolean hasColon = colonCnt == 1 || colonCnt == 2;
-		boolean hasSeconds = colonCnt == 2;
-		boolean hasDashs = dashCnt == 2;
-		boolean firstDigit = Character.isDigit(source.charAt(0));
-		boolean lastDigit = Character.isDigit(source.charAt(source.length() - 1));
-		Date d = null;
-		if (!firstDigit && hasSlashs && hasColon && !hasDashs) {
-			if (!lastDigit) {
-				try {
-					d = sdfWK_DATE_TIME.parse(source);
-					return d.getTime();
-				} catch (ParseException e2) {
-					log.info(sdfWK_DATE_TIME.toPattern(), e2);
-					log.info(sdfWK_DATE_TIME.format(new Date()));
-				}
-			} else {
-				try {
-					d = sdfWK_DATE_TIME24.parse(source);
-					return d.getTime();
-				} catch (ParseException e3) {
-					log.info(sdfWK_DATE_TIME24.toPattern(), e3);
-					log.info(sdfWK_DATE_TIME24.format(new Date()));
-				}
-			}
-		}
-
-		if (firstDigit && hasSlashs && hasColon && !hasDashs) {
-			if (!lastDigit) {
-				try {
-					d = sdfDATE_TIME.parse(source);
-					return d.getTime();
-				} catch (ParseException e2) {
-					log.info(sdfDATE_TIME.toPattern(), e2);
-					log.info(sdfDATE_TIME.format(new Date()));
-				}
-			} else {
-				try {
-					d = sdfDATE_TIME24.parse(source);
-					return d.getTime();
-				} catch (ParseException e3) {
-					log.info(sdfDATE_TIME24.toPattern(), e3);
-					log.info(sdfDATE_TIME24.format(new Date()));
-				}
-			}
-		}
-
-		if (!firstDigit && !hasSlashs && hasColon && hasDashs) {
-			if (!lastDigit) {
-				try {
-					d = sdfWK_DATE_TIMED.parse(source);
-					return d.getTime();
-				} catch (ParseException e2) {
-					log.info(sdfWK_DATE_TIMED.toPattern(), e2);
-					log.info(sdfWK_DATE_TIMED.format(new Date()));
-				}
-			} else {
-				if (source.indexOf('.') < 0) {
-					try {
-						d = sdfWK_DATE_TIME24D.parse(source);
-						return d.getTime();
-					} catch (ParseException e3) {
-						log.info(sdfWK_DATE_TIME24D.toPattern(), e3);
-						log.info(sdfWK_DATE_TIME24D.format(new Date()));
-					}
-				} else {
-					try {
-						d = sdfDB_DATETIME.parse(source);
-						return d.getTime();
-					} catch (ParseException e4) {
-						log.info(sdfDB_DATETIME.toPattern(), e4);
-						log.info(sdfDB_DATETIME.format(new Date()));
-					}
-				}
-			}
-		}
-
-		if (firstDigit && !hasSlashs && hasColon && hasDashs) {
-			if (!lastDigit) {
-				try {
-					d = sdfDATE_TIMED.parse(source);
-					return d.getTime();
-				} catch (ParseException e2) {
-					log.info(sdfDATE_TIMED.toPattern(), e2);
-					log.info(sdfDATE_TIMED.format(new Date()));
-				}
-			} else {
-				try {
-					d = sdfDATE_TIME24D.parse(source);
-					return d.getTime();
-				} catch (ParseException e3) {
-					log.info(sdfDATE_TIME24D.toPattern(), e3);
-					log.info(sdfDATE_TIME24D.format(new Date()));
-				}
-			}
-		}
-
-		if (isNum && hasSlashs && !hasColon && !hasDashs) {
-			try {
-				d = sdfDATE_ONLY.parse(source);
-				return d.getTime();
-			} catch (ParseException e2) {
-				log.info(sdfDATE_ONLY.toPattern(), e2);
-				log.info(sdfDATE_ONLY.format(new Date()));
-			}
-		}
-
-		if (isNum && !hasSlashs && !hasColon && hasDashs) {
-			try {
-				d = sdfDATE_ONLYD.parse(source);
-				return d.getTime();
-			} catch (ParseException e2) {
-				log.info(sdfDATE_ONLYD.toPattern(), e2);
-				log.info(sdfDATE_ONLYD.format(new Date()));
-			}
-		}
-
-		if (firstDigit && hasSlashs && hasColon && !hasDashs) {
-			if (!lastDigit) {
-				try {
-					d = sdfDATE_TIME.parse(source);
-					return d.getTime();
-				} catch (ParseException e2) {
-					log.info(sdfDATE_TIME.toPattern(), e2);
-					log.info(sdfDATE_TIME.format(new Date()));
-				}
-			} else {
-				try {
-					d = sdfDATE_TIME24.parse(source);
-					return d.getTime();
-				} catch (ParseException e3) {
-					log.info(sdfDATE_TIME24.toPattern(), e3);
-					log.info(sdfDATE_TIME24.format(new Date()));
-				}
-			}
+	/**
+	 * 
+	 * @param bundelName     settings of the run
+	 * @param target         bundle with the db.* settings of the DB to write to
+	 *                       instead of the one in bundelName. null for
+	 *                       bundelName's.
+	 * @param failOnAnyError
+	 * @throws Exception
+	 */
+	private Sheets2DB(String bundelName, String target, boolean failOnAnyError) throws Exception {
+		this.failOnAnyError = failOnAnyError;
+		super.initVars(bundelName);
+		if (target != null) {
+			targetName = target;
+			db = new Db(".initVars()", target);
+			isSQLite = db.isSQLite();
 		}
-
-		if (firstDigit && !hasSlashs && hasColon && !hasDashs) {
-			if (!lastDigit) {
-				if (hasSeconds) {
-					try {
-						d = sdfTIME_ONLYS.parse(source);
-						return d.getTime();
-					} catch (ParseException e2) {
-						log.info(sdfTIME_ONLYS.toPattern(), e2);
-						log.info(sdfTIME_ONLYS.format(new Date()));
-					}
-				} else {
-					try {
-						d = sdfTIME_ONLY.parse(source);
-						return d.getTime();
-					} catch (ParseException e2) {
-						log.info(sdfTIME_ONLY.toPattern(), e2);
-						log.info(sdfTIME_ONLY.format(new Date()));
-					}
-				}
-			} else {
-				if (hasSeconds) {
-					try {
-						d = sdfTIME_ONLY24S.parse(source);
-						return d.getTime();
-					} catch (ParseException e3) {
-						log.info(sdfTIME_ONLY24S.toPattern(), e3);
-						log.info(sdfTIME_ONLY24S.format(new Date()));
-					}
-				} else {
-					try {
-						d = sdfTIME_ONLY24.parse(source);
-						return d.getTime();
-					} catch (ParseException e3) {
-						log.info(sdfTIME_ONLY24.toPattern(), e3);
-						log.info(sdfTIME_ONLY24.format(new Date()));
-					}
-				}
-			}
+		batchSize = Utils.getProp(bundle, PROPKEY + ".batchSize", batchSize);
+		parallelTabs = Utils.getProp(bundle, PROPKEY + ".parallelTabs", parallelTabs);
+		maxRowsInMemory = Utils.getProp(bundle, PROPKEY + ".maxRowsInMemory", maxRowsInMemory);
+		bulkLoad = Utils.getProp(bundle, PROPKEY + ".bulkLoad", bulkLoad);
+		fetchWindow = Utils.getProp(bundle, PROPKEY + ".fetchWindow", fetchWindow);
+		requestsPerMinute = Utils.getProp(bundle, PROPKEY + ".requestsPerMinute", requestsPerMinute);
+		maxRetries = Utils.getProp(bundle, PROPKEY + ".maxRetries", maxRetries);
+		// off, on or replay
+		String cacheMode = Utils.getProp(bundle, PROPKEY + ".cache", "off");
+		if (!"off".equalsIgnoreCase(cacheMode)) {
+			String cacheDir = Utils.getProp(bundle, PROPKEY + ".cacheDir", "target/sheetCache");
+			int cacheMinutes = Utils.getProp(bundle, PROPKEY + ".cacheMinutes", 60);
+			boolean cacheRevision = Utils.getProp(bundle, PROPKEY + ".cacheRevision", false);
+			cache = new ResponseCache(Utils.getPath(cacheDir), cacheMinutes * 60000L, cacheRevision,
+					"replay".equalsIgnoreCase(cacheMode));
 		}
-
-		// sortable date type returned by TiVo
-		if (source.length() == 12 && isNum && !hasSlashs && !hasColon && !hasDashs) {
-			try {
-				d = sdfTIVO_SORTABLE.parse(source);
-				return d.getTime();
-			} catch (Exception e) {
-				log.info(sdfTIVO_SORTABLE.toPattern(), e);
-				log.info(sdfTIVO_SORTABLE.format(new Date()));
+		statsReport = Utils.getProp(bundle, PROPKEY + ".statsReport", statsReport);
+		checkpointRows = Utils.getProp(bundle, PROPKEY + ".checkpointRows", checkpointRows);
+		sync = new DeltaSync(db, Utils.getProp(bundle, PROPKEY + ".sync", false), batchSize, failOnAnyError);
+		scriptRows = Utils.getProp(bundle, PROPKEY + ".scriptRows", scriptRows);
+		scriptMaxChars = Utils.getProp(bundle, PROPKEY + ".scriptMaxChars", scriptMaxChars);
+		compactTypes = Utils.getProp(bundle, PROPKEY + ".compactTypes", compactTypes);
+		lookupTables = Utils.getProp(bundle, PROPKEY + ".lookupTables", lookupTables);
+		lookupMaxDistinct = Utils.getProp(bundle, PROPKEY + ".lookupMaxDistinct", lookupMaxDistinct);
+		// each target gets its own scripts as the SQL differs
+		scripts = new ScriptWriter(
+				target == null ? Utils.getPath(baseDir, SCRIPTS_FOLDER) : Utils.getPath(baseDir, target, SCRIPTS_FOLDER),
+				Utils.getProp(bundle, PROPKEY + ".saveScripts", true),
+				Utils.getProp(bundle, PROPKEY + ".scriptGzip", false));
+		if (target == null) {
+			for (String t : Utils.getPropList(bundle, PROPKEY + ".targets")) {
+				targets.add(new Sheets2DB(bundelName, t, failOnAnyError));
 			}
 		}
+	}
 
-		return 0;
+	/**
+	 * 
+	 * @param source
+	 * @return date as ms or 0 if not a date / time
+	 */
+	protected long parseDateStr(String source) {
+		return dateClassifier.parse(source);
 	}
 
 	/**
 	 * Creates an authorized Credential object.
 	 * 
 	 * @param httpTransport The network HTTP Transport.
+	 * @param scopes        SCOPES or CACHE_SCOPES
 	 * @return An authorized Credential object.
 	 * @throws IOException If the credentials.json file cannot be found.
 	 */
-	private static Credential getCredentials(final NetHttpTransport httpTransport) throws IOException {
+	private static Credential getCredentials(final NetHttpTransport httpTransport, List<String> scopes)
+			throws IOException {
 		// Load client secrets.
 		InputStream in = Sheets2DB.class.getResourceAsStream(CREDENTIALS_FILE_PATH);
 		if (in == null) {
@@ -361,7 +351,7 @@ public class Sheets2DB extends CommonMethods {
 
 		// Build flow and trigger user authorization request.
 		GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(httpTransport, JSON_FACTORY,
-				clientSecrets, SCOPES)
+				clientSecrets, scopes)
 				.setDataStoreFactory(new FileDataStoreFactory(new java.io.File(TOKENS_DIRECTORY_PATH)))
 				.setAccessType("offline").build();
 		LocalServerReceiver receiver = new LocalServerReceiver.Builder().setPort(8888).build();
@@ -444,6 +434,98 @@ public class Sheets2DB extends CommonMethods {
 		return wantedCols;
 	}
 
+	/**
+	 * Get the typed value of a cell trying the type already seen in the column
+	 * first and only falling back to full detection when that does not fit.
+	 * 
+	 * @param val cell value
+	 * @param col what is known about the column so far, updated with the result
+	 * @return typed value or null if blank
+	 */
+	public Object getColumnVal(Object val, ColumnType col) {
+		if (val == null)
+			return null;
+		Object rtn = null;
+		if (col.isFixed()) {
+			rtn = getTypedVal(val, col.getType());
+		} else if (col.getType() == String.class) {
+			// can not get any wider
+			rtn = val.toString();
+		} else {
+			if (col.getType() != null && val instanceof String)
+				rtn = parseAs(((String) val).trim(), col.getType());
+			if (rtn == null)
+				rtn = getTypedVal(val, null);
+		}
+		col.add(rtn);
+		return rtn;
+	}
+
+	/**
+	 * Parse s as cls if it is in the form getTypedVal() would detect as cls
+	 * 
+	 * @param s   trimmed cell text
+	 * @param cls type to try
+	 * @return value or null if s is not a cls
+	 */
+	private Object parseAs(String s, Class<?> cls) {
+		if (cls == Integer.class) {
+			// 12 digits might be a TiVo date
+			if (s.length() <= 9 && StringUtils.isNumeric(s))
+				return Integer.parseInt(s);
+		} else if (cls == Long.class) {
+			if (s.length() <= 18 && s.length() != 12 && StringUtils.isNumeric(s))
+				return Long.parseLong(s);
+		} else if (cls == BigDecimal.class) {
+			if (s.indexOf('.') > -1 && isDecimal(s))
+				return new BigDecimal(s);
+		} else if (cls == Date.class || cls == Time.class) {
+			long d = parseDateStr(s);
+			if (d > ONE_DAY_MILS)
+				return new Date(d);
+			if (d != 0)
+				return new Time(d);
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * @param s
+	 * @return true if s will parse as a BigDecimal with a decimal point
+	 */
+	private static boolean isDecimal(String s) {
+		int len = s.length();
+		int i = 0;
+		if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+			i++;
+		int digits = 0;
+		boolean dot = false;
+		for (; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+			} else if (c == '.' && !dot) {
+				dot = true;
+			} else {
+				break;
+			}
+		}
+		if (!dot || digits == 0)
+			return false;
+		if (i < len && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+				i++;
+			int expStart = i;
+			while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+				i++;
+			if (i == expStart || i - expStart > 9)
+				return false;
+		}
+		return i == len;
+	}
+
 	public Object getTypedVal(Object val, Class<?> fieldCls) {
 		if (val == null)
 			return null;
@@ -467,12 +549,8 @@ public class Sheets2DB extends CommonMethods {
 									val = s;
 								}
 							}
-						} else if (s.contains(".")) {
-							try {
-								val = new BigDecimal(s);
-							} catch (NumberFormatException e) {
-								val = s;
-							}
+						} else if (isDecimal(s)) {
+							val = new BigDecimal(s);
 						}
 					} else {
 						// if date / time object then use that type instead of String
@@ -543,7 +621,99 @@ public class Sheets2DB extends CommonMethods {
 	}
 
 	public void exportTab(Sheets service, String spreadsheetId, Sheet sheet) throws Exception {
+		exportTab(new GoogleSource(service, spreadsheetId, stats.getBytesCounter(), fetchWindow, cache), sheet);
+	}
+
+	/**
+	 * Fetch and export one tab
+	 * 
+	 * @param source where to get the tab's data from
+	 * @param sheet  the tab's properties
+	 * @throws Exception
+	 */
+	public void exportTab(TabularSource source, Sheet sheet) throws Exception {
+		String tabName = sheet.getProperties().getTitle();
+		SheetFetcher.TabValues data = null;
+		long start = System.nanoTime();
+		try {
+			data = source.fetch(Collections.singletonList(tabName)).get(tabName);
+			stats.add(stats.table(Utils.tabToStr(renames, tabName)), ImportStats.Phase.FETCH, start);
+		} catch (IOException e) {
+			log.error("Failed to get field data for " + tabName, e);
+			if (failOnAnyError) {
+				throw e;
+			}
+		}
+		exportTab(sheet, data);
+	}
+
+	/**
+	 * Export a tab using data already fetched
+	 * 
+	 * @param sheet the tab's properties
+	 * @param data  the tab's values and formulas. If null the table is created
+	 *              with no rows.
+	 * @throws Exception
+	 */
+	public void exportTab(Sheet sheet, SheetFetcher.TabValues data) throws Exception {
+		List<TableData> tables;
+		try {
+			tables = parseTab(sheet, data);
+		} finally {
+			closeTab(sheet, data);
+		}
+		try {
+			for (TableData table : tables) {
+				writeTable(table);
+			}
+		} finally {
+			release(tables);
+		}
+	}
 
+	/**
+	 * Free the rows of parsed tables once written
+	 * 
+	 * @param tables
+	 */
+	private void release(List<TableData> tables) {
+		for (TableData table : tables) {
+			table.release();
+			if (!table.isUserTable())
+				stats.released(stats.table(table.getTableName()));
+		}
+	}
+
+	/**
+	 * Close the tab's data once parsed so any file it is streamed from is released
+	 * 
+	 * @param sheet
+	 * @param data  may be null
+	 */
+	private void closeTab(Sheet sheet, SheetFetcher.TabValues data) {
+		if (data != null) {
+			try {
+				data.close();
+			} catch (IOException e) {
+				log.warn("Failed to close data for " + sheet.getProperties().getTitle(), e);
+			}
+		}
+	}
+
+	/**
+	 * Get a tab's data ready to write to the DB without touching the DB. Safe to
+	 * call from several threads at once. Note the rows are read with
+	 * data.iterator() so can only be parsed once for streamed sources.
+	 * 
+	 * @param sheet the tab's properties
+	 * @param data  the tab's values and formulas. If null the table is created
+	 *              with no rows.
+	 * @return any lookup tables then the main table followed by its user table
+	 *         if it has user columns
+	 */
+	public List<TableData> parseTab(Sheet sheet, SheetFetcher.TabValues data) {
+		long start = System.nanoTime();
+		List<TableData> rtn = new ArrayList<>();
 		SheetProperties p = sheet.getProperties();
 		String tabName = p.getTitle();
 		String tableName = Utils.tabToStr(renames, tabName);
@@ -552,7 +722,6 @@ public class Sheets2DB extends CommonMethods {
 		// "gridProperties":{"columnCount":19,"frozenColumnCount":1,"frozenRowCount":1,"rowCount":38},
 		// "index":2,"sheetId":1049211208,"sheetType":"GRID","title":"Networks"}}
 		GridProperties gp = p.getGridProperties();
-		int columnCount = gp.getColumnCount();
 		int rowCount = Utils.getProp(bundle, tableName + ".lastRow", gp.getRowCount());
 		// headers / field names assumed to be in last frozen row or first row
 		int frozenRowCount = 0;
@@ -565,9 +734,9 @@ public class Sheets2DB extends CommonMethods {
 			frozenRowCount = 1;
 
 		//
-		List<Integer> wantedColNums = strToCols(Utils.getProp(bundle, tableName + ".columns"));
-		List<Integer> userColNums = strToCols(Utils.getProp(bundle, tableName + ".user"));
-		List<Integer> requiredColNums = strToCols(Utils.getProp(bundle, tableName + ".required"));
+		BitSet wantedCols = ColumnPlan.toBits(strToCols(Utils.getProp(bundle, tableName + ".columns")));
+		BitSet userCols = ColumnPlan.toBits(strToCols(Utils.getProp(bundle, tableName + ".user")));
+		BitSet requiredCols = ColumnPlan.toBits(strToCols(Utils.getProp(bundle, tableName + ".required")));
 
 		Map<String, String> foreignColNums = Utils.getPropMap(bundle, tableName + ".foreign");
 
@@ -584,11 +753,22 @@ public class Sheets2DB extends CommonMethods {
 		// required field names
 		List<String> requiredFields = new ArrayList<>();
 		List<String> requiredUserFields = new ArrayList<>();
-		// holds the actual data
-		Map<Integer, Map<String, Object>> rowsData = new HashMap<>();
-		Map<Integer, Map<String, Object>> rowsUserData = new HashMap<>();
-		// preserve order of fields
-		String[] ha = new String[columnCount];
+		// what has been learned about each column so far
+		Map<String, ColumnType> columnTypes = new HashMap<>();
+		Map<String, ColumnType> userColumnTypes = new HashMap<>();
+		// holds the actual data for both tables
+		ColumnTable rowsData;
+		if (maxRowsInMemory > 0)
+			rowsData = new SpillTable(maxRowsInMemory, tableName);
+		else
+			rowsData = new ColumnTable();
+		// rows that have user data
+		BitSet userRows = new BitSet();
+		// set from the header row
+		ColumnPlan plan = null;
+		// per column type info and ColumnTable column
+		ColumnType[] colTypes = null;
+		int[] colIdx = null;
 		int colOffset = 0;
 		colOrder.put(colOffset, ID_COLUMN);
 		userColOrder.put(colOffset, ID_COLUMN);
@@ -618,182 +798,141 @@ public class Sheets2DB extends CommonMethods {
 			userColOrder.put(colOffset, colLastMod);
 		}
 
-		Sheets.Spreadsheets.Values.Get request;
-		List<List<Object>> values;
-		try {
-			request = service.spreadsheets().values().get(spreadsheetId, tabName);
-			// https://developers.google.com/sheets/api/reference/rest/v4/ValueRenderOption
-			request.setValueRenderOption("UNFORMATTED_VALUE");// UNFORMATTED_VALUE//FORMULA
-			// https://developers.google.com/sheets/api/reference/rest/v4/DateTimeRenderOption
-			request.setDateTimeRenderOption("FORMATTED_STRING");
-
-			ValueRange response = request.execute();
-
-			values = response.getValues();
-			if (values == null || values.isEmpty()) {
-				log.error("No data found for tab " + tabName);
-			} else {
-				int rowId = 1;
-				for (List<Object> row : values) {
-					if (rowId == 306) {
-						log.error("rowId == " + rowId);
-					}
-					if (rowId == frozenRowCount) {
-						colOffset++;
-						// init field lengths to 0
-						int colNum = 0;
-						for (Object h : row) {
+		// file sources read the rows from disk as they are iterated over
+		Iterator<List<Object>> rows = data == null ? null : data.iterator();
+		if (rows == null || !rows.hasNext()) {
+			log.error("No data found for tab " + tabName);
+		} else {
+			int rowId = 1;
+			// stop reading once past the header and lastRow. Checked before hasNext()
+			// so a windowed source does not fetch rows past lastRow.
+			while (!(rowId > rowCount && rowId > frozenRowCount) && rows.hasNext()) {
+				List<Object> row = rows.next();
+				if (rowId == 306) {
+					log.error("rowId == " + rowId);
+				}
+				if (rowId == frozenRowCount) {
+					colOffset++;
+					// work out where each column goes once
+					String[] headers = new String[row.size()];
+					for (int colNum = 0; colNum < headers.length; colNum++) {
+						if (userCols.get(colNum) || wantedCols.isEmpty() || wantedCols.get(colNum)) {
+							Object h = row.get(colNum);
 							String header = "";
 							if (h != null) {
 								header = h.toString();
 							}
-							if (userColNums.contains(colNum)) {
-								if (StringUtils.isBlank(Utils.tabToStr(renames, header))) {
-									header = "Col" + columnNumberToLetter(colNum + 1);
-								}
-								maxUserFieldLenghts.put(header, 0);
-								userFieldTypes.put(header, Utils.getPropCls(bundle,
-										tabName + "." + columnNumberToLetter(colNum + 1) + ".type", null));
-								// note just pulling the keySet scrambles the order
-								ha[colNum] = header;
-								userColOrder.put(colNum + colOffset, header);
-								if (requiredColNums.contains(colNum)) {
-									requiredUserFields.add(header);
-								}
-							} else if (wantedColNums.isEmpty() || wantedColNums.contains(colNum)) {
-								if (StringUtils.isBlank(Utils.tabToStr(renames, header))) {
-									header = "Col" + columnNumberToLetter(colNum + 1);
-								}
-								maxFieldLenghts.put(header, 0);
-								fieldTypes.put(header, Utils.getPropCls(bundle,
-										tabName + "." + columnNumberToLetter(colNum + 1) + ".type", null));
-								colOrder.put(colNum + colOffset, header);
-								// note just pulling the keySet scrambles the order
-								ha[colNum] = header;
-								if (requiredColNums.contains(colNum)) {
-									requiredFields.add(header);
-								}
+							if (StringUtils.isBlank(Utils.tabToStr(renames, header))) {
+								header = "Col" + columnNumberToLetter(colNum + 1);
 							}
-							colNum++;
+							headers[colNum] = header;
 						}
-						log.debug("row:" + row.toString());
-					} else if (rowId > frozenRowCount && rowId <= rowCount) {
-						Map<String, Object> rowMap = new HashMap<>();
-						rowsData.put(rowId, rowMap);
-						Object[] cells = row.toArray();
-						for (int i = 0; i < cells.length; i++) {
-							Map<String, Integer> mfl = maxFieldLenghts;
-							Map<String, Class<?>> ft = fieldTypes;
-							if (userColNums.contains(i)) {
-								mfl = maxUserFieldLenghts;
-								ft = userFieldTypes;
-								rowsUserData.put(rowId, rowMap);
+					}
+					plan = new ColumnPlan(wantedCols, userCols, requiredCols, headers);
+					colTypes = new ColumnType[plan.size()];
+					colIdx = new int[plan.size()];
+					// init field lengths to 0
+					for (int colNum = 0; colNum < plan.size(); colNum++) {
+						byte dest = plan.getDest(colNum);
+						if (dest == ColumnPlan.SKIP)
+							continue;
+
+						String header = plan.getHeader(colNum);
+						Map<String, ColumnType> cts = columnTypes;
+						if (dest == ColumnPlan.USER) {
+							cts = userColumnTypes;
+							maxUserFieldLenghts.put(header, 0);
+							userColOrder.put(colNum + colOffset, header);
+							if (plan.isRequired(colNum)) {
+								requiredUserFields.add(header);
 							}
-							if (wantedColNums.isEmpty() || wantedColNums.contains(i) || userColNums.contains(i)) {
-								// deal with blank cells
-								if (cells[i] != null && StringUtils.isBlank(cells[i].toString()))
-									cells[i] = null;
-
-								rowMap.put(ha[i], cells[i]);
-
-								Class<?> fieldCls = ft.get(ha[i]);
-								// set blank and cells with errors to null
-								if (cells[i] != null) {
-									if (cells[i] instanceof String) {
-										String s = (String) cells[i];
-										if (StringUtils.isBlank(s)|| s.startsWith("#VALUE!") 
-												|| s.startsWith("#NUM!") 
-												|| s.startsWith("#REF!")|| s.startsWith("#N/A") 
-												|| s.equals("#N/A"))
-											cells[i] = null;
-									}
-								}
-
-								Object val = getTypedVal(cells[i], fieldCls);
-								if (val != null) {
-									ft.put(ha[i], val.getClass());
-									if (val instanceof String) {
-										int len = mfl.get(ha[i]);
-										int vlen = ((String) val).length();
-										if (len < vlen)
-											mfl.put(ha[i], vlen);
-									}
-								}
-								rowMap.put(ha[i], val);
+						} else {
+							maxFieldLenghts.put(header, 0);
+							colOrder.put(colNum + colOffset, header);
+							if (plan.isRequired(colNum)) {
+								requiredFields.add(header);
 							}
 						}
-						log.debug("rowMap:" + rowMap.toString());
+						// columns with the same name share the field like they always have
+						ColumnType ct = cts.get(header);
+						if (ct == null) {
+							ct = new ColumnType(Utils.getPropCls(bundle,
+									tabName + "." + columnNumberToLetter(colNum + 1) + ".type", null));
+							cts.put(header, ct);
+						}
+						colTypes[colNum] = ct;
+						colIdx[colNum] = rowsData.addColumn(header);
 					}
-					rowId++;
-				}
-			}
-		} catch (IOException e) {
-			log.error("Failed to get field data for " + tabName, e);
-			if (failOnAnyError) {
-				throw e;
-			}
-		}
-
-		// rescan for cells with links
-		try {
-			request = service.spreadsheets().values().get(spreadsheetId, tabName);
-			request.setValueRenderOption("FORMULA");
-			request.setDateTimeRenderOption("FORMATTED_STRING");
-			ValueRange response = request.execute();
-
-			values = response.getValues();
-			if (values == null || values.isEmpty()) {
-				log.error("No data found for tab " + tabName);
-			} else {
-				int rowId = 1;
-				for (List<Object> row : values) {
-					if (rowId > frozenRowCount && rowId <= rowCount) {
-						Object[] cells = row.toArray();
-						for (int i = 0; i < cells.length; i++) {
-							Map<String, Integer> mfl = maxFieldLenghts;
-							Map<String, Class<?>> ft = fieldTypes;
-							Map<Integer, Map<String, Object>> rd = rowsData;
-
-							if (userColNums.contains(i)) {
-								mfl = maxUserFieldLenghts;
-								ft = userFieldTypes;
-								rd = rowsUserData;
+					if (log.isDebugEnabled())
+						log.debug("row:" + row.toString());
+				} else if (rowId > frozenRowCount && rowId <= rowCount && plan != null) {
+					int rowIdx = rowsData.addRow(rowId);
+					int cellCnt = Math.min(row.size(), plan.size());
+					for (int i = 0; i < cellCnt; i++) {
+						byte dest = plan.getDest(i);
+						if (dest == ColumnPlan.SKIP)
+							continue;
+						if (dest == ColumnPlan.USER)
+							userRows.set(rowIdx);
+
+						Object cell = row.get(i);
+						// set blank and cells with errors to null
+						if (cell != null) {
+							if (cell instanceof String) {
+								String s = (String) cell;
+								if (StringUtils.isBlank(s) || s.startsWith("#VALUE!") || s.startsWith("#NUM!")
+										|| s.startsWith("#REF!") || s.startsWith("#N/A"))
+									cell = null;
+							} else if (StringUtils.isBlank(cell.toString())) {
+								cell = null;
 							}
-							Map<String, Object> rowMap = rd.get(rowId);
-							if ((wantedColNums.isEmpty() || wantedColNums.contains(i) || userColNums.contains(i)) 
-									&& (cells[i] instanceof String)) {
-								String s = (String) cells[i];
-								if (!StringUtils.isBlank(s)) {
-									int beginIndex = s.indexOf("HYPERLINK(");
-									if (beginIndex > -1) {
-										beginIndex += 11;
-										String header = ha[i] + " link";
-										int endIndex = s.indexOf('"', beginIndex);
-										s = s.substring(beginIndex, endIndex);
-										Integer len = mfl.get(header);
-										if (len == null)
-											len = 0;
-										int vlen = s.length();
-										if (len < vlen)
-											mfl.put(header, vlen);
-
-										ft.put(header, String.class);
-										rowMap.put(header, s);
+						}
+
+						rowsData.set(rowIdx, colIdx[i], getColumnVal(cell, colTypes[i]), colTypes[i].getType());
+					}
+					// pick up the URLs from any HYPERLINK() cells
+					List<Object> formulaRow = data.getFormulaRow(rowId - 1);
+					if (formulaRow != null) {
+						int formulaCnt = Math.min(formulaRow.size(), plan.size());
+						for (int i = 0; i < formulaCnt; i++) {
+							byte dest = plan.getDest(i);
+							if (dest != ColumnPlan.SKIP && (formulaRow.get(i) instanceof String)) {
+								String s = (String) formulaRow.get(i);
+								int beginIndex = s.indexOf("HYPERLINK(");
+								if (beginIndex > -1) {
+									Map<String, Integer> mfl = maxFieldLenghts;
+									Map<String, Class<?>> ft = fieldTypes;
+									if (dest == ColumnPlan.USER) {
+										mfl = maxUserFieldLenghts;
+										ft = userFieldTypes;
 									}
+									beginIndex += 11;
+									String header = plan.getLinkHeader(i);
+									int endIndex = s.indexOf('"', beginIndex);
+									s = s.substring(beginIndex, endIndex);
+									Integer len = mfl.get(header);
+									if (len == null)
+										len = 0;
+									int vlen = s.length();
+									if (len < vlen)
+										mfl.put(header, vlen);
+
+									ft.put(header, String.class);
+									rowsData.set(rowIdx, header, s);
 								}
-							}							
+							}
 						}
 					}
-					rowId++;
+					if (log.isDebugEnabled())
+						log.debug("rowMap:" + rowsData.rowToString(rowIdx));
 				}
-			}
-		} catch (IOException e) {
-			log.error("Failed to get link fields for " + tabName, e);
-			if (failOnAnyError) {
-				throw e;
+				rowId++;
 			}
 		}
 
+		copyColumnTypes(columnTypes, fieldTypes, maxFieldLenghts);
+		copyColumnTypes(userColumnTypes, userFieldTypes, maxUserFieldLenghts);
+
 		log.debug("Exporting tab:" + tabName + " to table:" + tableName);
 		for (String fnam : fieldTypes.keySet()) {
 			if (foreignColNums.containsKey(fnam)) {
@@ -801,9 +940,13 @@ public class Sheets2DB extends CommonMethods {
 			}
 		}
 
-		genTable(tableName, null, maxFieldLenghts, fieldTypes, requiredFields, rowsData, foreignKeys, colOrder);
+		Map<String, Map<String, Long>> lookups = null;
+		if (lookupTables)
+			lookups = addLookupTables(tableName, rowsData, colOrder, columnTypes, fieldTypes, foreignKeys, rtn);
+		rtn.add(new TableData(tableName, null, maxFieldLenghts, fieldTypes, requiredFields, rowsData,
+				rowsData.allRows(), foreignKeys, colOrder, columnTypes, lookups, false));
 		// If has user columns to be placed in separate table, create that user table.
-		if (!userColNums.isEmpty()) {
+		if (!userCols.isEmpty()) {
 			Map<String, String> userForeignKeys = new HashMap<String, String>();
 			for (String fnam : userFieldTypes.keySet()) {
 				if (foreignColNums.containsKey(fnam)) {
@@ -819,9 +962,333 @@ public class Sheets2DB extends CommonMethods {
 			userColOrder.put(colNum, USERID_COLUMN);
 			userColOrder.put(++colNum, tableName + "_Id");
 			log.debug("Exporting tab:" + tabName + " to table:" + tableName);
-			genTable(tableName + "User", tableName, maxUserFieldLenghts, userFieldTypes, requiredUserFields,
-					rowsUserData, userForeignKeys, userColOrder);
+			rtn.add(new TableData(tableName + "User", tableName, maxUserFieldLenghts, userFieldTypes,
+					requiredUserFields, rowsData, userRows, userForeignKeys, userColOrder, userColumnTypes,
+					null, false));
+		}
+
+		ImportStats.TabStats tabStats = stats.table(tableName);
+		stats.parsed(tabStats, rowsData.size(), rowsData.getRowsInMemory());
+		for (int i = 0; i < rowsData.getColumnCount(); i++) {
+			String name = rowsData.getColumnName(i);
+			tabStats.distinct(name, rowsData.getDistinctCount(name));
+		}
+		for (TableData table : rtn) {
+			ImportStats.TabStats ts = stats.table(table.getTableName());
+			long tableRows = table.getRows().cardinality();
+			for (Map.Entry<String, ColumnType> e : table.getColumnTypes().entrySet()) {
+				ts.column(e.getKey(), e.getValue().toMap(tableRows));
+			}
 		}
+		stats.add(tabStats, ImportStats.Phase.PARSE, start);
+		return rtn;
+	}
+
+	/**
+	 * Move the values of the low cardinality text columns of a table to lookup
+	 * tables named table + column with the column changed to a key to them. A
+	 * column qualifies when it has no more than lookupMaxDistinct values and
+	 * each is used at least twice on average. The ids are given in the order
+	 * the values first appear which is also the order they are inserted.
+	 * 
+	 * @param tableName
+	 * @param rowsData
+	 * @param colOrder
+	 * @param columnTypes
+	 * @param fieldTypes  the moved columns are changed to the id type
+	 * @param foreignKeys the keys to the lookup tables are added
+	 * @param rtn         the lookup tables are added
+	 * @return column name to the ids of its values or null if none were moved
+	 */
+	private Map<String, Map<String, Long>> addLookupTables(String tableName, ColumnTable rowsData,
+			Map<Integer, String> colOrder, Map<String, ColumnType> columnTypes, Map<String, Class<?>> fieldTypes,
+			Map<String, String> foreignKeys, List<TableData> rtn) {
+		String className = Utils.tabToStr(renames, tableName);
+		List<String> uniqueCols = Utils.getPropList(bundle, className + ".unique");
+		String naturalKey = Utils.getProp(bundle, className + ".naturalKey", null);
+		Map<String, Map<String, Long>> lookups = new LinkedHashMap<>();
+		Map<String, String> lookupTables = new HashMap<>();
+		for (Integer colNum : colOrder.keySet()) {
+			String name = colOrder.get(colNum);
+			ColumnType ct = columnTypes.get(name);
+			// link columns are set to String without a ColumnType of their own
+			if (ct == null || ct.getType() != String.class || fieldTypes.get(name) != String.class
+					|| foreignKeys.containsKey(name) || uniqueCols.contains(name) || name.equals(naturalKey))
+				continue;
+			int distinct = rowsData.getDistinctCount(name);
+			if (distinct > 0 && distinct <= lookupMaxDistinct && distinct * 2L <= ct.getCount()) {
+				String lookupTable = lookupTableName(tableName, name);
+				if (lookupTable != null) {
+					lookups.put(name, new LinkedHashMap<String, Long>());
+					lookupTables.put(name, lookupTable);
+				}
+			}
+		}
+		if (lookups.isEmpty())
+			return null;
+
+		ColumnTable.Cursor cursor = rowsData.cursor(rowsData.allRows());
+		try {
+			while (cursor.next()) {
+				for (Map.Entry<String, Map<String, Long>> e : lookups.entrySet()) {
+					Object val = cursor.get(e.getKey());
+					Map<String, Long> ids = e.getValue();
+					if (val != null && !ids.containsKey(val.toString()))
+						ids.put(val.toString(), (long) ids.size() + 1);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+
+		for (Map.Entry<String, Map<String, Long>> e : lookups.entrySet()) {
+			String name = e.getKey();
+			String lookupTable = lookupTables.get(name);
+			ColumnTable data = new ColumnTable();
+			int col = data.addColumn(name);
+			ColumnType ct = new ColumnType(String.class);
+			// ids come from the row the same as a tab's so match when syncing too
+			int rowId = 2;
+			for (String val : e.getValue().keySet()) {
+				data.set(data.addRow(rowId++), col, val);
+				ct.add(val);
+			}
+			Map<String, Integer> lens = new HashMap<>();
+			lens.put(name, ct.getMaxLen());
+			Map<String, Class<?>> types = new HashMap<>();
+			types.put(name, String.class);
+			Map<Integer, String> order = new HashMap<>();
+			order.put(0, ID_COLUMN);
+			order.put(1, name);
+			Map<String, ColumnType> cts = new HashMap<>();
+			cts.put(name, ct);
+			log.info("Moving " + tableName + "." + name + " to lookup table " + lookupTable);
+			rtn.add(new TableData(lookupTable, null, lens, types, Collections.singletonList(name), data,
+					data.allRows(), new HashMap<String, String>(), order, cts, null, true));
+
+			fieldTypes.put(name, db.getIdTypeCls());
+			foreignKeys.put(name, lookupTable + "." + ID_COLUMN);
+		}
+		return lookups;
+	}
+
+	/**
+	 * Pick a name for the lookup table of a column that is not the name of a
+	 * tab's table, a user table or another lookup table since genTable() drops a
+	 * lookup table before creating it.
+	 * 
+	 * @param tableName
+	 * @param name      column being moved
+	 * @return tableName + the column, the same with Lookup added if that is taken
+	 *         or null if both are
+	 */
+	private String lookupTableName(String tableName, String name) {
+		String lookupTable = tableName + Utils.tabToStr(renames, name);
+		if (reservedTables.add(lookupTable.toLowerCase()))
+			return lookupTable;
+		if (reservedTables.add((lookupTable + "Lookup").toLowerCase()))
+			return lookupTable + "Lookup";
+		log.warn("Leaving " + tableName + "." + name + " in the table since " + lookupTable + " and " + lookupTable
+				+ "Lookup are already tables");
+		return null;
+	}
+
+	/**
+	 * Note the tables of the tabs and their user tables so lookup tables do not
+	 * take their names
+	 * 
+	 * @param sheets all the tabs
+	 */
+	private void reserveTables(List<Sheet> sheets) {
+		Set<String> names = new HashSet<>();
+		names.add(ACCOUNT_TABLE.toLowerCase());
+		names.add(DeltaSync.TABLES_TABLE.toLowerCase());
+		names.add(DeltaSync.ROWS_TABLE.toLowerCase());
+		for (Sheet sheet : sheets) {
+			String tableName = Utils.tabToStr(renames, sheet.getProperties().getTitle());
+			names.add(tableName.toLowerCase());
+			if (!strToCols(Utils.getProp(bundle, tableName + ".user")).isEmpty())
+				names.add((tableName + "User").toLowerCase());
+		}
+		reservedTables = Collections.synchronizedSet(names);
+	}
+
+	/**
+	 * Copy the final types and lengths of the columns to the maps genTable()
+	 * uses
+	 * 
+	 * @param columnTypes
+	 * @param fieldTypes
+	 * @param maxFieldLenghts
+	 */
+	private void copyColumnTypes(Map<String, ColumnType> columnTypes, Map<String, Class<?>> fieldTypes,
+			Map<String, Integer> maxFieldLenghts) {
+		for (Map.Entry<String, ColumnType> e : columnTypes.entrySet()) {
+			fieldTypes.put(e.getKey(), e.getValue().getType());
+			maxFieldLenghts.put(e.getKey(), e.getValue().getMaxLen());
+		}
+	}
+
+	/**
+	 * Write a parsed table to this DB and the targets at the same time
+	 * 
+	 * @param table
+	 * @throws Exception the first failure, this DB's first
+	 */
+	private void writeTable(final TableData table) throws Exception {
+		List<Future<Void>> written = new ArrayList<>();
+		for (final Sheets2DB target : targets) {
+			written.add(targetPool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					target.writeTarget(table);
+					return null;
+				}
+			}));
+		}
+		Exception error = null;
+		try {
+			genTable(table);
+		} catch (Exception e) {
+			error = e;
+		}
+		// the rows can not be released until all the targets are done with them
+		for (Future<Void> f : written) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				if (error == null)
+					error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Write a parsed table to this target unless it has already failed
+	 * 
+	 * @param table
+	 * @throws Exception if failOnAnyError
+	 */
+	private void writeTarget(TableData table) throws Exception {
+		if (targetFailed)
+			return;
+		try {
+			genTable(table);
+		} catch (Exception e) {
+			targetError(e);
+		}
+	}
+
+	/**
+	 * Log a failure of this target and skip it for the rest of the run
+	 * 
+	 * @param e
+	 * @throws Exception e if failOnAnyError
+	 */
+	private void targetError(Exception e) throws Exception {
+		log.error("Failed writing to " + targetName + ", skipping it for the rest of the run", e);
+		if (failOnAnyError)
+			throw e;
+		targetFailed = true;
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @return id as the type of this DB's ids or null if id is null
+	 */
+	private Object idVal(Long id) {
+		if (id == null || db.getIdTypeCls() == Long.class)
+			return id;
+		return id.intValue();
+	}
+
+	/**
+	 * 
+	 * @param table  table name with any schema prefix
+	 * @param keyCol natural key field of table
+	 * @return the key values of the rows in table to their ids
+	 * @throws SQLException
+	 */
+	private Map<String, Long> idsByKey(String table, String keyCol) throws SQLException {
+		if (db.isMySQL())
+			keyCol = '`' + keyCol + '`';
+		Map<String, Long> rtn = new HashMap<>();
+		Connection conn = db.getConnection(getClass().getSimpleName() + ".idsByKey()");
+		try (PreparedStatement ps = conn.prepareStatement("SELECT " + keyCol + ", " + ID_COLUMN + " FROM " + table);
+				ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				rtn.put(rs.getString(1), rs.getLong(2));
+			}
+		} finally {
+			db.close(getClass().getSimpleName() + ".idsByKey()");
+		}
+		return rtn;
+	}
+
+	/**
+	 * Generate the table from parsed sheet data
+	 * 
+	 * @param table
+	 * @throws SQLException
+	 */
+	private void genTable(TableData table) throws SQLException {
+		lockDb();
+		try {
+			genTable(table.getTableName(), table.getMainTable(), table.getMaxFieldLenghts(), table.getFieldTypes(),
+					table.getRequiredFields(), table.getRowsData(), table.getRows(), table.getForeignKeys(),
+					table.getColOrder(), table.getColumnTypes(), table.getLookups(), table.isLookup());
+		} finally {
+			unlockDb();
+		}
+	}
+
+	/**
+	 * Pick a tighter type than the usual one from what was seen while parsing.
+	 * Integers that fit become TINYINT / SMALLINT, decimals with few places
+	 * like money become DECIMAL(p,s) instead of REAL and Strings that are all
+	 * the same length become CHAR(n).
+	 * 
+	 * @param ct  stats of the column or null
+	 * @param cls type the column is being created as
+	 * @return the type or null to use the usual one
+	 */
+	String compactType(ColumnType ct, Class<?> cls) {
+		// link and key columns have no stats and the stats are for the parsed
+		// type only
+		if (ct == null || ct.getType() != cls || ct.getCount() == 0)
+			return null;
+		if (cls == Integer.class) {
+			// SQL Server's TINYINT is 0 to 255
+			if (db.isSqlserver() ? ct.getMin() >= 0 && ct.getMax() <= 255
+					: ct.getMin() >= Byte.MIN_VALUE && ct.getMax() <= Byte.MAX_VALUE)
+				return "TINYINT";
+			if (ct.getMin() >= Short.MIN_VALUE && ct.getMax() <= Short.MAX_VALUE)
+				return "SMALLINT";
+		} else if (cls == BigDecimal.class) {
+			int precision = Math.max(1, ct.getMaxIntDigits() + ct.getMaxScale());
+			if (ct.getMaxScale() <= MAX_COMPACT_SCALE && precision <= MAX_COMPACT_PRECISION)
+				return "DECIMAL(" + precision + "," + ct.getMaxScale() + ")";
+		} else if (cls == String.class) {
+			if (ct.getMinLen() == ct.getMaxLen() && ct.getMaxLen() <= MAX_CHAR_LEN)
+				return "CHAR(" + ct.getMaxLen() + ")";
+		}
+		return null;
+	}
+
+	/**
+	 * Wait for the other jobs sharing the DB to finish writing
+	 */
+	private void lockDb() {
+		if (writeLock != null)
+			writeLock.lock();
+	}
+
+	private void unlockDb() {
+		if (writeLock != null)
+			writeLock.unlock();
 	}
 
 	/**
@@ -834,25 +1301,64 @@ public class Sheets2DB extends CommonMethods {
 	 * @param fieldTypes
 	 * @param requiredFields
 	 * @param rowsData
+	 * @param rows            the rows of rowsData to insert
 	 * @param foreignKeys     keys to add
 	 * @param colOrder        holds the order the columns should be in
+	 * @param columnTypes     stats of the parsed columns for compactTypes or null
+	 * @param lookups         column to the lookup table ids of its values or null
+	 * @param lookup          true if tableName is a lookup table
 	 * @throws SQLException
 	 */
 	private void genTable(String tableName, String mainTable, Map<String, Integer> maxFieldLenghts,
-			Map<String, Class<?>> fieldTypes, List<String> requiredFields, Map<Integer, Map<String, Object>> rowsData,
-			Map<String, String> foreignKeys, Map<Integer, String> colOrder) throws SQLException {
-		log.debug("maxFieldLenghts:" + maxFieldLenghts.toString());
-		log.debug("fieldTypes:" + fieldTypes.toString());
-		log.debug("requiredFields:" + requiredFields.toString());
-		log.debug("rowsData:" + rowsData.toString());
+			Map<String, Class<?>> fieldTypes, List<String> requiredFields, ColumnTable rowsData,
+			BitSet rows, Map<String, String> foreignKeys, Map<Integer, String> colOrder,
+			Map<String, ColumnType> columnTypes, Map<String, Map<String, Long>> lookups, boolean lookup)
+			throws SQLException {
+		long start = System.nanoTime();
+		ImportStats.TabStats tabStats = stats.table(tableName);
+		// rowsData.toString() is the whole table so only build it if it will be used
+		if (log.isDebugEnabled()) {
+			log.debug("maxFieldLenghts:" + maxFieldLenghts.toString());
+			log.debug("fieldTypes:" + fieldTypes.toString());
+			log.debug("requiredFields:" + requiredFields.toString());
+			log.debug("rowsData:" + rowsData.toString());
+		}
 		String mainTableId = "_";
 		if (mainTable != null)
 			mainTableId = mainTable + "_Id";
+		// the keys added when parsing are typed for the DB parsed for which may be
+		// another target's
+		if (foreignKeys != null && !foreignKeys.isEmpty()) {
+			fieldTypes = new HashMap<>(fieldTypes);
+			for (String key : foreignKeys.keySet()) {
+				if (key.equals(USERID_COLUMN) || key.equals(mainTableId)
+						|| (lookups != null && lookups.containsKey(key)))
+					fieldTypes.put(key, db.getIdTypeCls());
+			}
+		}
 
 //		String colCreated = Utils.tabToStr(renames, (String) Utils.getProp(bundle, "col.created", null));
 //		String colLastMod = Utils.tabToStr(renames, (String) Utils.getProp(bundle, "col.lastMod", null));
 		String className = Utils.tabToStr(renames, tableName);
 		List<String> uniqueCols = Utils.getPropList(bundle, className + ".unique");
+		// field the sync matches rows on. If not set the id made from the sheet row
+		// is used.
+		String naturalKey = null;
+		if (sync.isEnabled()) {
+			naturalKey = Utils.getProp(bundle, className + ".naturalKey", null);
+			if (naturalKey != null && !colOrder.containsValue(naturalKey)) {
+				log.warn(className + ".naturalKey " + naturalKey + " is not a field of " + tableName
+						+ " using the row instead");
+				naturalKey = null;
+			}
+			// the UPSERT needs it to be unique
+			if (naturalKey != null && !uniqueCols.contains(naturalKey))
+				uniqueCols.add(naturalKey);
+			if (naturalKey != null)
+				naturalKeys.put(tableName, naturalKey);
+			else
+				naturalKeys.remove(tableName);
+		}
 
 		String schema = db.getPrefix();
 
@@ -906,11 +1412,19 @@ public class Sheets2DB extends CommonMethods {
 				sb.append(",\n`").append(fieldName).append("`\t");
 			else
 				sb.append(",\n").append(fieldName).append("\t");
-			if (cls.isAssignableFrom(String.class)) {
+			String compact = null;
+			if (compactTypes && columnTypes != null)
+				compact = compactType(columnTypes.get(name), cls);
+			if (compact != null && !cls.isAssignableFrom(String.class)) {
+				sb.append(compact);
+			} else if (cls.isAssignableFrom(String.class)) {
 				int len = maxFieldLenghts.get(name);
 				if (len == 0)
 					len = 20;
-				sb.append("VARCHAR(" + len + ")");
+				if (compact != null)
+					sb.append(compact);
+				else
+					sb.append("VARCHAR(" + len + ")");
 				if (db.isMySQL()) {
 					// work around bug in MySQL not returning correct len
 					sb.append(" COMMENT 'len=" + len + "'");
@@ -963,196 +1477,441 @@ public class Sheets2DB extends CommonMethods {
 			
 		} //--start
 		sb.append(");");
-		runSQL(sb.toString(), tableName + ".sql");
-		
+		String ddl = sb.toString();
+		String drop = "DROP TABLE IF EXISTS " + schema + tableName + ";";
+		// how far the run being resumed got with the table
+		RunManifest.TabState resumed = manifest == null ? null : manifest.get(tableName);
+		if (resumed != null && resumed.isDone()) {
+			log.info(tableName + " already loaded, skipping");
+			constraintSql.addAll(resumed.getConstraints());
+			return;
+		}
+		// rows up to here are already in the table. Synced tables are just synced
+		// again.
+		int resumeAfter = resumed == null || sync.isEnabled() ? 0 : resumed.getLastRow();
+		// when syncing the table and its rows are kept if the columns are the same
+		boolean keepTable = sync.isUnchanged(tableName, ddl);
+		if (keepTable) {
+			log.info(tableName + " columns unchanged, syncing rows");
+			// still saved so the scripts can rebuild the DB
+			saveScript(drop, tableName + ".drop.sql");
+			saveScript(ddl, tableName + ".sql");
+		} else if (resumeAfter > 0) {
+			log.info("Resuming " + tableName + " after row " + resumeAfter);
+		} else {
+			// a resumed or lookup table was not dropped in getSheet()
+			if (sync.isEnabled() || resumed != null || lookup)
+				runSQL(drop, tableName + ".drop.sql");
+			runSQL(ddl, tableName + ".sql");
+			sync.reset(tableName, ddl);
+		}
+		if (manifest != null && resumed == null)
+			manifest.started(tableName);
+		// constraints noted in the manifest so a resumed run still adds them
+		List<String> tableConstraints = new ArrayList<>();
+
 		if(!isSQLite()) {
-			StringBuilder constraints = new StringBuilder();
+			List<String> constraints = new ArrayList<>();
 			if (foreignKeys != null) {
 				for (String field : foreignKeys.keySet()) {
-					constraints.append("ALTER TABLE " + tableName);
 					String fieldName = Utils.tabToStr(renames, field);
-					constraints.append(
-	//						" ADD CONSTRAINT FK_" + tableName + "_" + fieldName + " FOREIGN KEY (" + fieldName + ")");
-							" ADD FOREIGN KEY (" + fieldName + ")");
 					String fkey = foreignKeys.get(field);
 					String[] split = fkey.split("\\s*\\.\\s*");
 					if (split.length == 2)
-						constraints.append(" REFERENCES " + split[0] + " (id);" + System.lineSeparator());
+						constraints.add("ALTER TABLE " + tableName
+	//						+ " ADD CONSTRAINT FK_" + tableName + "_" + fieldName + " FOREIGN KEY (" + fieldName + ")"
+								+ " ADD FOREIGN KEY (" + fieldName + ")" + " REFERENCES " + split[0] + " (id);");
 	//				" REFERENCES " + schema + split[0] + "(" + Utils.tabToStr(renames, split[1]) + ");\n");
 					else
 						throw new PatternSyntaxException(fkey + " is invalid syntax", "\\s*\\.\\s*", 0);
 				}
 			}
 			for (String fieldName : uniqueCols) {
-				constraints.append("ALTER TABLE " + tableName);
-				constraints.append(
-						" ADD CONSTRAINT UC_" + fieldName + " UNIQUE (" + fieldName + ");" + System.lineSeparator());
+				constraints.add("ALTER TABLE " + tableName + " ADD CONSTRAINT UC_" + fieldName + " UNIQUE ("
+						+ fieldName + ");");
+			}
+			if (!constraints.isEmpty()) {
+				// saved with the trailing blank line the old single println() left
+				saveFile(String.join(System.lineSeparator(), constraints) + System.lineSeparator(),
+						tableName + ".constraints.sql");
+				// a kept table still has them
+				if (!keepTable) {
+					constraintSql.addAll(constraints);
+					tableConstraints.addAll(constraints);
+				}
 			}
-			if (constraints.length() > 0)
-				saveFile(constraints.toString(), tableName + ".constraints.sql");
 		}
 		//--end
-		try {
-			Utils.deletePath(Utils.getPath(baseDir, SCRIPTS_FOLDER, tableName + ".data.sql"));
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
-
-		genInsert:
-		// import data gathered into DB
-		for (Integer rowId : rowsData.keySet()) {
-			Map<String, Object> row = rowsData.get(rowId);
-			sb = new StringBuilder("INSERT INTO " + schema + tableName + " (");
-			boolean addcom = false;
-			if (colCreated != null) {
-				sb.append(colCreated + ",");
+		scripts.delete(tableName + ".data.sql");
+
+		// columns bound on each insert in the order they will be passed to the sink
+		List<String> bindNames = new ArrayList<>();
+		List<Class<?>> bindTypes = new ArrayList<>();
+		String nowSql = nowSql();
+		StringBuilder insertCols = new StringBuilder();
+		StringBuilder insertParams = new StringBuilder();
+		// the same as lists for the sync UPSERT
+		List<String> syncCols = new ArrayList<>();
+		List<String> syncVals = new ArrayList<>();
+		if (colCreated != null) {
+			insertCols.append(colCreated).append(",");
+			insertParams.append(nowSql == null ? "?" : nowSql).append(",");
+			syncCols.add(colCreated);
+			syncVals.add(nowSql == null ? "?" : nowSql);
+			if (nowSql == null) {
+				bindNames.add(colCreated);
+				bindTypes.add(Long.class);
 			}
-			if (colLastMod != null) {
-				sb.append(colLastMod + ",");
+		}
+		if (colLastMod != null) {
+			insertCols.append(colLastMod).append(",");
+			insertParams.append(nowSql == null ? "?" : nowSql).append(",");
+			syncCols.add(colLastMod);
+			syncVals.add(nowSql == null ? "?" : nowSql);
+			if (nowSql == null) {
+				bindNames.add(colLastMod);
+				bindTypes.add(Long.class);
 			}
-			for (Integer colNum : colOrder.keySet()) {
-				String name = colOrder.get(colNum);
-				if (name.equals(ID_COLUMN) || name.equals(colCreated) || name.equals(colLastMod))
-					continue;
-
-				if (addcom) {
-					sb.append(", ");
-				} else {
-					addcom = true;
-				}
-				String fieldName = Utils.tabToStr(renames, (String) name);
-				if (db.isMySQL())
-					sb.append('`').append(fieldName).append('`');
-				else
-					sb.append(fieldName);
+		}
+		int firstField = bindNames.size();
+		boolean addcom = false;
+		for (Integer colNum : colOrder.keySet()) {
+			String name = colOrder.get(colNum);
+			if (name.equals(ID_COLUMN) || name.equals(colCreated) || name.equals(colLastMod))
+				continue;
 
+			if (addcom) {
+				insertCols.append(", ");
+				insertParams.append(", ");
+			} else {
+				addcom = true;
 			}
-			sb.append(") VALUES (");
-			addcom = false;
-			if (colCreated != null) {
-				if (isSQLite()) {
-					sb.append(System.currentTimeMillis()).append(",");
-				} else if (db.isMySQL()) {
-					sb.append("NOW(),");
-				} else if (db.isSqlserver()) {
-					sb.append("SYSDATETIME(),");
-				} else {
-					sb.append("NOW(),");
-				}
-			}
-			if (colLastMod != null) {
-				if (isSQLite()) {
-					sb.append(System.currentTimeMillis()).append(",");
-				} else if (db.isMySQL()) {
-					sb.append("NOW(),");
-				} else if (db.isSqlserver()) {
-					sb.append("SYSDATETIME(),");
-				} else {
-					sb.append("NOW(),");
-				}
-			}
-			for (Integer colNum : colOrder.keySet()) {
-				String name = colOrder.get(colNum);
-				if (name.equals(ID_COLUMN) || name.equals(colCreated) || name.equals(colLastMod))
-					continue;
+			String fieldName = Utils.tabToStr(renames, (String) name);
+			if (db.isMySQL())
+				insertCols.append('`').append(fieldName).append('`');
+			else
+				insertCols.append(fieldName);
+			insertParams.append("?");
+			syncCols.add(fieldName);
+			syncVals.add("?");
+			bindNames.add(name);
+			Class<?> cls = fieldTypes.get(name);
+			bindTypes.add(cls == null ? String.class : cls);
+		}
+		String insertSql = "INSERT INTO " + schema + tableName + " (" + insertCols + ") VALUES (" + insertParams
+				+ ")";
+
+		String literalHead = "INSERT INTO " + schema + tableName + " (" + insertCols + ") VALUES ";
+		int maxScriptRows = scriptRowLimit();
+		InsertScript tableScript = new InsertScript(scripts, tableName + ".data.sql", literalHead, maxScriptRows,
+				scriptMaxChars);
+		InsertScript dbScript = new InsertScript(scripts, getBundelName() + "DB.sql", literalHead, maxScriptRows,
+				scriptMaxChars);
+
+		// columns of the bound values and the ones set to the time for bulk loading
+		List<String> loadCols = new ArrayList<>();
+		List<String> nowCols = new ArrayList<>();
+		for (int i = 0; i < syncCols.size(); i++) {
+			if ("?".equals(syncVals.get(i)))
+				loadCols.add(syncCols.get(i));
+			else
+				nowCols.add(syncCols.get(i));
+		}
 
-				if (addcom) {
-					sb.append(", ");
-				} else {
-					addcom = true;
-				}
-				if (name.equals(USERID_COLUMN)) {
-					sb.append("1");
-					continue;
-				}
-				if (name.equals(mainTableId)) {
-					sb.append((rowId - 1));
-					continue;
+		RowSink sink;
+		DeltaSync.TableSync tableSync = null;
+		// index of the natural key in the bound values or -1 to use the row
+		int keyIdx = naturalKey == null ? -1 : bindNames.indexOf(naturalKey);
+		boolean identityInsert = false;
+		if (sync.isEnabled()) {
+			String keyCol;
+			if (keyIdx < 0) {
+				// the id is set from the sheet row the same way the user table's link to
+				// the main table is
+				keyCol = ID_COLUMN;
+				syncCols.add(ID_COLUMN);
+				syncVals.add("?");
+				bindTypes.add(Long.class);
+				identityInsert = db.isSqlserver();
+			} else {
+				keyCol = Utils.tabToStr(renames, naturalKey);
+			}
+			List<String> insertOnly = new ArrayList<>();
+			if (colCreated != null)
+				insertOnly.add(colCreated);
+			String upsertSql = sync.upsertSql(schema + tableName, syncCols, syncVals,
+					Collections.singletonList(keyCol), insertOnly);
+			tableSync = sync.begin(tableName, keyCol, keyIdx < 0);
+			if (identityInsert)
+				runSQL("SET IDENTITY_INSERT " + schema + tableName + " ON;", null);
+			sink = newSink(tableName, null, upsertSql, null, null, bindTypes.toArray(new Class<?>[0]));
+		} else {
+			sink = newSink(tableName, schema + tableName, insertSql, loadCols, nowCols,
+					bindTypes.toArray(new Class<?>[0]));
+		}
+		stats.add(tabStats, ImportStats.Phase.DDL, start);
+		start = System.nanoTime();
+		int skippedBefore = skipped;
+		int passedBefore = resumed == null ? 0 : resumed.getPassed();
+		int failedBefore = resumed == null ? 0 : resumed.getFailed();
+		int sinceCheckpoint = 0;
+		// a main table synced on a natural key keeps its ids when rows move so the
+		// link is looked up by the key instead of made from the sheet row
+		String mainKey = mainTable == null ? null : naturalKeys.get(mainTable);
+		Map<String, Long> mainIds = null;
+		if (mainKey != null)
+			mainIds = idsByKey(schema + mainTable, Utils.tabToStr(renames, mainKey));
+		ColumnTable.Cursor cursor = rowsData.cursor(rows);
+		try {
+			genInsert:
+			// import data gathered into DB
+			while (cursor.next()) {
+				int rowId = cursor.getRowId();
+				Object[] vals = new Object[bindNames.size()];
+				for (int i = 0; i < firstField; i++) {
+					vals[i] = System.currentTimeMillis();
 				}
-				Object val = row.get(name);
-				// Validate val is of expected type
-				Class<?> fieldCls = fieldTypes.get(name);
-				if (val != null && !fieldCls.isInstance(val)) {
-					// deal with numbers to be stored as Strings
-					if (fieldCls.isAssignableFrom(String.class)) {
-						val = val.toString();
-					} else if (val instanceof BigDecimal) {
-						if (fieldCls.isAssignableFrom(Integer.class)) {
-							((BigDecimal) val).intValue();
-							log.warn("rowId:" + rowId + " converting (" + val + ") for " + name + ": to Integer");
-						} else if (fieldCls.isAssignableFrom(Long.class)) {
-							((BigDecimal) val).longValue();
-							log.warn("rowId:" + rowId + " converting (" + val + ") for " + name + ": to Long");
+				int v = firstField;
+				for (Integer colNum : colOrder.keySet()) {
+					String name = colOrder.get(colNum);
+					if (name.equals(ID_COLUMN) || name.equals(colCreated) || name.equals(colLastMod))
+						continue;
+
+					if (name.equals(USERID_COLUMN)) {
+						vals[v++] = 1l;
+						continue;
+					}
+					if (name.equals(mainTableId)) {
+						if (mainIds == null) {
+							vals[v++] = (long) (rowId - 1);
 						} else {
+							Object key = cursor.get(mainKey);
+							vals[v++] = key == null ? null : idVal(mainIds.get(key.toString()));
+						}
+						continue;
+					}
+					Object val = cursor.get(name);
+					if (lookups != null && val != null && lookups.containsKey(name))
+						val = idVal(lookups.get(name).get(val.toString()));
+					// Validate val is of expected type
+					Class<?> fieldCls = fieldTypes.get(name);
+					if (val != null && !fieldCls.isInstance(val)) {
+						// values from before the column type was widened
+						Object widened = ColumnType.widenVal(val, fieldCls);
+						tabStats.converted(name);
+						if (widened != null) {
+							val = widened;
+						} else if (val instanceof BigDecimal) {
+							if (fieldCls.isAssignableFrom(Integer.class)) {
+								log.warn("rowId:" + rowId + " converting (" + val + ") for " + name + ": to Integer");
+								val = ((BigDecimal) val).intValue();
+							} else if (fieldCls.isAssignableFrom(Long.class)) {
+								log.warn("rowId:" + rowId + " converting (" + val + ") for " + name + ": to Long");
+								val = ((BigDecimal) val).longValue();
+							} else {
+								log.warn("rowId:" + rowId + " has bad value (" + val + ") is the wrong class:"
+										+ val.getClass().getCanonicalName() + " for " + name + ":"
+										+ fieldCls.getCanonicalName() + " setting to null");
+								val = null;
+							}
+						} else if (!fieldCls.isAssignableFrom(val.getClass())) {
+							// Deal with other random things like - denoting an empty date field that can go
+							// into the DB but then case and Exception when Hibernate reads it.
 							log.warn("rowId:" + rowId + " has bad value (" + val + ") is the wrong class:"
 									+ val.getClass().getCanonicalName() + " for " + name + ":"
 									+ fieldCls.getCanonicalName() + " setting to null");
 							val = null;
 						}
-					} else if (!fieldCls.isAssignableFrom(val.getClass())) {
-						// Deal with other random things like - denoting an empty date field that can go
-						// into the DB but then case and Exception when Hibernate reads it.
-						log.warn("rowId:" + rowId + " has bad value (" + val + ") is the wrong class:"
-								+ val.getClass().getCanonicalName() + " for " + name + ":" + fieldCls.getCanonicalName()
-								+ " setting to null");
-						val = null;
 					}
-				}
-				// skip row
-				if (val == null && requiredFields.contains(name)) {
-					log.warn("Skipping due to missing required data:" + row);
-					skipped++;
-					continue genInsert;
-				}
-				if (val instanceof String) {
-					if (StringUtils.isBlank((String) val) && requiredFields.contains(name)) {
-						log.warn("Skipping due to missing required data:" + row);
+					// skip row
+					if (requiredFields.contains(name)
+							&& (val == null || (val instanceof String && StringUtils.isBlank((String) val)))) {
+						log.warn("Skipping due to missing required data:" + cursor);
 						skipped++;
 						continue genInsert;
 					}
-					sb.append("'").append(((String) val).replace("'", "'\'")).append("'");
-				} else if (val instanceof Boolean) {
-					if (isSQLite()) {
-						if (((Boolean) val)) {
-							sb.append("1");
-						} else {
-							sb.append("0");
-						}
-					} else {
-						if (((Boolean) val)) {
-							sb.append("TRUE");
-						} else {
-							sb.append("FALSE");
-						}
-					}
-				} else if (val instanceof Date) {
-					if (isSQLite()) {
-						sb.append(((Date) val).getTime());
+					vals[v++] = val;
+				}
+				String key = null;
+				if (tableSync != null) {
+					if (keyIdx < 0) {
+						key = Long.toString(rowId - 1);
+					} else if (vals[keyIdx] == null) {
+						log.warn("Skipping due to missing natural key:" + cursor);
+						skipped++;
+						continue;
 					} else {
-						sb.append("'").append(sdfDB_DATETIME.format(((Date) val).getTime())).append("'");
+						key = vals[keyIdx].toString();
 					}
-				} else if (val instanceof Time) {
-					if (isSQLite()) {
-						sb.append(((Time) val).getTime());
-					} else {
-						sb.append("'").append(sdfTIME_ONLY24S.format(((Time) val).getTime())).append("'");
+				}
+				if (scripts.isEnabled()) {
+					String values = insertValues(vals, firstField);
+					tableScript.add(values);
+					// the run being resumed already added the rows it loaded
+					if (rowId > resumeAfter)
+						dbScript.add(values);
+				}
+				if (rowId <= resumeAfter)
+					continue;
+				if (tableSync != null) {
+					if (!tableSync.isChanged(rowId, key, DeltaSync.hash(vals, firstField)))
+						continue;
+					if (keyIdx < 0) {
+						vals = Arrays.copyOf(vals, vals.length + 1);
+						vals[vals.length - 1] = (long) (rowId - 1);
 					}
-				} else {
-					sb.append(val);
+				}
+				sink.addRow(rowId, vals);
+				// a synced table is synced again in full so is not checkpointed
+				if (manifest != null && checkpointRows > 0 && tableSync == null
+						&& ++sinceCheckpoint >= checkpointRows) {
+					sink.checkpoint();
+					tableScript.flush();
+					dbScript.flush();
+					scripts.flush();
+					manifest.committed(tableName, sink.getCommittedRowId(), passedBefore + sink.getPassed(),
+							failedBefore + sink.getFailed());
+					sinceCheckpoint = 0;
 				}
 			}
-			sb.append(");");
+		} finally {
+			cursor.close();
+			boolean closed = false;
 			try {
-				runSQL(sb.toString(), tableName + ".data.sql");
-				passed++;
-			} catch (SQLException e) {
-				if (failOnAnyError) {
-					throw e;
+				sink.close();
+				closed = true;
+			} finally {
+				if (identityInsert)
+					runSQL("SET IDENTITY_INSERT " + schema + tableName + " OFF;", null);
+				// if the commit failed the last checkpoint is still where to resume
+				if (manifest != null && closed)
+					manifest.committed(tableName, Math.max(resumeAfter, sink.getCommittedRowId()),
+							passedBefore + sink.getPassed(), failedBefore + sink.getFailed());
+			}
+			passed += sink.getPassed();
+			failed += sink.getFailed();
+			tableScript.flush();
+			dbScript.flush();
+			scripts.flush();
+			stats.add(tabStats, ImportStats.Phase.INSERT, start);
+			stats.written(tabStats, sink.getPassed(), sink.getFailed(), skipped - skippedBefore);
+		}
+		if (tableSync != null) {
+			tableSync.finish(sink.getFailedRowIds());
+			unchanged += tableSync.getUnchanged();
+			deleted += tableSync.getDeleted();
+			log.info(tableName + " synced " + sink.getPassed() + " changed rows, " + tableSync.getUnchanged()
+					+ " unchanged, " + tableSync.getDeleted() + " deleted");
+		}
+		if (manifest != null)
+			manifest.done(tableName, tableConstraints);
+	}
+
+	/**
+	 * 
+	 * @return most rows per INSERT saved to the scripts the DB can take
+	 */
+	private int scriptRowLimit() {
+		// a VALUES list is limited to 1000 rows
+		if (db.isSqlserver())
+			return Math.min(scriptRows, 1000);
+		// treated as a compound SELECT limited to 500 before 3.8.8
+		if (isSQLite())
+			return Math.min(scriptRows, 500);
+		return scriptRows;
+	}
+
+	/**
+	 * Build the literal VALUES saved to the scripts for a row.
+	 * 
+	 * @param vals       the values bound for the row
+	 * @param firstField index of the first field after the created / lastMod
+	 *                   times
+	 * @return the values as (a, b, ...)
+	 */
+	private String insertValues(Object[] vals, int firstField) {
+		StringBuilder sb = new StringBuilder("(");
+		String nowSql = nowSql();
+		if (colCreated != null) {
+			sb.append(nowSql == null ? System.currentTimeMillis() : nowSql).append(",");
+		}
+		if (colLastMod != null) {
+			sb.append(nowSql == null ? System.currentTimeMillis() : nowSql).append(",");
+		}
+		for (int i = firstField; i < vals.length; i++) {
+			if (i > firstField)
+				sb.append(", ");
+			Object val = vals[i];
+			if (val instanceof String) {
+				sb.append("'").append(((String) val).replace("'", "''")).append("'");
+			} else if (val instanceof Boolean) {
+				if (isSQLite()) {
+					sb.append(((Boolean) val) ? "1" : "0");
+				} else {
+					sb.append(((Boolean) val) ? "TRUE" : "FALSE");
+				}
+			} else if (val instanceof Time) {
+				if (isSQLite()) {
+					sb.append(((Time) val).getTime());
+				} else {
+					sb.append("'").append(dateClassifier.formatTime(((Time) val).getTime())).append("'");
 				}
-				failed++;
+			} else if (val instanceof Date) {
+				if (isSQLite()) {
+					sb.append(((Date) val).getTime());
+				} else {
+					sb.append("'").append(dateClassifier.formatDateTime(((Date) val).getTime())).append("'");
+				}
+			} else {
+				sb.append(val);
 			}
 		}
+		sb.append(")");
+		return sb.toString();
+	}
 
+	/**
+	 * Get the fastest way to write a table's rows this DB has. Falls back to
+	 * batched INSERTs if genSpring.bulkLoad is false or there is no bulk loader
+	 * for the DB.
+	 * 
+	 * @param tableName name for logging
+	 * @param table     table to load with the schema prefix. null if sql is not a
+	 *                  plain INSERT which only SQLite can speed up.
+	 * @param sql       statement to run for each row
+	 * @param cols      column of each bound value
+	 * @param nowCols   columns sql sets to the current time
+	 * @param types     field class of each bound value
+	 * @return RowSink
+	 * @throws SQLException
+	 */
+	private RowSink newSink(String tableName, String table, String sql, List<String> cols, List<String> nowCols,
+			Class<?>[] types) throws SQLException {
+		if (bulkLoad) {
+			if (isSQLite())
+				return new SQLiteBulkInserter(db, tableName, sql, types, batchSize, failOnAnyError);
+			if (table != null && db.isMySQL())
+				return new MySqlBulkInserter(db, tableName, table, cols, nowCols, sql, types, batchSize,
+						failOnAnyError);
+			if (table != null && db.isSqlserver())
+				return new SqlServerBulkInserter(db, tableName, table, cols, nowCols, sql, types, batchSize,
+						failOnAnyError);
+		}
+		return new BatchInserter(db, tableName, sql, types, batchSize, failOnAnyError);
+	}
+
+	/**
+	 * 
+	 * @return SQL function to use for the created / lastMod columns or null if the
+	 *         current time should be bound as a number (SQLite)
+	 */
+	private String nowSql() {
+		if (isSQLite()) {
+			return null;
+		} else if (db.isSqlserver()) {
+			return "SYSDATETIME()";
+		}
+		return "NOW()";
 	}
 
 	/**
@@ -1205,26 +1964,28 @@ public class Sheets2DB extends CommonMethods {
 		requiredFields.add(PASSWORD_COLUMN);
 		requiredFields.add(ROLE_COLUMN);
 		// holds the actual data
-		Map<Integer, Map<String, Object>> rowsData = new HashMap<Integer, Map<String, Object>>();
-		Map<String, Object> rowMap = new HashMap<String, Object>();
-
-		rowMap.put(EMAIL_COLUMN, TEST_EMAIL);
-		rowMap.put(DISPLAY_NAME_COLUMN, TEST_USER);
-		rowMap.put(PASSWORD_COLUMN, TEST_PASS);
-		rowMap.put(ROLE_COLUMN, TEST_ROLE);
-		rowsData.put(1, rowMap);
-
-		rowMap = new HashMap<String, Object>();
-		rowMap.put(EMAIL_COLUMN, ADMIN_EMAIL);
-		rowMap.put(DISPLAY_NAME_COLUMN, ADMIN_USER);
-		rowMap.put(PASSWORD_COLUMN, ADMIN_PASS);
-		rowMap.put(ROLE_COLUMN, ADMIN_ROLE);
-		rowsData.put(2, rowMap);
+		// numbered like sheet rows under a header row so a sync gives them the ids 1
+		// and 2
+		ColumnTable rowsData = new ColumnTable();
+		int row = rowsData.addRow(2);
+		rowsData.set(row, EMAIL_COLUMN, TEST_EMAIL);
+		rowsData.set(row, DISPLAY_NAME_COLUMN, TEST_USER);
+		rowsData.set(row, PASSWORD_COLUMN, TEST_PASS);
+		rowsData.set(row, ROLE_COLUMN, TEST_ROLE);
+
+		row = rowsData.addRow(3);
+		rowsData.set(row, EMAIL_COLUMN, ADMIN_EMAIL);
+		rowsData.set(row, DISPLAY_NAME_COLUMN, ADMIN_USER);
+		rowsData.set(row, PASSWORD_COLUMN, ADMIN_PASS);
+		rowsData.set(row, ROLE_COLUMN, ADMIN_ROLE);
 
 		log.debug("Creating account table");
 
-		runSQL("DROP TABLE IF EXISTS " + db.getPrefix() + ACCOUNT_TABLE + ";", ACCOUNT_TABLE + ".drop.sql");
-		genTable(ACCOUNT_TABLE, "", maxFieldLenghts, fieldTypes, requiredFields, rowsData, null, colOrder);
+		// when syncing or resuming genTable() drops it if needed
+		if (!sync.isEnabled() && !isResumed(ACCOUNT_TABLE))
+			runSQL("DROP TABLE IF EXISTS " + db.getPrefix() + ACCOUNT_TABLE + ";", ACCOUNT_TABLE + ".drop.sql");
+		genTable(ACCOUNT_TABLE, "", maxFieldLenghts, fieldTypes, requiredFields, rowsData, rowsData.allRows(), null,
+				colOrder, null, null, false);
 
 	}
 //-- added start
@@ -1235,27 +1996,26 @@ public class Sheets2DB extends CommonMethods {
 	 * @param saveFile
 	 */
 	private void saveFile(String content, String saveFile) {
-		Path p = Utils.getPath(baseDir, SCRIPTS_FOLDER, saveFile);
-		if (!p.toFile().exists()) {
-			try {
-				Files.createDirectories(p.getParent());
-			} catch (IOException e) {
-				log.warn(e.getMessage());
-			}
-		}
-		try (PrintStream ps = new PrintStream(new FileOutputStream(p.toFile(), true))) {
-			ps.println(content);
-			log.warn("Wrote:" + p.toString());
-		} catch (Exception e) {
-			log.error("failed to create " + p, e);
-			p.toFile().delete();
-		}
+		scripts.println(saveFile, content);
+	}
 
+	/**
+	 * Save sql to saveFile and the full DB script like runSQL() does without
+	 * running it
+	 * 
+	 * @param sql
+	 * @param saveFile
+	 */
+	private void saveScript(String sql, String saveFile) {
+		saveFile(sql, saveFile);
+		saveFile(sql, getBundelName() + "DB.sql");
 	}
 //-- added end
 	/**
 	 * Since we are recreating the table each time, do each call without
-	 * transactions so we can see any trouble rows that might exist in one go.
+	 * transactions so we can see any trouble rows that might exist in one go. Uses
+	 * the run's session connection and if that connection was lost reconnects and
+	 * tries the statement once more.
 	 * 
 	 * @param sql
 	 * @param saveFile file to save sql to
@@ -1267,90 +2027,316 @@ public class Sheets2DB extends CommonMethods {
 		}
 		log.debug("Running:" + sql);
 		boolean rtn = false;
+		boolean retried = false;
+		while (true) {
+			try {
+				if (!retried && !StringUtils.isBlank(saveFile)) {
+					saveFile(sql, saveFile);
+					saveFile(sql, getBundelName() + "DB.sql");
+				}
+				Connection conn = db.getConnection(getClass().getSimpleName() + ".runSQL()");
+				try (Statement stmt = conn.createStatement()) {
+					rtn = stmt.execute(sql);
+					if (sql.startsWith("INSERT")) {
+						int cnt = stmt.getUpdateCount();
+						rtn = (cnt == 1);
+						log.trace("SQL return was" + cnt);
+					}
+				}
+				return rtn;
+			} catch (SQLException e) {
+				if (!retried && Db.isConnectionError(e)) {
+					log.warn("Lost connection running:" + sql + " reconnecting");
+					db.reconnect(getClass().getSimpleName() + ".runSQL()");
+					retried = true;
+					continue;
+				}
+				log.warn(e.getMessage());
+				log.warn(sql);
+				throw e;
+			} finally {
+				db.close(getClass().getSimpleName() + ".runSQL()");
+			}
+		}
+	}
+
+	/**
+	 * Parse the tabs in parallel on up to parallelTabs threads. The tabs are
+	 * fetched together first the same as the serial path so a Google sheet is
+	 * still one call per render option, windowed and file tabs are read on the
+	 * parsing threads. The DB writes are still done one at a time on this thread
+	 * in FK order: the main tables in tab order as each is ready, then their user
+	 * tables. Each table's rows are freed once it and any user table sharing them
+	 * are written. Note the Account table is expected to have been created
+	 * already.
+	 * 
+	 * @param source where to get the tabs' data from
+	 * @param sheets tabs to export
+	 * @throws Exception
+	 */
+	private void exportTabs(final TabularSource source, List<Sheet> sheets) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelTabs, sheets.size()),
+				new ThreadFactory() {
+					private int cnt = 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "exportTab-" + (++cnt));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		// parsed but not released yet so the spill files can be cleaned up
+		List<TableData> heldTables = new ArrayList<>();
+		List<TableData> userTables = new ArrayList<>();
 		try {
-			if (!StringUtils.isBlank(saveFile)) {
-				saveFile(sql, saveFile);
-				saveFile(sql, getBundelName() + "DB.sql");
+			List<String> tabNames = new ArrayList<>();
+			for (Sheet sheet : sheets) {
+				tabNames.add(sheet.getProperties().getTitle());
 			}
-			Connection conn = db.getConnection(getClass().getSimpleName() + ".runSQL()");
-			Statement stmt = conn.createStatement();
-			rtn = stmt.execute(sql);
-			if (sql.startsWith("INSERT")) {
-				int cnt = stmt.getUpdateCount();
-				rtn = (cnt == 1);
-				log.trace("SQL return was" + cnt);
+			Map<String, SheetFetcher.TabValues> fetched = new HashMap<>();
+			long start = System.nanoTime();
+			try {
+				fetched = source.fetch(tabNames);
+				stats.add(ImportStats.Phase.FETCH, start);
+			} catch (IOException e) {
+				log.error("Failed to get field data for " + tabNames, e);
+				if (failOnAnyError) {
+					throw e;
+				}
+			}
+			final Map<String, SheetFetcher.TabValues> tabData = fetched;
+			List<Future<List<TableData>>> parsed = new ArrayList<>();
+			for (final Sheet sheet : sheets) {
+				parsed.add(pool.submit(new Callable<List<TableData>>() {
+					@Override
+					public List<TableData> call() throws Exception {
+						SheetFetcher.TabValues data = tabData.get(sheet.getProperties().getTitle());
+						try {
+							return parseTab(sheet, data);
+						} finally {
+							closeTab(sheet, data);
+						}
+					}
+				}));
+			}
+
+			for (int i = 0; i < sheets.size(); i++) {
+				List<TableData> tables;
+				try {
+					tables = parsed.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					log.error("Failed to export tab " + sheets.get(i).getProperties().getTitle(), cause);
+					if (failOnAnyError) {
+						if (cause instanceof Exception)
+							throw (Exception) cause;
+						throw e;
+					}
+					continue;
+				}
+				heldTables.addAll(tables);
+				List<TableData> written = new ArrayList<>();
+				for (TableData table : tables) {
+					if (table.isUserTable()) {
+						userTables.add(table);
+					} else {
+						writeTable(table);
+						written.add(table);
+					}
+				}
+				// a main table's rows are kept for its user table
+				for (TableData table : userTables) {
+					written.remove(mainTableOf(table, tables));
+				}
+				release(written);
+				heldTables.removeAll(written);
+			}
+			for (TableData table : userTables) {
+				writeTable(table);
+				List<TableData> written = new ArrayList<>();
+				written.add(table);
+				TableData main = mainTableOf(table, heldTables);
+				if (main != null)
+					written.add(main);
+				release(written);
+				heldTables.removeAll(written);
 			}
-		} catch (SQLException e) {
-			log.warn(e.getMessage());
-			log.warn(sql);
-			throw e;
 		} finally {
-			db.close(getClass().getSimpleName() + ".runSQL()");
+			pool.shutdownNow();
+			release(heldTables);
 		}
-		return rtn;
+	}
+
+	/**
+	 * 
+	 * @param userTable
+	 * @param tables    tables to look in
+	 * @return the main table of userTable in tables or null if not there
+	 */
+	private TableData mainTableOf(TableData userTable, List<TableData> tables) {
+		for (TableData table : tables) {
+			if (!table.isUserTable() && table.getTableName().equals(userTable.getMainTable()))
+				return table;
+		}
+		return null;
+	}
+
+	/**
+	 * Save the run's stats as JSON
+	 * 
+	 * @param file
+	 */
+	private void writeStats(Path file) {
+		try {
+			Files.createDirectories(file.getParent());
+			Files.write(file, JSON_FACTORY.toPrettyString(stats.toMap()).getBytes(StandardCharsets.UTF_8));
+			System.out.println("Run stats saved to " + file);
+		} catch (IOException e) {
+			log.warn("Failed to save stats to " + file, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param tableName
+	 * @return true if the run being resumed got to tableName
+	 */
+	private boolean isResumed(String tableName) {
+		return manifest != null && manifest.get(tableName) != null;
+	}
+
+	/**
+	 * 
+	 * @return genSpring.source if set else genSpring.id
+	 */
+	private String sourceName() {
+		String path = Utils.getProp(bundle, PROPKEY + ".source", null);
+		if (!StringUtils.isBlank(path))
+			return path;
+		return Utils.getProp(bundle, PROPKEY + ".id", "");
+	}
+
+	/**
+	 * 
+	 * @return the local files in genSpring.source if set else the Google sheet
+	 *         in genSpring.id
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	TabularSource openSource() throws IOException, GeneralSecurityException {
+		String path = Utils.getProp(bundle, PROPKEY + ".source", null);
+		if (!StringUtils.isBlank(path)) {
+			String delimiter = Utils.getProp(bundle, PROPKEY + ".csvDelimiter", ",");
+			log.info("Reading tabs from " + path);
+			return new FileSource(Utils.getPath(path), delimiter.charAt(0), stats.getBytesCounter());
+		}
+
+		// https://docs.google.com/spreadsheets/d/1-xYv1AVkUC5J3Tqpy2_3alZ5ZpBPnnO2vUGUCUeLVVE/edit?usp=sharing
+		String spreadsheetId = Utils.getProp(bundle, PROPKEY + ".id");
+		Sheets service = sharedService;
+		if (service == null) {
+			// replaying the cache does not call Google so needs no credentials
+			service = newService(cache == null || !cache.isReplay(), cache != null && cache.isCheckRevision(),
+					requestsPerMinute, maxRetries, stats.getThrottledCounter(), stats.getRetryCounter());
+		}
+		return new GoogleSource(service, spreadsheetId, stats.getBytesCounter(), fetchWindow, cache);
+	}
+
+	/**
+	 * Build a new authorized API client service. Every call made through it is
+	 * rate limited and retried by an ApiThrottle.
+	 * 
+	 * @param authorize         false to skip getting credentials
+	 * @param driveMetadata     true if the Drive scope the cache uses to check
+	 *                          revisions is needed too
+	 * @param requestsPerMinute shared by all the calls made with it. 0 for no
+	 *                          limit.
+	 * @param maxRetries
+	 * @param throttledNanos    added to with the time spent waiting
+	 * @param retries           added to with each retry
+	 * @return the service
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	static Sheets newService(boolean authorize, boolean driveMetadata, int requestsPerMinute, int maxRetries,
+			AtomicLong throttledNanos, AtomicLong retries) throws IOException, GeneralSecurityException {
+		final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
+		Credential credential = null;
+		if (authorize)
+			credential = getCredentials(HTTP_TRANSPORT, driveMetadata ? CACHE_SCOPES : SCOPES);
+		// one bucket for all the calls including the parallel tabs
+		TokenBucket bucket = requestsPerMinute > 0 ? new TokenBucket(requestsPerMinute, requestsPerMinute) : null;
+		ApiThrottle throttle = new ApiThrottle(credential, bucket, maxRetries, throttledNanos, retries);
+		return new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, throttle).setApplicationName(APPLICATION_NAME)
+				.build();
 	}
 
 	public void getSheet() throws Exception {
-		String outdir = Utils.getProp(bundle, GenSpring.PROPKEY + ".outdir", ".");
-		Utils.deletePath(Utils.getPath(outdir, SCRIPTS_FOLDER));
+		startRun();
+		for (Sheets2DB target : targets) {
+			target.startRun();
+		}
 
 		List<String> tabs = null;
+		TabularSource source = null;
+		if (!targets.isEmpty()) {
+			targetPool = Executors.newFixedThreadPool(targets.size(), new ThreadFactory() {
+				private int cnt = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "writeTarget-" + (++cnt));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
 		try {
-			String schema = db.getPrefix();
+			// one connection for the whole run instead of one per statement
+			db.beginSession(getClass().getSimpleName() + ".getSheet()");
 
-			// Build a new authorized API client service.
-			final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-			// https://docs.google.com/spreadsheets/d/1-xYv1AVkUC5J3Tqpy2_3alZ5ZpBPnnO2vUGUCUeLVVE/edit?usp=sharing
-			final String spreadsheetId = Utils.getProp(bundle, PROPKEY + ".id");
 			tabs = Utils.getPropList(bundle, PROPKEY + ".tabs");
-
-			Sheets service = new Sheets.Builder(HTTP_TRANSPORT, JSON_FACTORY, getCredentials(HTTP_TRANSPORT))
-					.setApplicationName(APPLICATION_NAME).build();
-			Spreadsheet spreadsheet = service.spreadsheets().get(spreadsheetId).execute();
-			List<Sheet> sheets = spreadsheet.getSheets();
-			if(!isSQLite()) {
-				runSQL("SET GLOBAL FOREIGN_KEY_CHECKS=0;", null); //--added
-			}
-			
-			// clear DB in reverse order to deal with constraints
-			for (Sheet sheet : sheets) {
-				SheetProperties p = sheet.getProperties();
-				String tableName = Utils.tabToStr(renames, p.getTitle());
-				if (tabs.contains(tableName) || tabs.contains(p.getTitle())) {
-					List<Integer> userColNums = strToCols(Utils.getProp(bundle, tableName + ".user"));
-					if (!userColNums.isEmpty()) {
-						runSQL("DROP TABLE IF EXISTS " + schema + tableName + "User;", tableName + "User.drop.sql");
-					}
-					runSQL("DROP TABLE IF EXISTS " + schema + tableName + ";", tableName + ".drop.sql");
-				}
+			source = openSource();
+			List<Sheet> sheets = source.getTabs();
+			reserveTables(sheets);
+			prepareDb(sheets, tabs);
+			for (Sheets2DB target : targets) {
+				target.prepareTarget(sheets, tabs);
 			}
 
-			addAccountTable();
-
+			List<Sheet> selected = new ArrayList<>();
+			List<String> tabNames = new ArrayList<>();
 			for (Sheet sheet : sheets) {
 				SheetProperties p = sheet.getProperties();
 				String tableName = Utils.tabToStr(renames, p.getTitle());
 				if (tabs.contains(tableName) || tabs.contains(p.getTitle())) {
-					exportTab(service, spreadsheetId, sheet);
+					selected.add(sheet);
+					tabNames.add(p.getTitle());
 				}
 			}
-//--added start 
-			// check to see if we have constraints to add
-			Path p = Utils.getPath(baseDir, SCRIPTS_FOLDER);
-			File dir = p.toFile();
-			File[] files = dir.listFiles(new FilenameFilter() {
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.endsWith(".constraints.sql");
+			if (parallelTabs > 1 && selected.size() > 1) {
+				exportTabs(source, selected);
+			} else {
+				// get the values and formulas for all the tabs at once
+				Map<String, SheetFetcher.TabValues> tabData = new HashMap<>();
+				long start = System.nanoTime();
+				try {
+					tabData = source.fetch(tabNames);
+					stats.add(ImportStats.Phase.FETCH, start);
+				} catch (IOException e) {
+					log.error("Failed to get field data for " + tabNames, e);
+					if (failOnAnyError) {
+						throw e;
+					}
 				}
-			});
-
-			for (File sqlfile : files) {
-				List<String> lines = Files.readAllLines(sqlfile.toPath());
-				for (String line : lines)
-					runSQL(line, null);
-
-				// runSQL(new String(Files.readAllBytes(sqlfile.toPath())), null);
+				for (Sheet sheet : selected) {
+					exportTab(sheet, tabData.get(sheet.getProperties().getTitle()));
+				}
+			}
+			finishDb();
+			for (Sheets2DB target : targets) {
+				target.finishTarget();
 			}
 		} catch (TokenResponseException e) {
 			log.error("Failed to get to export sheet ", e.getDetails());
@@ -1363,11 +2349,294 @@ public class Sheets2DB extends CommonMethods {
 			if (failOnAnyError) {
 				throw e;
 			}
+		} finally {
+			if (source != null)
+				source.close();
+			if (targetPool != null) {
+				targetPool.shutdownNow();
+				targetPool = null;
+			}
+			endRun();
+			for (Sheets2DB target : targets) {
+				target.endRun();
+			}
+		}
+		report(tabs);
+		for (Sheets2DB target : targets) {
+			target.report(tabs);
 		}
+	}
 
-		System.out.println("Inserted " + passed + " records into " + tabs);
+	/**
+	 * Set up the run manifest and stats for a getSheet() run
+	 * 
+	 * @throws IOException
+	 */
+	private void startRun() throws IOException {
+		scripts.close();
+		Path manifestFile = scripts.getFolder().resolve(RunManifest.FILE);
+		manifest = resume ? RunManifest.load(manifestFile) : null;
+		String sourceName = sourceName();
+		if (manifest != null && manifest.isComplete()) {
+			log.warn("The run in " + manifestFile + " finished so starting a new one");
+			manifest = null;
+		} else if (manifest != null && !sourceName.equals(manifest.getSource())) {
+			log.warn("The run in " + manifestFile + " was for " + manifest.getSource() + " not " + sourceName
+					+ " so starting a new one");
+			manifest = null;
+		} else if (resume && manifest == null) {
+			log.warn("No run to resume in " + manifestFile + " so starting a new one");
+		}
+		if (manifest == null) {
+			Utils.deletePath(scripts.getFolder());
+			manifest = new RunManifest(manifestFile, sourceName);
+		} else {
+			log.info("Resuming the run in " + manifestFile);
+		}
+		constraintSql.clear();
+		complete = false;
+		targetFailed = false;
+
+		stats = new ImportStats();
+		if (targetName == null)
+			stats.register(jobName);
+		else
+			stats.register(jobName == null ? targetName : jobName + "." + targetName);
+	}
+
+	/**
+	 * Drop the tables about to be loaded and add the Account table
+	 * 
+	 * @param sheets all the tabs
+	 * @param tabs   the ones to load
+	 * @throws Exception
+	 */
+	private void prepareDb(List<Sheet> sheets, List<String> tabs) throws Exception {
+		String schema = db.getPrefix();
+		if(!isSQLite()) {
+			runSQL("SET GLOBAL FOREIGN_KEY_CHECKS=0;", null); //--added
+		}
+		
+		// clear DB in reverse order to deal with constraints. When syncing
+		// genTable() drops the ones that changed instead.
+		lockDb();
+		try {
+			for (Sheet sheet : sheets) {
+				SheetProperties p = sheet.getProperties();
+				String tableName = Utils.tabToStr(renames, p.getTitle());
+				if (!sync.isEnabled() && (tabs.contains(tableName) || tabs.contains(p.getTitle()))) {
+					// tables the run being resumed got to are left for genTable()
+					List<Integer> userColNums = strToCols(Utils.getProp(bundle, tableName + ".user"));
+					if (!userColNums.isEmpty() && !isResumed(tableName + "User")) {
+						runSQL("DROP TABLE IF EXISTS " + schema + tableName + "User;", tableName + "User.drop.sql");
+					}
+					if (!isResumed(tableName))
+						runSQL("DROP TABLE IF EXISTS " + schema + tableName + ";", tableName + ".drop.sql");
+				}
+			}
+
+			addAccountTable();
+		} finally {
+			unlockDb();
+		}
+	}
+
+	/**
+	 * Add the constraints now all the tables are loaded
+	 * 
+	 * @throws SQLException
+	 */
+	private void finishDb() throws SQLException {
+//--added start 
+		long start = System.nanoTime();
+		lockDb();
+		try {
+			for (String sql : constraintSql) {
+				runSQL(sql, null);
+			}
+		} finally {
+			unlockDb();
+		}
+		stats.add(ImportStats.Phase.CONSTRAINTS, start);
+		manifest.complete();
+		complete = true;
+	}
+
+	/**
+	 * prepareDb() for a target
+	 * 
+	 * @param sheets
+	 * @param tabs
+	 * @throws Exception if failOnAnyError
+	 */
+	private void prepareTarget(List<Sheet> sheets, List<String> tabs) throws Exception {
+		try {
+			db.beginSession(getClass().getSimpleName() + ".getSheet()");
+			prepareDb(sheets, tabs);
+		} catch (Exception e) {
+			targetError(e);
+		}
+	}
+
+	/**
+	 * finishDb() for a target
+	 * 
+	 * @throws Exception if failOnAnyError
+	 */
+	private void finishTarget() throws Exception {
+		if (targetFailed)
+			return;
+		try {
+			finishDb();
+		} catch (Exception e) {
+			targetError(e);
+		}
+	}
+
+	/**
+	 * Close the scripts and session at the end of a getSheet() run and save the
+	 * stats
+	 */
+	private void endRun() {
+		scripts.close();
+		db.endSession(getClass().getSimpleName() + ".getSheet()");
+		stats.unregister();
+		manifest = null;
+		if (statsReport) {
+			writeStats(scripts.getFolder().resolve(STATS_FILE));
+		}
+	}
+
+	/**
+	 * Print the counts of the last run
+	 * 
+	 * @param tabs
+	 */
+	private void report(List<String> tabs) {
+		String into = targetName == null ? "" : targetName + " ";
+		System.out.println("Inserted " + passed + " records into " + into + tabs);
 		System.out.println("Failed to insert " + failed + " records.");
 		System.out.println("Skipped inserting " + skipped + " records.");
+		if (sync.isEnabled()) {
+			System.out.println("Left " + unchanged + " unchanged records.");
+			System.out.println("Deleted " + deleted + " records no longer in the sheets.");
+		}
+	}
+
+	/**
+	 * 
+	 * @param resume if true getSheet() carries on from the run manifest left by
+	 *               a failed run
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+		for (Sheets2DB target : targets) {
+			target.setResume(resume);
+		}
+	}
+
+	/**
+	 * Run as one of the jobs of an ImportJobs run
+	 * 
+	 * @param jobName added to the JMX name of the stats
+	 * @param service Sheets client shared by the jobs. null to make one.
+	 * @param dbLocks write locks of the jobs by db.url. This and each target
+	 *                hold the one for their own DB while writing to it. May be
+	 *                null.
+	 */
+	public void setJob(String jobName, Sheets service, Map<String, Lock> dbLocks) {
+		this.jobName = jobName;
+		this.sharedService = service;
+		this.writeLock = dbLocks == null ? null : dbLock(dbLocks, db.getDbUrl());
+		for (Sheets2DB target : targets) {
+			target.setJob(jobName, service, dbLocks);
+		}
+	}
+
+	/**
+	 * 
+	 * @param dbLocks
+	 * @param url
+	 * @return the lock for url, added to dbLocks if not there yet
+	 */
+	private static Lock dbLock(Map<String, Lock> dbLocks, String url) {
+		synchronized (dbLocks) {
+			Lock rtn = dbLocks.get(url);
+			if (rtn == null) {
+				rtn = new ReentrantLock();
+				dbLocks.put(url, rtn);
+			}
+			return rtn;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the runs writing to the other DBs in genSpring.targets
+	 */
+	public List<Sheets2DB> getTargets() {
+		return targets;
+	}
+
+	/**
+	 * 
+	 * @return bundle with the db.* settings of this target or null if this is
+	 *         the main run
+	 */
+	public String getTargetName() {
+		return targetName;
+	}
+
+	/**
+	 * 
+	 * @return true if the last getSheet() run got to the end
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public int getPassed() {
+		return passed;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * 
+	 * @return rows a sync left as they were
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * 
+	 * @return rows a sync deleted since they are no longer in the sheets
+	 */
+	public int getDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * 
+	 * @return the stats of the current or last getSheet() run
+	 */
+	public ImportStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * 
+	 * @return genSpring.source if set else genSpring.id
+	 */
+	public String getSourceName() {
+		return sourceName();
 	}
 
 	/**
@@ -1377,6 +2646,7 @@ public class Sheets2DB extends CommonMethods {
 	public static void main(String... args) {
 		try {
 			Sheets2DB s = new Sheets2DB();
+			s.setResume(Arrays.asList(args).contains("--resume"));
 			s.getSheet();
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -0,0 +1,436 @@
+package com.dea42.build;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ColumnTable that only keeps the first maxRows rows in memory. Rows after that
+ * are written to a temp file as they are parsed and read back one at a time by
+ * the Cursor so the heap used does not grow with the size of the tab. Only the
+ * row being parsed and the row under a Cursor are held for spilled rows. The
+ * first MAX_DICT distinct Strings of each column are written once and then as
+ * codes so repeated values take less space and are read back as one instance.
+ * Call close() to delete the temp file.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class SpillTable extends ColumnTable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// value tags in the spill file
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte DECIMAL = 4;
+	private static final byte BOOLEAN = 5;
+	private static final byte DATE = 6;
+	private static final byte TIME = 7;
+	// a String added to the column's dictionary
+	private static final byte STRING_NEW = 8;
+	// code of a String already in the column's dictionary
+	private static final byte STRING_CODE = 9;
+	// most Strings in a column's dictionary so columns of unique text do not
+	// fill the heap
+	static final int MAX_DICT = 4096;
+
+	private final int maxRows;
+	private final String prefix;
+	private Path file;
+	private DataOutputStream out;
+	private int spilled = 0;
+	// spilled row being filled in
+	private int currentRowId;
+	private Map<String, Object> current;
+	// column names are written as their index into this
+	private final List<String> names = new ArrayList<>();
+	private final Map<String, Integer> nameIdx = new HashMap<>();
+	// dictionary of each column by name index
+	private final Map<Integer, SpillDict> dicts = new HashMap<>();
+
+	/**
+	 * Strings written for a column
+	 */
+	private static class SpillDict {
+		private final Map<String, Integer> codes = new HashMap<>();
+		// true once the dictionary is full or a value that is not a String was
+		// written so the distinct count is not known
+		private boolean uncounted = false;
+	}
+
+	/**
+	 *
+	 * @param maxRows rows to keep in memory
+	 * @param prefix  name prefix for the temp file, usually the table name
+	 */
+	public SpillTable(int maxRows, String prefix) {
+		this.maxRows = maxRows;
+		this.prefix = prefix;
+	}
+
+	@Override
+	public int addRow(int rowId) {
+		if (spilled == 0 && super.size() < maxRows)
+			return super.addRow(rowId);
+
+		writeCurrent();
+		current = new LinkedHashMap<>();
+		currentRowId = rowId;
+		return super.size() + spilled++;
+	}
+
+	@Override
+	public int size() {
+		return super.size() + spilled;
+	}
+
+	/**
+	 *
+	 * @return number of rows that went to the temp file
+	 */
+	public int getSpilled() {
+		return spilled;
+	}
+
+	@Override
+	public int getRowId(int row) {
+		if (row < super.size())
+			return super.getRowId(row);
+		checkCurrent(row);
+		return currentRowId;
+	}
+
+	@Override
+	public void set(int row, String name, Object val) {
+		if (row < super.size()) {
+			super.set(row, name, val);
+		} else {
+			checkCurrent(row);
+			if (val == null)
+				current.remove(name);
+			else
+				current.put(name, val);
+		}
+	}
+
+	@Override
+	public void set(int row, int colIdx, Object val, Class<?> type) {
+		if (row < super.size())
+			super.set(row, colIdx, val, type);
+		else
+			set(row, getColumnName(colIdx), val);
+	}
+
+	@Override
+	public Object get(int row, String name) {
+		if (row < super.size())
+			return super.get(row, name);
+		checkCurrent(row);
+		return current.get(name);
+	}
+
+	@Override
+	public String rowToString(int row) {
+		if (row < super.size())
+			return super.rowToString(row);
+		checkCurrent(row);
+		return current.toString();
+	}
+
+	private void checkCurrent(int row) {
+		if (current == null || row != size() - 1)
+			throw new IllegalStateException("Row " + row + " has been spilled and can only be read with a Cursor");
+	}
+
+	/**
+	 * Write the row being filled in to the temp file
+	 */
+	private void writeCurrent() {
+		if (current == null)
+			return;
+		try {
+			if (out == null) {
+				file = Files.createTempFile(prefix, ".rows");
+				// in case the run dies before close()
+				file.toFile().deleteOnExit();
+				log.info("Spilling rows past " + maxRows + " to " + file);
+				out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+			}
+			out.writeInt(currentRowId);
+			out.writeInt(current.size());
+			for (Map.Entry<String, Object> e : current.entrySet()) {
+				Integer idx = nameIdx.get(e.getKey());
+				if (idx == null) {
+					idx = names.size();
+					names.add(e.getKey());
+					nameIdx.put(e.getKey(), idx);
+				}
+				out.writeInt(idx);
+				writeVal(idx, e.getValue());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to spill row " + currentRowId + " to " + file, e);
+		}
+		current = null;
+	}
+
+	private void writeVal(int colIdx, Object val) throws IOException {
+		SpillDict dict = dicts.get(colIdx);
+		if (dict == null) {
+			dict = new SpillDict();
+			dicts.put(colIdx, dict);
+		}
+		if (val instanceof String) {
+			Integer code = dict.codes.get(val);
+			if (code != null) {
+				out.writeByte(STRING_CODE);
+				out.writeInt(code);
+				return;
+			}
+			if (dict.codes.size() < MAX_DICT) {
+				dict.codes.put((String) val, dict.codes.size());
+				out.writeByte(STRING_NEW);
+				writeString((String) val);
+				return;
+			}
+		}
+		dict.uncounted = true;
+		if (val instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) val);
+		} else if (val instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) val);
+		} else if (val instanceof BigDecimal) {
+			out.writeByte(DECIMAL);
+			writeString(val.toString());
+		} else if (val instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) val);
+		} else if (val instanceof Time) {
+			out.writeByte(TIME);
+			out.writeLong(((Time) val).getTime());
+		} else if (val instanceof Date) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) val).getTime());
+		} else {
+			// Strings and anything unexpected
+			out.writeByte(STRING);
+			writeString(val.toString());
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		// not writeUTF() since that is limited to 64K bytes
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Finish writing so the file can be read back
+	 */
+	private void endWrite() {
+		writeCurrent();
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to close " + file, e);
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * Only call once all the rows have been added
+	 */
+	@Override
+	public int getDistinctCount(String name) {
+		if (spilled == 0)
+			return super.getDistinctCount(name);
+		// the row being filled in has not been counted yet
+		writeCurrent();
+		Set<String> inMemory = getDictionary(name);
+		// not all Strings
+		if (inMemory == null && super.getDistinctCount(name) != 0)
+			return -1;
+		Integer idx = nameIdx.get(name);
+		SpillDict dict = idx == null ? null : dicts.get(idx);
+		if (dict == null)
+			return inMemory == null ? 0 : inMemory.size();
+		if (dict.uncounted)
+			return -1;
+		if (inMemory == null)
+			return dict.codes.size();
+		Set<String> all = new HashSet<>(inMemory);
+		all.addAll(dict.codes.keySet());
+		return all.size();
+	}
+
+	// the targets of a run read the rows at the same time
+	@Override
+	public synchronized Cursor cursor(BitSet rows) {
+		endWrite();
+		return new SpillCursor(rows);
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			endWrite();
+		} finally {
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					log.warn("Failed to delete " + file + ":" + e.getMessage());
+				}
+				file = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads the in memory rows then the spilled ones in order
+	 */
+	class SpillCursor extends Cursor {
+		private final int memRows = SpillTable.super.size();
+		private DataInputStream in;
+		// index of the next row in the file
+		private int readIdx;
+		private int rowId;
+		private final Map<String, Object> rowVals = new LinkedHashMap<>();
+		// Strings read so far of each column by name index in code order
+		private final Map<Integer, List<String>> readDicts = new HashMap<>();
+
+		SpillCursor(BitSet rows) {
+			super(rows);
+			readIdx = memRows;
+		}
+
+		@Override
+		public boolean next() {
+			if (!super.next())
+				return false;
+			if (row >= memRows) {
+				try {
+					if (in == null) {
+						in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+					}
+					// skip rows not wanted
+					while (readIdx <= row) {
+						readRow();
+						readIdx++;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException("Failed to read row " + row + " back from " + file, e);
+				}
+			}
+			return true;
+		}
+
+		private void readRow() throws IOException {
+			rowVals.clear();
+			rowId = in.readInt();
+			int cells = in.readInt();
+			for (int i = 0; i < cells; i++) {
+				int colIdx = in.readInt();
+				rowVals.put(names.get(colIdx), readVal(colIdx));
+			}
+		}
+
+		private Object readVal(int colIdx) throws IOException {
+			byte tag = in.readByte();
+			switch (tag) {
+			case STRING_NEW: {
+				List<String> dict = readDicts.get(colIdx);
+				if (dict == null) {
+					dict = new ArrayList<>();
+					readDicts.put(colIdx, dict);
+				}
+				String s = readString();
+				dict.add(s);
+				return s;
+			}
+			case STRING_CODE:
+				return readDicts.get(colIdx).get(in.readInt());
+			case INTEGER:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case DECIMAL:
+				return new BigDecimal(readString());
+			case BOOLEAN:
+				return in.readBoolean();
+			case TIME:
+				return new Time(in.readLong());
+			case DATE:
+				return new Date(in.readLong());
+			case STRING:
+				return readString();
+			default:
+				throw new IOException("Unknown value tag " + tag + " in " + file);
+			}
+		}
+
+		private String readString() throws IOException {
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			return new String(b, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public int getRowId() {
+			if (row < memRows)
+				return super.getRowId();
+			return rowId;
+		}
+
+		@Override
+		public Object get(String name) {
+			if (row < memRows)
+				return super.get(name);
+			return rowVals.get(name);
+		}
+
+		@Override
+		public String toString() {
+			if (row < memRows)
+				return super.toString();
+			return rowVals.toString();
+		}
+
+		@Override
+		public void close() {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					log.warn("Failed to close " + file + ":" + e.getMessage());
+				}
+				in = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.dea42.build;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the statements of a SQL script one at a time without loading the whole
+ * file. Statements end with a ; that is not in a quoted string or identifier.
+ * -- comments are dropped. Files ending in .gz are gunzipped.
+ *
+ * @author avata
+ *
+ */
+public class SqlScriptReader implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final BufferedReader in;
+	private final StringBuilder sb = new StringBuilder();
+
+	/**
+	 *
+	 * @param file script to read
+	 * @throws IOException
+	 */
+	public SqlScriptReader(Path file) throws IOException {
+		InputStream is = Files.newInputStream(file);
+		if (file.getFileName().toString().endsWith(".gz"))
+			is = new GZIPInputStream(is, BUFFER_SIZE);
+		in = new BufferedReader(new InputStreamReader(is, Charset.defaultCharset()), BUFFER_SIZE);
+	}
+
+	/**
+	 *
+	 * @return the next statement with its ; or null at the end of the file
+	 * @throws IOException
+	 */
+	public String next() throws IOException {
+		sb.setLength(0);
+		// the quote char of the string or identifier being read
+		char quote = 0;
+		int c;
+		while ((c = in.read()) >= 0) {
+			if (quote != 0) {
+				sb.append((char) c);
+				// a doubled quote is read as closing and opening again
+				if (c == quote)
+					quote = 0;
+				continue;
+			}
+			if (c == '-') {
+				in.mark(1);
+				if (in.read() == '-') {
+					// skip to the end of the line
+					while ((c = in.read()) >= 0 && c != '\n') {
+					}
+					sb.append('\n');
+					continue;
+				}
+				in.reset();
+			}
+			if (c == '\'' || c == '"' || c == '`')
+				quote = (char) c;
+			sb.append((char) c);
+			if (c == ';') {
+				String sql = sb.toString().trim();
+				if (sql.length() > 1)
+					return sql;
+				sb.setLength(0);
+			}
+		}
+		// last statement without a ;
+		String sql = sb.toString().trim();
+		return sql.isEmpty() ? null : sql;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
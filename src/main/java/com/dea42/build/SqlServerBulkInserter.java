@@ -0,0 +1,179 @@
+package com.dea42.build;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.dea42.common.Db;
+import com.microsoft.sqlserver.jdbc.ISQLServerBulkData;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * BatchInserter for SQL Server that sends each chunk of rows with the driver's
+ * SQLServerBulkCopy inside the table's transaction. A chunk the server rejects
+ * is rolled back and retried with the batched INSERTs to find the bad rows.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class SqlServerBulkInserter extends BatchInserter {
+	private final String table;
+	private final List<String> cols;
+	private final List<String> nowCols;
+	private boolean disabled = false;
+
+	/**
+	 *
+	 * @param db             DB to write to
+	 * @param tableName      used for logging
+	 * @param table          table to load with the schema prefix if any
+	 * @param cols           column of each bound value
+	 * @param nowCols        columns set to the time the chunk is sent instead of
+	 *                       being bound
+	 * @param sql            INSERT for the fall back
+	 * @param types          field class of each bound column
+	 * @param batchSize      number of rows per bulk copy
+	 * @param failOnAnyError throw on the first row the DB rejects
+	 * @throws SQLException
+	 */
+	public SqlServerBulkInserter(Db db, String tableName, String table, List<String> cols, List<String> nowCols,
+			String sql, Class<?>[] types, int batchSize, boolean failOnAnyError) throws SQLException {
+		super(db, tableName, sql, types, batchSize, failOnAnyError);
+		this.table = table;
+		this.cols = cols;
+		this.nowCols = nowCols;
+	}
+
+	@Override
+	protected void writePending(List<Object[]> rows, List<Integer> rowIds) throws SQLException {
+		if (disabled) {
+			super.writePending(rows, rowIds);
+			return;
+		}
+
+		Savepoint sp = conn.setSavepoint();
+		try (SQLServerBulkCopy copy = new SQLServerBulkCopy(conn)) {
+			SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+			options.setBatchSize(rows.size());
+			options.setBulkCopyTimeout(0);
+			copy.setBulkCopyOptions(options);
+			copy.setDestinationTableName(table);
+			for (int i = 0; i < cols.size(); i++) {
+				copy.addColumnMapping(i + 1, cols.get(i));
+			}
+			for (int i = 0; i < nowCols.size(); i++) {
+				copy.addColumnMapping(cols.size() + i + 1, nowCols.get(i));
+			}
+			copy.writeToServer(new Chunk(rows));
+			passed += rows.size();
+		} catch (SQLException e) {
+			log.warn(tableName + " bulk copy failed, retrying with INSERTs:" + e.getMessage());
+			conn.rollback(sp);
+			// a bad row fails the whole copy so keep using INSERTs for the table
+			disabled = true;
+			super.writePending(rows, rowIds);
+		}
+	}
+
+	/**
+	 * The rows of a chunk in the form SQLServerBulkCopy reads them
+	 */
+	private class Chunk implements ISQLServerBulkData {
+		private static final long serialVersionUID = 1L;
+		private final List<Object[]> rows;
+		private final Timestamp now = new Timestamp(System.currentTimeMillis());
+		private final int[] precision;
+		private int rowIdx = -1;
+
+		Chunk(List<Object[]> rows) {
+			this.rows = rows;
+			// the driver sizes character columns from the longest value
+			precision = new int[cols.size()];
+			for (Object[] vals : rows) {
+				for (int i = 0; i < precision.length; i++) {
+					if (vals[i] instanceof String)
+						precision[i] = Math.max(precision[i], ((String) vals[i]).length());
+				}
+			}
+		}
+
+		@Override
+		public Set<Integer> getColumnOrdinals() {
+			Set<Integer> rtn = new LinkedHashSet<>();
+			for (int i = 1; i <= cols.size() + nowCols.size(); i++)
+				rtn.add(i);
+			return rtn;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			if (column > cols.size())
+				return nowCols.get(column - cols.size() - 1);
+			return cols.get(column - 1);
+		}
+
+		@Override
+		public int getColumnType(int column) {
+			if (column > cols.size())
+				return Types.TIMESTAMP;
+			int type = sqlType(types[column - 1], false);
+			if (type == Types.BOOLEAN)
+				return Types.BIT;
+			if (type == Types.REAL && BigDecimal.class.equals(types[column - 1]))
+				return Types.DECIMAL;
+			return type;
+		}
+
+		@Override
+		public int getPrecision(int column) {
+			if (column > cols.size())
+				return 0;
+			int type = getColumnType(column);
+			if (type == Types.VARCHAR)
+				return Math.max(1, precision[column - 1]);
+			if (type == Types.DECIMAL)
+				return 38;
+			return 0;
+		}
+
+		@Override
+		public int getScale(int column) {
+			if (getColumnType(column) == Types.DECIMAL)
+				return 10;
+			return 0;
+		}
+
+		@Override
+		public boolean next() {
+			rowIdx++;
+			return rowIdx < rows.size();
+		}
+
+		@Override
+		public Object[] getRowData() {
+			Object[] vals = rows.get(rowIdx);
+			Object[] rtn = new Object[cols.size() + nowCols.size()];
+			for (int i = 0; i < vals.length; i++) {
+				Object val = vals[i];
+				if (val instanceof Date && !(val instanceof Time) && !(val instanceof Timestamp))
+					val = new Timestamp(((Date) val).getTime());
+				rtn[i] = val;
+			}
+			for (int i = vals.length; i < rtn.length; i++) {
+				rtn[i] = now;
+			}
+			return rtn;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.dea42.build;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Holds what a tab was parsed into for one table so the parsing and the DB
+ * writing can be done at different times / on different threads.
+ * 
+ * @author avata
+ *
+ */
+@Getter
+public class TableData {
+	private final String tableName;
+	// table this is the user table of or null
+	private final String mainTable;
+	// max length of String fields
+	private final Map<String, Integer> maxFieldLenghts;
+	// discovered field types
+	private final Map<String, Class<?>> fieldTypes;
+	// required field names
+	private final List<String> requiredFields;
+	// the actual data, may be shared with the main / user table
+	private final ColumnTable rowsData;
+	// the rows of rowsData that go in this table
+	private final BitSet rows;
+	// keys to add
+	private final Map<String, String> foreignKeys;
+	// the order the columns should be in
+	private final Map<Integer, String> colOrder;
+	// what was learned about the values of each parsed column
+	private final Map<String, ColumnType> columnTypes;
+	// column moved to a lookup table to the ids of its values or null
+	private final Map<String, Map<String, Long>> lookups;
+	// true if this is a lookup table made from a column of another table
+	private final boolean lookup;
+
+	public TableData(String tableName, String mainTable, Map<String, Integer> maxFieldLenghts,
+			Map<String, Class<?>> fieldTypes, List<String> requiredFields, ColumnTable rowsData,
+			BitSet rows, Map<String, String> foreignKeys, Map<Integer, String> colOrder,
+			Map<String, ColumnType> columnTypes, Map<String, Map<String, Long>> lookups, boolean lookup) {
+		this.tableName = tableName;
+		this.mainTable = mainTable;
+		this.maxFieldLenghts = maxFieldLenghts;
+		this.fieldTypes = fieldTypes;
+		this.requiredFields = requiredFields;
+		this.rowsData = rowsData;
+		this.rows = rows;
+		this.foreignKeys = foreignKeys;
+		this.colOrder = colOrder;
+		this.columnTypes = columnTypes;
+		this.lookups = lookups;
+		this.lookup = lookup;
+	}
+
+	/**
+	 * 
+	 * @return true if this is a user table linked to a main table
+	 */
+	public boolean isUserTable() {
+		return mainTable != null;
+	}
+
+	/**
+	 * Free the row data once the table has been written. Safe to call more than
+	 * once and from the main and user table that share it.
+	 */
+	public void release() {
+		rowsData.close();
+	}
+}
@@ -0,0 +1,38 @@
+package com.dea42.build;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.google.api.services.sheets.v4.model.Sheet;
+
+/**
+ * Where Sheets2DB gets the tabs to import from. The tabs are described with
+ * the Google Sheet model so the rest of the import does not care if they came
+ * from a Google sheet or a local file. Note fetch() may be called from several
+ * threads at once when genSpring.parallelTabs is set.
+ *
+ * @author avata
+ *
+ */
+public interface TabularSource extends Closeable {
+
+	/**
+	 *
+	 * @return the title and grid properties (row count and frozen rows) of each
+	 *         tab in order
+	 * @throws IOException
+	 */
+	List<Sheet> getTabs() throws IOException;
+
+	/**
+	 * Get the cell data of the tabs. The rows may be read lazily as the returned
+	 * TabValues is iterated so each one should be closed when done with.
+	 *
+	 * @param tabNames tab titles as returned by getTabs()
+	 * @return map of tab name to its data. Tabs not found are left out.
+	 * @throws IOException
+	 */
+	Map<String, SheetFetcher.TabValues> fetch(List<String> tabNames) throws IOException;
+}
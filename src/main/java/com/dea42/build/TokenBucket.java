@@ -0,0 +1,72 @@
+package com.dea42.build;
+
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Sleeper;
+
+/**
+ * Token bucket that spaces calls out to a rate per minute. The bucket starts
+ * full so up to burst calls go straight through. Each acquire() takes a token
+ * and callers that find it empty reserve the next one and sleep till it is
+ * due so concurrent callers queue up in order instead of all waking at once.
+ *
+ * @author avata
+ *
+ */
+public class TokenBucket {
+	private static final double NANOS_PER_MINUTE = 60000000000.0;
+
+	private final double permitsPerNano;
+	private final double capacity;
+	private final NanoClock clock;
+	private final Sleeper sleeper;
+	// guarded by this. Can be negative when callers are waiting.
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 *
+	 * @param permitsPerMinute
+	 * @param burst            tokens the bucket holds
+	 */
+	public TokenBucket(int permitsPerMinute, int burst) {
+		this(permitsPerMinute, burst, NanoClock.SYSTEM, Sleeper.DEFAULT);
+	}
+
+	/**
+	 *
+	 * @param permitsPerMinute
+	 * @param burst            tokens the bucket holds
+	 * @param clock
+	 * @param sleeper          used to wait for a token
+	 */
+	public TokenBucket(int permitsPerMinute, int burst, NanoClock clock, Sleeper sleeper) {
+		if (permitsPerMinute < 1)
+			throw new IllegalArgumentException("permitsPerMinute must be more than 0");
+		this.permitsPerNano = permitsPerMinute / NANOS_PER_MINUTE;
+		this.capacity = Math.max(1, burst);
+		this.clock = clock;
+		this.sleeper = sleeper;
+		this.tokens = capacity;
+		this.lastRefill = clock.nanoTime();
+	}
+
+	/**
+	 * Take a token waiting for one if needed.
+	 *
+	 * @return nanoseconds waited
+	 * @throws InterruptedException
+	 */
+	public long acquire() throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			long now = clock.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerNano);
+			lastRefill = now;
+			tokens -= 1;
+			waitNanos = tokens >= 0 ? 0 : (long) Math.ceil(-tokens / permitsPerNano);
+		}
+		if (waitNanos > 0)
+			sleeper.sleep((waitNanos + 999999) / 1000000);
+		return waitNanos;
+	}
+}
@@ -0,0 +1,329 @@
+package com.dea42.build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.SAXException;
+
+/**
+ * Streams the rows of one sheet of an .xlsx file. POI is used to find the
+ * parts and read the shared strings and styles, the sheet XML itself is pulled
+ * with StAX a row at a time so only the shared strings are held in memory.
+ * Cells formatted as dates are returned as M/d/yyyy H:mm:ss text like the
+ * Sheets API's FORMATTED_STRING.
+ *
+ * @author avata
+ *
+ */
+public class XlsxRowReader implements RowReader {
+	private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("M/d/yyyy H:mm:ss");
+	private static final DateTimeFormatter DATE_ONLY = DateTimeFormatter.ofPattern("M/d/yyyy");
+	private static final DateTimeFormatter TIME_ONLY = DateTimeFormatter.ofPattern("H:mm:ss");
+
+	private final OPCPackage pkg;
+	private final SharedStrings strings;
+	private final StylesTable styles;
+	private final boolean date1904;
+	private final InputStream sheetIn;
+	private final XMLStreamReader xml;
+	// style index to if it is a date format
+	private final Map<Integer, Boolean> dateStyles = new HashMap<>();
+	// 1 based number of the row last returned
+	private int rowNum = 0;
+	// row read ahead when the file skips blank rows
+	private int aheadNum;
+	private List<Object> aheadValues;
+	private List<Object> aheadFormulas;
+	private List<Object> formulas;
+
+	/**
+	 *
+	 * @param file      .xlsx file
+	 * @param sheetName sheet to read
+	 * @throws IOException if the file can not be read or has no sheetName sheet
+	 */
+	public XlsxRowReader(Path file, String sheetName) throws IOException {
+		try {
+			pkg = OPCPackage.open(file.toFile(), PackageAccess.READ);
+		} catch (OpenXML4JException e) {
+			throw new IOException("Failed to open " + file, e);
+		}
+		try {
+			XSSFReader reader = new XSSFReader(pkg);
+			strings = new ReadOnlySharedStringsTable(pkg);
+			styles = reader.getStylesTable();
+			date1904 = isDate1904(reader);
+			sheetIn = findSheet(reader, sheetName);
+			if (sheetIn == null)
+				throw new IOException(file + " has no sheet " + sheetName);
+			xml = newXmlInputFactory().createXMLStreamReader(sheetIn);
+		} catch (IOException | RuntimeException e) {
+			pkg.revert();
+			throw e;
+		} catch (OpenXML4JException | SAXException | XMLStreamException e) {
+			pkg.revert();
+			throw new IOException("Failed to read " + file, e);
+		}
+	}
+
+	/**
+	 *
+	 * @return StAX factory with DTDs and external entities turned off
+	 */
+	static XMLInputFactory newXmlInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 *
+	 * @param file .xlsx file
+	 * @return names of the sheets in order
+	 * @throws IOException
+	 */
+	public static List<String> sheetNames(Path file) throws IOException {
+		List<String> rtn = new ArrayList<>();
+		OPCPackage pkg;
+		try {
+			pkg = OPCPackage.open(file.toFile(), PackageAccess.READ);
+		} catch (OpenXML4JException e) {
+			throw new IOException("Failed to open " + file, e);
+		}
+		try {
+			XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+			while (it.hasNext()) {
+				it.next().close();
+				rtn.add(it.getSheetName());
+			}
+		} catch (OpenXML4JException e) {
+			throw new IOException("Failed to read " + file, e);
+		} finally {
+			pkg.revert();
+		}
+		return rtn;
+	}
+
+	private static InputStream findSheet(XSSFReader reader, String sheetName)
+			throws IOException, OpenXML4JException {
+		XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) reader.getSheetsData();
+		while (it.hasNext()) {
+			InputStream in = it.next();
+			if (sheetName.equals(it.getSheetName()))
+				return in;
+			in.close();
+		}
+		return null;
+	}
+
+	private static boolean isDate1904(XSSFReader reader) throws IOException, OpenXML4JException, XMLStreamException {
+		try (InputStream in = reader.getWorkbookData()) {
+			XMLStreamReader wb = newXmlInputFactory().createXMLStreamReader(in);
+			try {
+				while (wb.hasNext()) {
+					if (wb.next() == XMLStreamConstants.START_ELEMENT) {
+						String name = wb.getLocalName();
+						if ("workbookPr".equals(name)) {
+							String v = wb.getAttributeValue(null, "date1904");
+							return "1".equals(v) || "true".equals(v);
+						}
+						// workbookPr comes before the sheets
+						if ("sheets".equals(name))
+							return false;
+					}
+				}
+			} finally {
+				wb.close();
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public List<Object> next() throws IOException {
+		if (aheadValues == null) {
+			try {
+				if (!readRow())
+					return null;
+			} catch (XMLStreamException e) {
+				throw new IOException("Failed to read row " + (rowNum + 1), e);
+			}
+		}
+		rowNum++;
+		if (rowNum < aheadNum) {
+			// blank row the file left out
+			formulas = null;
+			return new ArrayList<>();
+		}
+		List<Object> rtn = aheadValues;
+		formulas = aheadFormulas;
+		aheadValues = null;
+		aheadFormulas = null;
+		return rtn;
+	}
+
+	/**
+	 * Read the next row element into aheadValues / aheadFormulas
+	 *
+	 * @return false at the end of the sheet
+	 * @throws XMLStreamException
+	 */
+	private boolean readRow() throws XMLStreamException {
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT && "row".equals(xml.getLocalName())) {
+				String r = xml.getAttributeValue(null, "r");
+				aheadNum = r == null ? rowNum + 1 : Integer.parseInt(r);
+				aheadValues = new ArrayList<>();
+				aheadFormulas = null;
+				while (xml.hasNext()) {
+					event = xml.next();
+					if (event == XMLStreamConstants.START_ELEMENT && "c".equals(xml.getLocalName())) {
+						readCell();
+					} else if (event == XMLStreamConstants.END_ELEMENT && "row".equals(xml.getLocalName())) {
+						break;
+					}
+				}
+				return true;
+			} else if (event == XMLStreamConstants.END_ELEMENT && "sheetData".equals(xml.getLocalName())) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private void readCell() throws XMLStreamException {
+		String ref = xml.getAttributeValue(null, "r");
+		String type = xml.getAttributeValue(null, "t");
+		String style = xml.getAttributeValue(null, "s");
+		int col = ref == null ? aheadValues.size() : refToCol(ref);
+		String v = null;
+		String f = null;
+		StringBuilder inline = null;
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = xml.getLocalName();
+				if ("v".equals(name)) {
+					v = xml.getElementText();
+				} else if ("f".equals(name)) {
+					f = xml.getElementText();
+				} else if ("t".equals(name)) {
+					if (inline == null)
+						inline = new StringBuilder();
+					inline.append(xml.getElementText());
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT && "c".equals(xml.getLocalName())) {
+				break;
+			}
+		}
+
+		while (aheadValues.size() < col)
+			aheadValues.add("");
+		aheadValues.add(toValue(type, style, v, inline));
+		if (f != null && !f.isEmpty()) {
+			if (aheadFormulas == null)
+				aheadFormulas = new ArrayList<>();
+			while (aheadFormulas.size() < col)
+				aheadFormulas.add(null);
+			aheadFormulas.add("=" + f);
+		}
+	}
+
+	private Object toValue(String type, String style, String v, StringBuilder inline) {
+		if ("inlineStr".equals(type))
+			return inline == null ? "" : inline.toString();
+		if (v == null)
+			return "";
+		if ("s".equals(type))
+			return strings.getItemAt(Integer.parseInt(v)).getString();
+		if ("b".equals(type))
+			return "1".equals(v);
+		if ("str".equals(type) || "e".equals(type))
+			return v;
+		if ("d".equals(type))
+			return v.replace('T', ' ');
+		if (style != null && isDateStyle(Integer.parseInt(style))) {
+			double d = Double.parseDouble(v);
+			LocalDateTime ldt = DateUtil.getLocalDateTime(d, date1904, true);
+			if (d < 1)
+				return TIME_ONLY.format(ldt);
+			if (d == Math.floor(d))
+				return DATE_ONLY.format(ldt);
+			return DATE_TIME.format(ldt);
+		}
+		return new BigDecimal(v);
+	}
+
+	private boolean isDateStyle(int idx) {
+		Boolean rtn = dateStyles.get(idx);
+		if (rtn == null) {
+			rtn = false;
+			if (idx < styles.getNumCellStyles()) {
+				XSSFCellStyle cs = styles.getStyleAt(idx);
+				rtn = DateUtil.isADateFormat(cs.getDataFormat(), cs.getDataFormatString());
+			}
+			dateStyles.put(idx, rtn);
+		}
+		return rtn;
+	}
+
+	/**
+	 *
+	 * @param ref cell reference like AB12
+	 * @return 0 based column
+	 */
+	static int refToCol(String ref) {
+		int col = 0;
+		for (int i = 0; i < ref.length(); i++) {
+			char c = ref.charAt(i);
+			if (c < 'A' || c > 'Z')
+				break;
+			col = col * 26 + (c - 'A' + 1);
+		}
+		return col - 1;
+	}
+
+	@Override
+	public List<Object> getFormulas() {
+		return formulas;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			try {
+				sheetIn.close();
+			} finally {
+				pkg.revert();
+			}
+		}
+	}
+}
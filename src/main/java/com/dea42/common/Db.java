@@ -7,6 +7,9 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
@@ -97,6 +100,11 @@ public class Db {
 	 * holds Connection in use
 	 */
 	protected Connection connection;
+	/**
+	 * true while a run scoped session is open. close() leaves the connection open
+	 * till endSession() is called.
+	 */
+	private boolean inSession = false;
 
 	private String config = "db";
 
@@ -448,7 +456,123 @@ public class Db {
 		return rtn;
 	}
 
+	/**
+	 * Open a connection that stays open for a whole run. While the session is
+	 * open close() calls are ignored so code that does getConnection() / close()
+	 * per statement reuses the one connection.
+	 * 
+	 * @param calledBy
+	 * @return Connection
+	 * @throws SQLException
+	 */
+	public Connection beginSession(String calledBy) throws SQLException {
+		Connection conn = getConnection(calledBy);
+		inSession = true;
+		log.info("beginSession(" + calledBy + ')' + openCount);
+		return conn;
+	}
+
+	/**
+	 * Commit anything pending and close the session connection.
+	 * 
+	 * @param calledBy
+	 */
+	public void endSession(String calledBy) {
+		try {
+			commit(calledBy);
+		} catch (SQLException e) {
+			log.error("Failed to commit at end of session", e);
+		}
+		inSession = false;
+		close(calledBy);
+	}
+
+	public boolean isInSession() {
+		return inSession;
+	}
+
+	/**
+	 * Start a transaction on the current connection
+	 * 
+	 * @param calledBy
+	 * @return Connection the transaction is on
+	 * @throws SQLException
+	 */
+	public Connection begin(String calledBy) throws SQLException {
+		Connection conn = getConnection(calledBy);
+		if (conn.getAutoCommit())
+			conn.setAutoCommit(false);
+		return conn;
+	}
+
+	/**
+	 * Commit the current transaction if there is one and return to auto commit
+	 * 
+	 * @param calledBy
+	 * @throws SQLException
+	 */
+	public void commit(String calledBy) throws SQLException {
+		if (connection != null && !connection.isClosed() && !connection.getAutoCommit()) {
+			connection.commit();
+			connection.setAutoCommit(true);
+			log.debug("commit(" + calledBy + ')');
+		}
+	}
+
+	/**
+	 * Roll back the current transaction if there is one and return to auto commit
+	 * 
+	 * @param calledBy
+	 */
+	public void rollback(String calledBy) {
+		try {
+			if (connection != null && !connection.isClosed() && !connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+				log.warn("rollback(" + calledBy + ')');
+			}
+		} catch (SQLException e) {
+			log.error("rollback(" + calledBy + ") failed", e);
+		}
+	}
+
+	/**
+	 * Drop the current connection and open a new one. Used after a connection
+	 * level error so a long run does not die on a dropped socket.
+	 * 
+	 * @param calledBy
+	 * @return new Connection
+	 * @throws SQLException
+	 */
+	public Connection reconnect(String calledBy) throws SQLException {
+		log.warn("reconnect(" + calledBy + ')');
+		boolean wasInSession = inSession;
+		inSession = false;
+		close(calledBy);
+		inSession = wasInSession;
+		return getConnection(calledBy);
+	}
+
+	/**
+	 * 
+	 * @param e
+	 * @return true if e looks like the connection was lost as opposed to a problem
+	 *         with the statement
+	 */
+	public static boolean isConnectionError(SQLException e) {
+		if (e instanceof SQLNonTransientConnectionException || e instanceof SQLTransientConnectionException
+				|| e instanceof SQLRecoverableException) {
+			return true;
+		}
+		String state = e.getSQLState();
+		return state != null && state.startsWith("08");
+	}
+
 	public void close(String calledBy) {
+		if (inSession) {
+			log.trace("close(" + calledBy + ") ignored while in session");
+			return;
+		}
 		try {
 			if (connection != null) {
 				connection.close();
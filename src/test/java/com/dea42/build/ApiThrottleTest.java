@@ -0,0 +1,149 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.NanoClock;
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.sheets.v4.Sheets;
+
+/**
+ * Runs Sheets calls through ApiThrottle against a stub transport with a fake
+ * clock so no real time is spent waiting.
+ *
+ * @author avata
+ *
+ */
+public class ApiThrottleTest {
+	private static final String ID = "sheetId";
+
+	/**
+	 * Clock only moved by sleeping on it
+	 */
+	private static class FakeClock implements NanoClock, Sleeper {
+		private long nanos = 1000000000L;
+
+		@Override
+		public synchronized long nanoTime() {
+			return nanos;
+		}
+
+		@Override
+		public synchronized void sleep(long millis) {
+			nanos += millis * 1000000L;
+		}
+	}
+
+	/**
+	 * @param calls  counts the requests
+	 * @param codes  status to answer each request with, the last is repeated
+	 * @param bucket may be null
+	 */
+	private Sheets stubSheets(final AtomicInteger calls, final int[] codes, TokenBucket bucket, int maxRetries,
+			AtomicLong throttled, AtomicLong retries, FakeClock clock) {
+		MockHttpTransport transport = new MockHttpTransport() {
+			@Override
+			public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+				return new MockLowLevelHttpRequest(url) {
+					@Override
+					public LowLevelHttpResponse execute() throws IOException {
+						int code = codes[Math.min(calls.getAndIncrement(), codes.length - 1)];
+						MockLowLevelHttpResponse rtn = new MockLowLevelHttpResponse().setStatusCode(code)
+								.setContentType(Json.MEDIA_TYPE);
+						if (code == 200)
+							rtn.setContent("{\"spreadsheetId\":\"" + ID + "\"}");
+						else
+							rtn.setContent("{\"error\":{\"code\":" + code + ",\"message\":\"stub\"}}");
+						return rtn;
+					}
+				};
+			}
+		};
+		return new Sheets.Builder(transport, JacksonFactory.getDefaultInstance(),
+				new ApiThrottle(null, bucket, maxRetries, throttled, retries, clock, clock)).setApplicationName("test")
+						.build();
+	}
+
+	@Test
+	public void testRetries() throws IOException {
+		FakeClock clock = new FakeClock();
+		AtomicInteger calls = new AtomicInteger();
+		AtomicLong throttled = new AtomicLong();
+		AtomicLong retries = new AtomicLong();
+		Sheets service = stubSheets(calls, new int[] { 429, 503, 200 }, null, 5, throttled, retries, clock);
+		assertEquals(ID, service.spreadsheets().get(ID).execute().getSpreadsheetId());
+		assertEquals(3, calls.get(), "calls");
+		assertEquals(2, retries.get(), "retries");
+		// first backoff is 1 sec +/- 50% then about double that
+		assertTrue(throttled.get() >= 1500000000L, "backed off " + throttled.get());
+
+		// not worth retrying
+		calls.set(0);
+		retries.set(0);
+		final Sheets notFound = stubSheets(calls, new int[] { 404 }, null, 5, throttled, retries, clock);
+		assertThrows(HttpResponseException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable {
+				notFound.spreadsheets().get(ID).execute();
+			}
+		});
+		assertEquals(1, calls.get(), "404 calls");
+		assertEquals(0, retries.get(), "404 retries");
+
+		// gives up after maxRetries
+		calls.set(0);
+		final Sheets down = stubSheets(calls, new int[] { 500 }, null, 2, throttled, retries, clock);
+		assertThrows(HttpResponseException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable {
+				down.spreadsheets().get(ID).execute();
+			}
+		});
+		assertEquals(3, calls.get(), "500 calls");
+		assertEquals(2, retries.get(), "500 retries");
+	}
+
+	@Test
+	public void testRateLimit() throws IOException {
+		FakeClock clock = new FakeClock();
+		AtomicInteger calls = new AtomicInteger();
+		AtomicLong throttled = new AtomicLong();
+		AtomicLong retries = new AtomicLong();
+		// 1 a second after the first 2
+		TokenBucket bucket = new TokenBucket(60, 2, clock, clock);
+		Sheets service = stubSheets(calls, new int[] { 200 }, bucket, 5, throttled, retries, clock);
+		long start = clock.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			service.spreadsheets().get(ID).execute();
+		}
+		assertEquals(5, calls.get(), "calls");
+		assertEquals(3000000000L, clock.nanoTime() - start, "waited for 3 tokens");
+		assertEquals(3000000000L, throttled.get(), "throttled time");
+
+		// a retry waits for a token too
+		calls.set(0);
+		throttled.set(0);
+		clock.sleep(60000);
+		bucket = new TokenBucket(60, 1, clock, clock);
+		service = stubSheets(calls, new int[] { 429, 200 }, bucket, 5, throttled, retries, clock);
+		service.spreadsheets().get(ID).execute();
+		assertEquals(2, calls.get(), "calls with retry");
+		assertTrue(throttled.get() >= 1000000000L, "retry waited " + throttled.get());
+	}
+}
@@ -0,0 +1,105 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.dea42.common.Db;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compares loading the same rows into SQLite with the plain batched INSERTs and
+ * with SQLiteBulkInserter.
+ *
+ * @author avata
+ *
+ */
+@Slf4j
+public class BulkLoadTest {
+	private static final String bundleName = "genSpringTest";
+	private static final String TABLE = "BulkLoadTest";
+	private static final int ROWS = 20000;
+	private static final Class<?>[] TYPES = { Integer.class, String.class, BigDecimal.class, Boolean.class };
+	private static final String SQL = "INSERT INTO " + TABLE + " (id, name, amount, flag) VALUES (?, ?, ?, ?)";
+
+	/**
+	 * Create an empty table, load ROWS rows plus a duplicate with sink and check
+	 * what went in.
+	 *
+	 * @return rows per second
+	 */
+	private long load(Db db, boolean bulk) throws SQLException {
+		try (Statement stmt = db.getConnection(TABLE).createStatement()) {
+			stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+			stmt.execute("CREATE TABLE " + TABLE + " (id INTEGER PRIMARY KEY, name VARCHAR(40) NOT NULL, amount REAL,"
+					+ " flag INTEGER)");
+		}
+
+		long start = System.nanoTime();
+		BatchInserter sink = bulk ? new SQLiteBulkInserter(db, TABLE, SQL, TYPES, 1000, false)
+				: new BatchInserter(db, TABLE, SQL, TYPES, 1000, false);
+		for (int i = 1; i <= ROWS; i++) {
+			sink.addRow(i, new Object[] { i, "Name " + i, new BigDecimal(i + ".25"), i % 2 == 0 });
+			if (i == ROWS / 2)
+				sink.addRow(-1, new Object[] { i, "Duplicate", null, null });
+		}
+		sink.close();
+		long nanos = System.nanoTime() - start;
+
+		assertEquals(ROWS, sink.getPassed(), "passed");
+		assertEquals(1, sink.getFailed(), "failed");
+		assertEquals(Arrays.asList(-1), sink.getFailedRowIds(), "failed rows");
+		try (Statement stmt = db.getConnection(TABLE).createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT COUNT(*), SUM(flag) FROM " + TABLE)) {
+			rs.next();
+			assertEquals(ROWS, rs.getInt(1), "rows in table");
+			assertEquals(ROWS / 2, rs.getInt(2), "true flags");
+		}
+		long rate = ROWS * 1000000000L / Math.max(1, nanos);
+		log.info((bulk ? "SQLiteBulkInserter " : "BatchInserter ") + rate + " rows/sec");
+		return rate;
+	}
+
+	private String pragma(Connection conn, String name) throws SQLException {
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+			rs.next();
+			return rs.getString(1);
+		}
+	}
+
+	@Test
+	public void testThroughput() throws SQLException {
+		Db db = new Db(TABLE, bundleName);
+		try {
+			db.beginSession(TABLE);
+			Connection conn = db.getConnection(TABLE);
+			String journalMode = pragma(conn, "journal_mode");
+			String synchronous = pragma(conn, "synchronous");
+			String cacheSize = pragma(conn, "cache_size");
+
+			// first run warms up the JIT so neither side gets the cold start
+			load(db, false);
+			long batched = load(db, false);
+			long bulk = load(db, true);
+			System.out.println("SQLite rows/sec batched:" + batched + " bulk:" + bulk);
+
+			assertEquals(journalMode, pragma(conn, "journal_mode"), "journal_mode put back");
+			assertEquals(synchronous, pragma(conn, "synchronous"), "synchronous put back");
+			assertEquals(cacheSize, pragma(conn, "cache_size"), "cache_size put back");
+
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+			}
+		} finally {
+			db.endSession(TABLE);
+		}
+	}
+}
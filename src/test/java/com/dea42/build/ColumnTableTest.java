@@ -0,0 +1,135 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks repeated Strings are held once and counted, both in memory and in
+ * rows spilled to disk.
+ *
+ * @author avata
+ *
+ */
+public class ColumnTableTest {
+	private static final String[] NETWORKS = { "ABC", "CBS", "NBC", "FOX" };
+
+	/**
+	 * Fill table with rows of a repeating Network, a unique Title and a Count
+	 * that turns into a String half way.
+	 */
+	private void fill(ColumnTable table, int rows) {
+		int network = table.addColumn("Network");
+		int title = table.addColumn("Title");
+		int count = table.addColumn("Count");
+		for (int i = 0; i < rows; i++) {
+			int row = table.addRow(i + 2);
+			// new instances like the parser makes
+			table.set(row, network, new String(NETWORKS[i % NETWORKS.length]));
+			table.set(row, title, "Show " + i);
+			table.set(row, count, i < rows / 2 ? (Object) i : new String("many"));
+		}
+	}
+
+	@Test
+	public void testDictionary() {
+		ColumnTable table = new ColumnTable();
+		fill(table, 100);
+		assertEquals(4, table.getDistinctCount("Network"), "networks");
+		assertEquals(100, table.getDistinctCount("Title"), "titles");
+		assertEquals(-1, table.getDistinctCount("Count"), "mixed column");
+		assertEquals(0, table.getDistinctCount("Missing"), "no such column");
+
+		assertSame(table.get(0, "Network"), table.get(4, "Network"), "one instance per value");
+		assertEquals("NBC", table.get(6, "Network"));
+		assertEquals(49, table.get(49, "Count"));
+		assertSame(table.get(50, "Count"), table.get(99, "Count"), "Strings shared in a mixed column");
+		table.close();
+	}
+
+	@Test
+	public void testWiden() {
+		ColumnTable table = new ColumnTable();
+		int big = table.addColumn("Big");
+		int code = table.addColumn("Code");
+		for (int i = 0; i < 10; i++) {
+			int row = table.addRow(i + 2);
+			// the parser passes the column's type after adding the value
+			table.set(row, big, i < 5 ? (Object) i : (Object) (Integer.MAX_VALUE + (long) i), Long.class);
+			table.set(row, code, i < 5 ? (Object) (i % 3) : "x" + (i % 3), String.class);
+		}
+		assertEquals("ColumnTable[rows=10, columns={Big=LongColumn, Code=StringColumn}]", table.toString());
+		assertEquals(4L, table.get(4, "Big"), "earlier Integer widened");
+		assertEquals(Integer.MAX_VALUE + 9L, table.get(9, "Big"));
+		assertEquals("1", table.get(4, "Code"), "earlier Integer as a String");
+		assertEquals("x0", table.get(6, "Code"));
+		// 0, 1, 2, x0, x1 and x2
+		assertEquals(6, table.getDistinctCount("Code"), "codes");
+		assertSame(table.get(0, "Code"), table.get(3, "Code"), "converted values in the dictionary");
+		table.close();
+	}
+
+	@Test
+	public void testSpill() {
+		SpillTable table = new SpillTable(10, "ColumnTableTest");
+		try {
+			fill(table, 100);
+			assertEquals(90, table.getSpilled(), "spilled");
+			assertEquals(4, table.getDistinctCount("Network"), "networks");
+			assertEquals(100, table.getDistinctCount("Title"), "titles");
+			assertEquals(-1, table.getDistinctCount("Count"), "mixed column");
+
+			ColumnTable.Cursor cursor = table.cursor(table.allRows());
+			Object[] seen = new Object[NETWORKS.length];
+			int rows = 0;
+			while (cursor.next()) {
+				int i = cursor.getRowId() - 2;
+				assertEquals(rows++, i, "row order");
+				Object network = cursor.get("Network");
+				assertEquals(NETWORKS[i % NETWORKS.length], network);
+				assertEquals("Show " + i, cursor.get("Title"));
+				assertEquals(i < 50 ? (Object) i : "many", cursor.get("Count"));
+				if (i >= 10) {
+					// spilled rows read back the first copy of each value
+					if (seen[i % NETWORKS.length] == null)
+						seen[i % NETWORKS.length] = network;
+					else
+						assertSame(seen[i % NETWORKS.length], network, "row " + i);
+				}
+			}
+			cursor.close();
+			assertEquals(100, rows, "rows read");
+		} finally {
+			table.close();
+		}
+	}
+
+	@Test
+	public void testSpillDictFull() {
+		SpillTable table = new SpillTable(1, "ColumnTableTest");
+		try {
+			int col = table.addColumn("Title");
+			int rows = SpillTable.MAX_DICT + 10;
+			for (int i = 0; i < rows; i++) {
+				table.set(table.addRow(i + 2), col, "Title " + (i % (SpillTable.MAX_DICT + 5)));
+			}
+			assertEquals(-1, table.getDistinctCount("Title"), "too many to count");
+
+			ColumnTable.Cursor cursor = table.cursor(table.allRows());
+			int read = 0;
+			while (cursor.next()) {
+				assertEquals("Title " + (read % (SpillTable.MAX_DICT + 5)), cursor.get("Title"));
+				read++;
+			}
+			cursor.close();
+			assertEquals(rows, read, "rows read");
+			assertTrue(table.getSpilled() > 0, "spilled");
+			assertFalse(table.getDistinctCount("Title") >= 0, "still not counted");
+		} finally {
+			table.close();
+		}
+	}
+}
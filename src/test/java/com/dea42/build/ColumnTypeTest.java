@@ -0,0 +1,87 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the stats kept while parsing a column and the compact SQL types
+ * picked from them.
+ *
+ * @author avata
+ *
+ */
+public class ColumnTypeTest {
+	private static final String bundleName = "sheettest";
+
+	private ColumnType column(Sheets2DB s, Object... vals) {
+		ColumnType ct = new ColumnType(null);
+		for (Object val : vals) {
+			s.getColumnVal(val, ct);
+		}
+		return ct;
+	}
+
+	@Test
+	public void testCompactType() throws Exception {
+		Sheets2DB s = new Sheets2DB(bundleName, true);
+		// the parser reads negative numbers as text so add them typed
+		ColumnType ct = new ColumnType(null);
+		ct.add(1);
+		ct.add(-12);
+		ct.add(127);
+		assertEquals(-12, ct.getMin(), "min");
+		assertEquals(127, ct.getMax(), "max");
+		assertEquals(3, ct.getCount(), "count");
+		assertEquals(2, column(s, "1", null, "2").getCount(), "blanks not counted");
+		assertEquals("TINYINT", s.compactType(ct, Integer.class));
+		assertEquals("SMALLINT", s.compactType(column(s, "1", "128"), Integer.class));
+		assertNull(s.compactType(column(s, "1", "40000"), Integer.class), "INTEGER");
+
+		ct = column(s, "1.5", "1234.25", "0.05");
+		assertEquals(BigDecimal.class, ct.getType());
+		assertEquals(4, ct.getMaxIntDigits(), "int digits");
+		assertEquals(2, ct.getMaxScale(), "scale");
+		assertEquals("DECIMAL(6,2)", s.compactType(ct, BigDecimal.class));
+		assertNull(s.compactType(column(s, "1.123456"), BigDecimal.class), "too many places for money");
+
+		assertEquals("CHAR(3)", s.compactType(column(s, "ABC", "DEF", "ABC"), String.class));
+		assertNull(s.compactType(column(s, "ABC", "DEFG"), String.class), "VARCHAR");
+		assertNull(s.compactType(column(s, "1", "ABC"), Integer.class), "stats not of this type");
+		assertNull(s.compactType(column(s), Integer.class), "all blank");
+		assertEquals(2, column(s, "ABC", "DEF", "ABC").getDistinct(), "distinct");
+	}
+
+	@Test
+	public void testGetColumnVal() throws Exception {
+		Sheets2DB s = new Sheets2DB(bundleName, true);
+
+		// widens instead of flipping to the last type seen
+		ColumnType col = new ColumnType(null);
+		assertEquals(Integer.class, s.getColumnVal("1", col).getClass());
+		assertEquals(Long.class, s.getColumnVal("" + System.currentTimeMillis(), col).getClass());
+		assertEquals(Integer.class, s.getColumnVal(new BigDecimal("2"), col).getClass());
+		assertEquals(Long.class, col.getType());
+		assertEquals(BigDecimal.class, s.getColumnVal("1.5", col).getClass());
+		assertEquals(Integer.class, s.getColumnVal("3", col).getClass());
+		assertEquals(BigDecimal.class, col.getType());
+		assertEquals("abc", s.getColumnVal("abc", col));
+		assertEquals("4", s.getColumnVal(new BigDecimal("4"), col));
+		assertEquals(String.class, col.getType());
+		assertEquals(13, col.getMaxLen());
+
+		col = new ColumnType(null);
+		assertEquals(Date.class, s.getColumnVal("5/3/20 1:3 PM", col).getClass());
+		assertEquals(Date.class, s.getColumnVal("Sat 05/03/20 13:03", col).getClass());
+		assertEquals(Date.class, col.getType());
+
+		// configured type is kept
+		col = new ColumnType(String.class);
+		assertEquals("1", s.getColumnVal(new BigDecimal("1"), col));
+		assertEquals(String.class, col.getType());
+	}
+}
@@ -0,0 +1,103 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.dea42.common.Db;
+import com.dea42.common.Utils;
+
+/**
+ * Syncs a CSV twice with rows added, changed, moved and deleted in between.
+ * Members is synced on its Email natural key and MembersUser, made from the
+ * Note column, on the sheet row.
+ *
+ * @author avata
+ *
+ */
+public class DeltaSyncTest {
+	private static final String bundleName = "syncTest";
+
+	private Sheets2DB sync(String csv) throws Exception {
+		Path file = Utils.getPath("target/syncTest", "Members.csv");
+		Files.createDirectories(file.getParent());
+		Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+		Sheets2DB s = new Sheets2DB(bundleName, true);
+		s.getSheet();
+		assertEquals(0, s.getFailed(), "failed");
+		return s;
+	}
+
+	private List<String> query(Statement stmt, String sql) throws Exception {
+		List<String> rtn = new ArrayList<>();
+		try (ResultSet rs = stmt.executeQuery(sql)) {
+			int cols = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
+				StringBuilder sb = new StringBuilder();
+				for (int i = 1; i <= cols; i++) {
+					if (i > 1)
+						sb.append('|');
+					sb.append(rs.getString(i));
+				}
+				rtn.add(sb.toString());
+			}
+		}
+		return rtn;
+	}
+
+	@Test
+	public void testSync() throws Exception {
+		Db db = new Db(bundleName, bundleName);
+		try (Statement stmt = db.getConnection(bundleName).createStatement()) {
+			// start from nothing so the first run adds every row
+			for (String table : new String[] { Sheets2DB.ACCOUNT_TABLE, "Members", "MembersUser",
+					DeltaSync.TABLES_TABLE, DeltaSync.ROWS_TABLE }) {
+				stmt.execute("DROP TABLE IF EXISTS " + table);
+			}
+		} finally {
+			db.close(bundleName);
+		}
+
+		Sheets2DB s = sync("Note,Name,Email\n" + "a1,Ann,ann@x.com\n" + ",Bob,bob@x.com\n" + "c1,Cat,cat@x.com\n"
+				+ "d1,Dan,dan@x.com\n" + "e1,Eve,eve@x.com\n");
+		// every row has a Note cell so is in MembersUser too, plus the 2 accounts
+		assertEquals(12, s.getPassed(), "first run");
+		assertEquals(0, s.getUnchanged(), "first run unchanged");
+		assertEquals(0, s.getDeleted(), "first run deleted");
+
+		// Zed added at the top moves Ann down, Bob and Eve deleted and Dan renamed. The
+		// sizes are kept the same as a column that changes size has its table
+		// rebuilt.
+		s = sync("Note,Name,Email\n" + "z1,Zed,zed@x.com\n" + "a1,Ann,ann@x.com\n" + "c1,Cat,cat@x.com\n"
+				+ "d1,Don,dan@x.com\n");
+		// Zed and Don in Members, rows 2 and 3 in MembersUser
+		assertEquals(4, s.getPassed(), "changed rows");
+		// the accounts, Ann and Cat in Members and rows 4 and 5 in MembersUser as
+		// their values and links are the same
+		assertEquals(6, s.getUnchanged(), "unchanged rows");
+		// Bob and Eve from Members and row 6 from MembersUser
+		assertEquals(3, s.getDeleted(), "deleted rows");
+
+		db = new Db(bundleName, bundleName);
+		try (Statement stmt = db.getConnection(bundleName).createStatement()) {
+			// the rows kept their ids
+			assertEquals(Arrays.asList("1|Ann|ann@x.com", "3|Cat|cat@x.com", "4|Don|dan@x.com", "6|Zed|zed@x.com"),
+					query(stmt, "SELECT id, Name, Email FROM Members ORDER BY id"));
+			// linked by the Email of the row not its position
+			assertEquals(Arrays.asList("1|z1|Zed", "2|a1|Ann", "3|c1|Cat", "4|d1|Don"), query(stmt,
+					"SELECT u.id, u.Note, m.Name FROM MembersUser u JOIN Members m ON m.id = u.MembersId ORDER BY u.id"));
+			assertEquals(Arrays.asList("4"), query(stmt, "SELECT COUNT(*) FROM MembersUser"));
+		} finally {
+			db.close(bundleName);
+		}
+	}
+}
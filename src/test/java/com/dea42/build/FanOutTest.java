@@ -0,0 +1,56 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+
+import com.dea42.common.Db;
+import com.dea42.common.Utils;
+
+/**
+ * Loads a CSV into its own DB and two targets in one run and checks each got
+ * all the rows and its own counts and scripts.
+ *
+ * @author avata
+ *
+ */
+public class FanOutTest {
+	private static final String bundleName = "fanoutTest";
+
+	private String chkDb(String config) throws SQLException {
+		Db db = new Db(bundleName, config);
+		try (Statement stmt = db.getConnection(bundleName).createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COUNT(n.id), MAX(s.Title) FROM Shows s"
+						+ " LEFT JOIN ShowsNetwork n ON n.id = s.Network")) {
+			rs.next();
+			assertEquals(40, rs.getInt(1), "shows in " + config);
+			assertEquals(36, rs.getInt(2), "shows with a network in " + config);
+			return rs.getString(3);
+		} finally {
+			db.close(bundleName);
+		}
+	}
+
+	@Test
+	public void testTargets() throws Exception {
+		Sheets2DB s = new Sheets2DB(bundleName, true);
+		assertEquals(2, s.getTargets().size(), "targets");
+		s.getSheet();
+		assertTrue(s.isComplete(), "complete");
+		String title = chkDb(bundleName);
+		for (Sheets2DB target : s.getTargets()) {
+			assertTrue(target.isComplete(), target.getTargetName() + " complete");
+			assertEquals(s.getPassed(), target.getPassed(), target.getTargetName() + " passed");
+			assertEquals(0, target.getFailed(), target.getTargetName() + " failed");
+			assertEquals(title, chkDb(target.getTargetName()));
+			assertTrue(Files.isRegularFile(Utils.getPath("target/fanoutTest", target.getTargetName(),
+					Sheets2DB.SCRIPTS_FOLDER, "Shows.sql")), target.getTargetName() + " scripts");
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.dea42.common.Utils;
+import com.google.api.services.sheets.v4.model.Sheet;
+
+/**
+ * Reads the small files in src/test/resources/fileSourceTest. workbook.xlsx
+ * was saved by POI so uses shared strings and date styles, workbook.ods has
+ * repeated rows and cells like LibreOffice writes.
+ *
+ * @author avata
+ *
+ */
+public class FileSourceTest {
+	private static final Path FOLDER = Utils.getPath(Sheets2DBTest.RESOURCE_FOLDER, "fileSourceTest");
+
+	@Test
+	public void testCsvRowReader() throws Exception {
+		// starts with a BOM and has CRLF line ends with a LF in the quoted field
+		try (CsvRowReader reader = new CsvRowReader(FOLDER.resolve("people.csv"), ',')) {
+			assertEquals(Arrays.asList("Name", "Note", "Ok"), reader.next());
+			assertEquals(Arrays.asList("Bob", "a, \"b\"\nc", Boolean.TRUE), reader.next());
+			assertTrue(reader.next().isEmpty(), "blank row");
+			assertEquals(Arrays.asList("Amy", "", Boolean.FALSE), reader.next());
+			assertNull(reader.next());
+			assertNull(reader.getFormulas());
+		}
+	}
+
+	@Test
+	public void testXlsxRowReader() throws Exception {
+		Path file = FOLDER.resolve("workbook.xlsx");
+		assertEquals(Arrays.asList("XlsxTab", "XlsxOther"), XlsxRowReader.sheetNames(file));
+		try (XlsxRowReader reader = new XlsxRowReader(file, "XlsxTab")) {
+			assertEquals(Arrays.asList("Name", "Born", "Start", "Score", "Ok", "Total"), reader.next());
+			assertNull(reader.getFormulas());
+			assertEquals(Arrays.asList("Bob", "5/3/2020", "13:03:00", new BigDecimal("1.5"), Boolean.TRUE,
+					new BigDecimal("3.0")), reader.next());
+			assertEquals(Arrays.asList(null, null, null, null, null, "=D2*2"), reader.getFormulas());
+			// row 3 is not in the file
+			assertTrue(reader.next().isEmpty(), "blank row");
+			assertNull(reader.getFormulas());
+			assertEquals(Arrays.asList("Bob", "5/23/2020 22:00:00", "", new BigDecimal("42.0"), Boolean.FALSE),
+					reader.next());
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void testOdsRowReader() throws Exception {
+		Path file = FOLDER.resolve("workbook.ods");
+		assertEquals(Arrays.asList("OdsTab", "OdsOther"), OdsRowReader.tableNames(file));
+		try (OdsRowReader reader = new OdsRowReader(file, "OdsTab")) {
+			// the blank cells repeated to the last column are dropped
+			assertEquals(Arrays.asList("Name", "Born", "Start", "Score", "Ok", "Total"), reader.next());
+			assertEquals(Arrays.asList("Bob", "2020-05-03", "13:03:00", new BigDecimal("1.5"), Boolean.TRUE,
+					new BigDecimal("3")), reader.next());
+			assertEquals(Arrays.asList(null, null, null, null, null, "=[.D2]*2"), reader.getFormulas());
+			// a blank row repeated twice
+			assertTrue(reader.next().isEmpty(), "blank row 3");
+			assertTrue(reader.next().isEmpty(), "blank row 4");
+			// a row repeated twice with a cell repeated twice
+			List<Object> expected = Arrays.asList("Amy  Lee\n2nd line", "2020-05-23 22:00:00", "",
+					new BigDecimal("7"), new BigDecimal("7"));
+			assertEquals(expected, reader.next());
+			assertNull(reader.getFormulas());
+			assertEquals(expected, reader.next());
+			// the blank rows repeated to the last row are dropped
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void testFileSource() throws Exception {
+		try (FileSource source = new FileSource(FOLDER, ',')) {
+			List<String> names = new ArrayList<>();
+			for (Sheet tab : source.getTabs()) {
+				names.add(tab.getProperties().getTitle());
+			}
+			// files in name order then the tabs in each in order
+			assertEquals(Arrays.asList("people", "OdsTab", "OdsOther", "XlsxTab", "XlsxOther"), names);
+
+			Map<String, SheetFetcher.TabValues> tabs = source.fetch(Arrays.asList("XlsxTab", "missing"));
+			assertEquals(1, tabs.size(), "unknown tab skipped");
+			SheetFetcher.TabValues tab = tabs.get("XlsxTab");
+			try {
+				int rows = 0;
+				for (List<Object> row : tab) {
+					if (rows == 1) {
+						assertEquals("Bob", row.get(0));
+						assertEquals("=D2*2", tab.getFormulaRow(rows).get(5));
+						assertNull(tab.getFormulaRow(0), "only the current row's formulas are kept");
+					}
+					rows++;
+				}
+				assertEquals(4, rows);
+			} finally {
+				tab.close();
+			}
+		}
+	}
+}
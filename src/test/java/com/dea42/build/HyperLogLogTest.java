@@ -0,0 +1,53 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the distinct count estimates are close for small and large counts and
+ * repeats are not counted again.
+ *
+ * @author avata
+ *
+ */
+public class HyperLogLogTest {
+
+	private void chkEstimate(int distinct, double maxError) {
+		HyperLogLog hll = new HyperLogLog();
+		for (int i = 0; i < distinct * 3; i++) {
+			hll.add("Value " + (i % distinct));
+		}
+		long est = hll.estimate();
+		double error = Math.abs(est - distinct) / (double) distinct;
+		assertTrue(error <= maxError, distinct + " estimated as " + est);
+	}
+
+	@Test
+	public void testEstimate() {
+		chkEstimate(10, 0.01);
+		chkEstimate(1000, 0.03);
+		chkEstimate(100000, 0.05);
+	}
+
+	@Test
+	public void testTypes() {
+		HyperLogLog hll = new HyperLogLog();
+		assertEquals(0, hll.estimate(), "empty");
+		for (int i = 0; i < 100; i++) {
+			hll.add(i);
+		}
+		long est = hll.estimate();
+		for (long i = 0; i < 100; i++) {
+			hll.add(i);
+		}
+		assertEquals(est, hll.estimate(), "Integer and Long the same");
+		hll.add(new BigDecimal("1.50"));
+		est = hll.estimate();
+		hll.add(new BigDecimal("1.5"));
+		assertEquals(est, hll.estimate(), "trailing zeros ignored");
+	}
+}
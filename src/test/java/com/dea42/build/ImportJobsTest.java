@@ -0,0 +1,85 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import com.dea42.common.Db;
+import com.dea42.common.Utils;
+
+/**
+ * Runs two CSV jobs into the same SQLite DB at the same time and checks both
+ * tables were loaded and the report adds them up.
+ *
+ * @author avata
+ *
+ */
+public class ImportJobsTest {
+	private static final String bundleName = "jobsTest";
+
+	private int count(Db db, String table) throws SQLException {
+		try (Statement stmt = db.getConnection(table).createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testRun() throws Exception {
+		Map<String, Object> report = new ImportJobs(bundleName, true).run();
+		assertEquals(2, report.get("jobs"), "jobs");
+		assertEquals(2, report.get("complete"), "complete");
+		assertEquals(0, report.get("failed"), "failed");
+
+		List<Map<String, Object>> results = (List<Map<String, Object>>) report.get("results");
+		assertEquals("jobsTest1", results.get(0).get("job"));
+		assertEquals("jobsTest2", results.get(1).get("job"));
+		int passed = 0;
+		for (Map<String, Object> result : results) {
+			passed += (Integer) result.get("passed");
+			assertTrue(result.containsKey("stats"), "stats of " + result.get("job"));
+		}
+		assertEquals(passed, report.get("passed"), "total passed");
+		assertTrue(Files.isRegularFile(Utils.getPath("target/jobsTest", ImportJobs.REPORT_FILE)), "report saved");
+
+		Db db = new Db(bundleName, "jobsTest1");
+		assertEquals(50, count(db, "People"), "People rows");
+		assertEquals(80, count(db, "Orders"), "Orders rows");
+		db.close(bundleName);
+	}
+
+	@Test
+	public void testDbLocks() throws Exception {
+		Map<String, Lock> dbLocks = new HashMap<>();
+		new Sheets2DB("jobsTest1", true).setJob("jobsTest1", null, dbLocks);
+		new Sheets2DB("jobsTest2", true).setJob("jobsTest2", null, dbLocks);
+		assertEquals(1, dbLocks.size(), "jobs on the same DB share a lock");
+		new Sheets2DB("lookupTest", true).setJob("lookupTest", null, dbLocks);
+		assertEquals(2, dbLocks.size(), "a job on another DB has its own");
+	}
+
+	@Test
+	public void testSameOutdir() throws Exception {
+		final ImportJobs jobs = new ImportJobs("jobsClashTest", true);
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			@Override
+			public void execute() throws Throwable {
+				jobs.run();
+			}
+		});
+	}
+}
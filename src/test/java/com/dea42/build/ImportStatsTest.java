@@ -0,0 +1,64 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author avata
+ *
+ */
+public class ImportStatsTest {
+
+	@Test
+	public void testCounts() throws Exception {
+		ImportStats stats = new ImportStats();
+		ImportStats.TabStats a = stats.table("A");
+		ImportStats.TabStats b = stats.table("B");
+		stats.parsed(a, 10, 10);
+		stats.parsed(b, 20, 5);
+		assertEquals(15, stats.getPeakBufferedRows(), "peak");
+		stats.released(a);
+		stats.released(a);
+		assertEquals(5, stats.getBufferedRows(), "released once");
+		stats.parsed(stats.table("C"), 7, 7);
+		assertEquals(15, stats.getPeakBufferedRows(), "peak kept");
+
+		stats.written(a, 9, 1, 0);
+		stats.written(b, 18, 0, 2);
+		a.converted("X");
+		a.converted("X");
+		assertEquals(2, a.getConversions("X"));
+		assertEquals(27, stats.getRowsInserted());
+		assertEquals(1, stats.getRowsFailed());
+		assertEquals(37, stats.getRowsParsed());
+
+		stats.add(a, ImportStats.Phase.INSERT, System.nanoTime() - 2000000000L);
+		assertTrue(stats.getInsertMillis() >= 2000, "insert time");
+		assertEquals(stats.getInsertMillis(), a.getNanos(ImportStats.Phase.INSERT) / 1000000, "in run total");
+
+		Map<String, Object> map = stats.toMap();
+		assertEquals(2L, map.get("rowsSkipped"));
+		assertEquals(3, ((List<?>) map.get("tables")).size());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(ImportStats.OBJECT_NAME);
+		stats.register();
+		try {
+			assertEquals(27L, server.getAttribute(name, "RowsInserted"));
+			assertEquals("A", server.getAttribute(name, "CurrentTable"));
+		} finally {
+			stats.unregister();
+		}
+		assertFalse(server.isRegistered(name), "unregistered");
+	}
+}
@@ -0,0 +1,118 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.dea42.common.Utils;
+
+/**
+ * Checks the multi-row INSERTs saved to the scripts are split on the row and
+ * size caps, can be gzipped and load the same rows.
+ *
+ * @author avata
+ *
+ */
+public class InsertScriptTest {
+	private static final String HEAD = "INSERT INTO Test (id, name) VALUES ";
+
+	private List<String> readLines(Path file, boolean gzip) throws IOException {
+		List<String> rtn = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				gzip ? new GZIPInputStream(Files.newInputStream(file)) : Files.newInputStream(file),
+				Charset.defaultCharset()))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				rtn.add(line);
+			}
+		}
+		return rtn;
+	}
+
+	private void write(ScriptWriter scripts, String fileName, int rows, int maxRows, int maxChars) {
+		InsertScript script = new InsertScript(scripts, fileName, HEAD, maxRows, maxChars);
+		for (int i = 1; i <= rows; i++) {
+			script.add("(" + i + ", 'Name " + i + "')");
+		}
+		script.flush();
+	}
+
+	@Test
+	public void testSplit() throws Exception {
+		Path dir = Files.createTempDirectory("InsertScriptTest");
+		try {
+			ScriptWriter scripts = new ScriptWriter(dir, true);
+			write(scripts, "one.sql", 3, 1, 1000000);
+			write(scripts, "rows.sql", 10, 4, 1000000);
+			write(scripts, "chars.sql", 10, 100, HEAD.length() + 40);
+			scripts.close();
+
+			List<String> lines = readLines(dir.resolve("one.sql"), false);
+			assertEquals(3, lines.size(), "one row each");
+			assertEquals(HEAD + "(1, 'Name 1');", lines.get(0));
+
+			lines = readLines(dir.resolve("rows.sql"), false);
+			assertEquals(3, lines.size(), "4 + 4 + 2 rows");
+			assertEquals(HEAD + "(1, 'Name 1'),(2, 'Name 2'),(3, 'Name 3'),(4, 'Name 4');", lines.get(0));
+			assertEquals(HEAD + "(9, 'Name 9'),(10, 'Name 10');", lines.get(2));
+
+			lines = readLines(dir.resolve("chars.sql"), false);
+			assertEquals(5, lines.size(), "2 rows fit in 40 chars");
+			for (String line : lines) {
+				assertTrue(line.length() <= HEAD.length() + 40, line);
+			}
+		} finally {
+			Utils.deletePath(dir);
+		}
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		Path dir = Files.createTempDirectory("InsertScriptTest");
+		try {
+			ScriptWriter scripts = new ScriptWriter(dir, true, true);
+			scripts.println("Test.sql", "CREATE TABLE Test (id INTEGER PRIMARY KEY, name VARCHAR(20));");
+			write(scripts, "Test.sql", 250, 100, 1000000);
+			// reopened files get another gzip member
+			scripts.close();
+			write(scripts, "Test.sql", 0, 100, 1000000);
+			scripts.println("Test.sql", "INSERT INTO Test (id, name) VALUES (251, 'Last');");
+			scripts.close();
+			assertFalse(Files.exists(dir.resolve("Test.sql")), "only the gz is written");
+			Path file = scripts.getPath("Test.sql");
+			assertEquals("Test.sql.gz", file.getFileName().toString());
+
+			List<String> lines = readLines(file, true);
+			assertEquals(5, lines.size(), "create + 3 inserts + last");
+			try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+					Statement stmt = conn.createStatement()) {
+				for (String line : lines) {
+					stmt.execute(line);
+				}
+				try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*), MAX(name) FROM Test")) {
+					rs.next();
+					assertEquals(251, rs.getInt(1), "rows loaded");
+					assertEquals("Name 99", rs.getString(2));
+				}
+			}
+		} finally {
+			Utils.deletePath(dir);
+		}
+	}
+}
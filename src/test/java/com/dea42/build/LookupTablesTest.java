@@ -0,0 +1,109 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+
+import com.dea42.common.Db;
+
+/**
+ * Loads a CSV with lookupTables on and checks the networks went to a lookup
+ * table and the shows still join to the right ones.
+ *
+ * @author avata
+ *
+ */
+public class LookupTablesTest {
+	private static final String bundleName = "lookupTest";
+	private static final String[] NETWORKS = { "ABC", "CBS", "NBC", "FOX" };
+	private static final String[] USERS = { "ann", "bob", "cat" };
+
+	@Test
+	public void testLookupTables() throws Exception {
+		Sheets2DB s = new Sheets2DB(bundleName, true);
+		s.getSheet();
+		assertEquals(0, s.getFailed(), "failed");
+
+		Db db = new Db(bundleName, bundleName);
+		try (Statement stmt = db.getConnection(bundleName).createStatement()) {
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ShowsNetwork");
+			rs.next();
+			assertEquals(4, rs.getInt(1), "networks");
+			rs.close();
+
+			rs = stmt.executeQuery("SELECT s.Title, s.Network, n.Network FROM Shows s"
+					+ " LEFT JOIN ShowsNetwork n ON n.id = s.Network ORDER BY s.id");
+			int i = 0;
+			while (rs.next()) {
+				i++;
+				assertEquals("Show " + i, rs.getString(1));
+				if (i % 10 == 0) {
+					assertNull(rs.getObject(2), "blank network " + i);
+				} else {
+					assertTrue(rs.getObject(2) instanceof Integer, "id not name " + i);
+					assertEquals(NETWORKS[i % 4], rs.getString(3), "network of " + i);
+				}
+			}
+			rs.close();
+			assertEquals(40, i, "shows");
+
+			// the titles are all different so stay in the table
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE name = 'ShowsTitle'");
+			rs.next();
+			assertEquals(0, rs.getInt(1), "no title lookup");
+			rs.close();
+		} finally {
+			db.close(bundleName);
+		}
+	}
+
+	/**
+	 * A User column would be moved to PicksUser which is the table the Note
+	 * column goes in so has to use another name.
+	 */
+	@Test
+	public void testUserColumn() throws Exception {
+		String bundle = "lookupClashTest";
+		Sheets2DB s = new Sheets2DB(bundle, true);
+		s.getSheet();
+		assertEquals(0, s.getFailed(), "failed");
+
+		Db db = new Db(bundle, bundle);
+		try (Statement stmt = db.getConnection(bundle).createStatement()) {
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM PicksUserLookup");
+			rs.next();
+			assertEquals(3, rs.getInt(1), "users");
+			rs.close();
+
+			rs = stmt.executeQuery("SELECT p.Title, l.User FROM Picks p"
+					+ " LEFT JOIN PicksUserLookup l ON l.id = p.User ORDER BY p.id");
+			int i = 0;
+			while (rs.next()) {
+				i++;
+				assertEquals("Pick " + i, rs.getString(1));
+				assertEquals(USERS[i % 3], rs.getString(2), "user of " + i);
+			}
+			rs.close();
+			assertEquals(20, i, "picks");
+
+			// the user table was not replaced by the lookup table
+			rs = stmt.executeQuery("SELECT u.Note, p.Title FROM PicksUser u JOIN Picks p ON p.id = u.PicksId"
+					+ " ORDER BY u.id");
+			i = 0;
+			while (rs.next()) {
+				i++;
+				assertEquals("n" + i, rs.getString(1));
+				assertEquals("Pick " + i, rs.getString(2));
+			}
+			rs.close();
+			assertEquals(20, i, "user rows");
+		} finally {
+			db.close(bundle);
+		}
+	}
+}
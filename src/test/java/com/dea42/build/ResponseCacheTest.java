@@ -0,0 +1,142 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import com.dea42.common.Utils;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.Sheet;
+
+/**
+ * Checks a second import of an unchanged sheet comes from the cache without
+ * calling Google.
+ *
+ * @author avata
+ *
+ */
+public class ResponseCacheTest {
+	private static final String ID = "sheetId";
+	private static final String TAB = "Sheet 1";
+
+	/**
+	 * Sheets service that counts its calls and answers with a one tab sheet at
+	 * the Drive version in version. If version is null the calls fail.
+	 */
+	private Sheets mockSheets(final AtomicInteger calls, final String version) {
+		MockHttpTransport transport = new MockHttpTransport() {
+			@Override
+			public LowLevelHttpRequest buildRequest(String method, final String url) throws IOException {
+				return new MockLowLevelHttpRequest(url) {
+					@Override
+					public LowLevelHttpResponse execute() throws IOException {
+						calls.incrementAndGet();
+						if (version == null)
+							throw new IOException("offline");
+						String body;
+						if (url.contains("/drive/")) {
+							body = "{\"version\":\"" + version + "\"}";
+						} else if (url.contains("values:batchGet")) {
+							body = "{\"spreadsheetId\":\"" + ID + "\",\"valueRanges\":[{\"range\":\"r\",\"values\":"
+									+ "[[\"Name\",\"Count\"],[\"v" + version + "\",1]]}]}";
+						} else {
+							body = "{\"spreadsheetId\":\"" + ID + "\",\"sheets\":[{\"properties\":{\"title\":\"" + TAB
+									+ "\",\"gridProperties\":{\"rowCount\":2,\"frozenRowCount\":1}}}]}";
+						}
+						return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent(body);
+					}
+				};
+			}
+		};
+		return new Sheets.Builder(transport, JacksonFactory.getDefaultInstance(), null).setApplicationName("test")
+				.build();
+	}
+
+	/**
+	 * Import the tab through source
+	 *
+	 * @return the rows
+	 */
+	private List<List<Object>> read(GoogleSource source) throws IOException {
+		List<Sheet> tabs = source.getTabs();
+		assertEquals(TAB, tabs.get(0).getProperties().getTitle());
+		List<List<Object>> rtn = new ArrayList<>();
+		for (List<Object> row : source.fetch(Collections.singletonList(TAB)).get(TAB)) {
+			rtn.add(row);
+		}
+		return rtn;
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		Path dir = Files.createTempDirectory("ResponseCacheTest");
+		try {
+			AtomicInteger calls = new AtomicInteger();
+			AtomicLong bytes = new AtomicLong();
+			ResponseCache cache = new ResponseCache(dir, 3600000L, false, false);
+			List<List<Object>> first = read(new GoogleSource(mockSheets(calls, "1"), ID, bytes, 0, cache));
+			assertEquals(3, calls.get(), "first run calls");
+			assertTrue(bytes.get() > 0, "bytes counted");
+
+			calls.set(0);
+			bytes.set(0);
+			assertEquals(first, read(new GoogleSource(mockSheets(calls, "1"), ID, bytes, 0, cache)), "cached rows");
+			assertEquals(0, calls.get(), "no calls while fresh");
+			assertEquals(0, bytes.get(), "nothing fetched");
+
+			// expired
+			calls.set(0);
+			read(new GoogleSource(mockSheets(calls, "1"), ID, bytes, 0, new ResponseCache(dir, 0, false, false)));
+			assertEquals(3, calls.get(), "calls once expired");
+
+			// with the revision only the revision is looked up till it changes
+			ResponseCache revCache = new ResponseCache(dir, 0, true, false);
+			calls.set(0);
+			read(new GoogleSource(mockSheets(calls, "5"), ID, bytes, 0, revCache));
+			assertEquals(4, calls.get(), "revision plus 3 calls");
+			calls.set(0);
+			assertEquals("v5", read(new GoogleSource(mockSheets(calls, "5"), ID, bytes, 0, revCache)).get(1).get(0));
+			assertEquals(1, calls.get(), "just the revision");
+			calls.set(0);
+			assertEquals("v6", read(new GoogleSource(mockSheets(calls, "6"), ID, bytes, 0, revCache)).get(1).get(0),
+					"new revision fetched");
+			assertEquals(4, calls.get(), "revision changed");
+			assertFalse(Files.exists(dir.resolve(ID).resolve("5")), "old revision removed");
+
+			// replay never calls Google
+			calls.set(0);
+			final ResponseCache replay = new ResponseCache(dir, 0, false, true);
+			assertEquals("v6", read(new GoogleSource(mockSheets(calls, null), ID, bytes, 0, replay)).get(1).get(0));
+			assertEquals(0, calls.get(), "replay calls");
+			assertThrows(IOException.class, new Executable() {
+				@Override
+				public void execute() throws Throwable {
+					new SheetFetcher(mockSheets(calls, null), ID, new AtomicLong(), 0, replay, null)
+							.fetch(Collections.singletonList("Not cached"));
+				}
+			}, "not in cache");
+		} finally {
+			Utils.deletePath(dir);
+		}
+	}
+}
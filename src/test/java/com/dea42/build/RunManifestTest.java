@@ -0,0 +1,119 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import com.dea42.common.Db;
+import com.dea42.common.Utils;
+
+/**
+ * @author avata
+ *
+ */
+public class RunManifestTest {
+	private static final String bundleName = "genSpringTest";
+	private static final String TABLE = "RunManifestTest";
+	private static final Class<?>[] TYPES = { Integer.class, String.class };
+	private static final String SQL = "INSERT INTO " + TABLE + " (id, name) VALUES (?, ?)";
+
+	@Test
+	public void testSaveLoad() throws Exception {
+		Path tempDir = Files.createTempDirectory(TABLE);
+		try {
+			saveLoad(tempDir.resolve("Scripts").resolve(RunManifest.FILE));
+		} finally {
+			Utils.deletePath(tempDir);
+		}
+	}
+
+	private void saveLoad(Path file) throws Exception {
+		assertNull(RunManifest.load(file), "none yet");
+
+		RunManifest manifest = new RunManifest(file, "sheetId");
+		manifest.started("A");
+		manifest.committed("A", 120, 118, 1);
+		manifest.done("A", Arrays.asList("ALTER TABLE A ADD CONSTRAINT UC_Name UNIQUE (Name);"));
+		manifest.started("B");
+		manifest.committed("B", 50, 49, 0);
+		assertFalse(Files.exists(file.resolveSibling(RunManifest.FILE + ".tmp")), "temp file moved");
+
+		RunManifest loaded = RunManifest.load(file);
+		assertEquals("sheetId", loaded.getSource());
+		assertFalse(loaded.isComplete(), "not complete");
+		assertTrue(loaded.get("A").isDone(), "A done");
+		assertEquals(118, loaded.get("A").getPassed());
+		assertEquals(1, loaded.get("A").getConstraints().size());
+		assertFalse(loaded.get("B").isDone(), "B not done");
+		assertEquals(50, loaded.get("B").getLastRow());
+		assertNull(loaded.get("C"), "C not started");
+
+		loaded.complete();
+		assertTrue(RunManifest.load(file).isComplete(), "complete saved");
+
+		Files.write(file, "{ not json".getBytes());
+		assertNull(RunManifest.load(file), "unreadable");
+	}
+
+	/**
+	 * The last row id is what a resumed run starts after so has to match what was
+	 * committed when a row fails part way through a batch.
+	 */
+	@Test
+	public void testLastRowId() throws SQLException {
+		Db db = new Db(TABLE, bundleName);
+		try {
+			db.beginSession(TABLE);
+			try (Statement stmt = db.getConnection(TABLE).createStatement()) {
+				stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+				stmt.execute("CREATE TABLE " + TABLE + " (id INTEGER PRIMARY KEY, name VARCHAR(20) NOT NULL)");
+			}
+			BatchInserter sink = new BatchInserter(db, TABLE, SQL, TYPES, 4, true);
+			for (int rowId = 2; rowId <= 7; rowId++) {
+				sink.addRow(rowId, new Object[] { rowId, "Name " + rowId });
+			}
+			sink.checkpoint();
+			assertEquals(7, sink.getLastRowId(), "checkpoint");
+			assertEquals(7, sink.getCommittedRowId(), "committed at checkpoint");
+			sink.addRow(8, new Object[] { 8, "Name 8" });
+			sink.addRow(9, new Object[] { 9, "Name 9" });
+			// duplicate id
+			sink.addRow(10, new Object[] { 2, "Name 10" });
+			// fourth row of the batch so sends it
+			assertThrows(SQLException.class, new Executable() {
+				@Override
+				public void execute() throws Throwable {
+					sink.addRow(11, new Object[] { 11, "Name 11" });
+				}
+			});
+			assertEquals(9, sink.getLastRowId(), "sent but not committed");
+			assertEquals(7, sink.getCommittedRowId(), "committed before close");
+			sink.close();
+			assertEquals(9, sink.getLastRowId(), "last row before the failed one");
+			assertEquals(9, sink.getCommittedRowId(), "committed by close");
+			try (Statement stmt = db.getConnection(TABLE).createStatement();
+					ResultSet rs = stmt.executeQuery("SELECT COUNT(*), MAX(id) FROM " + TABLE)) {
+				rs.next();
+				assertEquals(8, rs.getInt(1), "rows committed");
+				assertEquals(9, rs.getInt(2), "last id committed");
+			}
+			try (Statement stmt = db.getConnection(TABLE).createStatement()) {
+				stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+			}
+		} finally {
+			db.endSession(TABLE);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+
+import com.dea42.common.Db;
+import com.dea42.common.Utils;
+
+/**
+ * Rebuilds a SQLite DB from scripts like the ones Sheets2DB saves and checks
+ * the statements are split right and all the rows but the bad one went in.
+ *
+ * @author avata
+ *
+ */
+public class ScriptLoaderTest {
+	private static final String bundleName = "scriptLoaderTest";
+
+	private int count(Db db, String sql) throws SQLException {
+		try (Statement stmt = db.getConnection(bundleName).createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	@Test
+	public void testReader() throws Exception {
+		Path dir = Files.createTempDirectory("ScriptLoaderTest");
+		try {
+			StringWriter sw = new StringWriter();
+			sw.write("-- comment; not a statement\n");
+			sw.write("INSERT INTO T (a) VALUES ('x;y'),('it''s; -- not a comment');\n");
+			sw.write("CREATE TABLE `a;b`(id INTEGER,\nname VARCHAR(3));\n\n;\nSELECT 1");
+			Path file = dir.resolve("test.sql");
+			Files.write(file, sw.toString().getBytes(Charset.defaultCharset()));
+			try (SqlScriptReader in = new SqlScriptReader(file)) {
+				assertEquals("INSERT INTO T (a) VALUES ('x;y'),('it''s; -- not a comment');", in.next());
+				assertEquals("CREATE TABLE `a;b`(id INTEGER,\nname VARCHAR(3));", in.next());
+				assertEquals("SELECT 1", in.next());
+				assertNull(in.next());
+			}
+		} finally {
+			Utils.deletePath(dir);
+		}
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		Path dir = Files.createTempDirectory("ScriptLoaderTest");
+		try {
+			ScriptWriter scripts = new ScriptWriter(dir, true);
+			// the child sorts first so is only loaded first if the order is ignored
+			scripts.println("AChild.sql", "CREATE TABLE AChild(id INTEGER NOT NULL primary key,\n"
+					+ "ParentId INTEGER,\nFOREIGN KEY(ParentId) REFERENCES Parent(id));");
+			scripts.println("Parent.drop.sql", "DROP TABLE IF EXISTS Parent;");
+			scripts.println("Parent.sql",
+					"CREATE TABLE Parent(id INTEGER NOT NULL primary key,\nName VARCHAR(10) NOT NULL);");
+			InsertScript parent = new InsertScript(scripts, "Parent.data.sql", "INSERT INTO Parent (id, Name) VALUES ",
+					4, 1000000);
+			for (int i = 1; i <= 10; i++) {
+				parent.add("(" + i + ", 'Name " + i + "')");
+			}
+			parent.flush();
+			// dup key
+			scripts.println("Parent.data.sql", "INSERT INTO Parent (id, Name) VALUES (3, 'Dup');");
+			scripts.println("Parent.data.sql", "INSERT INTO Parent (id, Name) VALUES (11, 'Name; 11');");
+			// not a table
+			scripts.println("testDB.sql", "DROP TABLE IF EXISTS Parent;");
+			scripts.close();
+
+			ScriptWriter gzipped = new ScriptWriter(dir, true, true);
+			InsertScript child = new InsertScript(gzipped, "AChild.data.sql", "INSERT INTO AChild (id, ParentId) VALUES ",
+					5, 1000000);
+			for (int i = 1; i <= 22; i++) {
+				child.add("(" + i + ", " + (i % 11 + 1) + ")");
+			}
+			child.flush();
+			gzipped.close();
+
+			ScriptLoader loader = new ScriptLoader(bundleName, dir, false);
+			loader.load();
+			assertEquals(1, loader.getFailed(), "failed");
+
+			Db db = new Db(bundleName, bundleName);
+			try {
+				assertEquals(11, count(db, "SELECT COUNT(*) FROM Parent"), "Parent rows");
+				assertEquals(22, count(db, "SELECT COUNT(*) FROM AChild"), "AChild rows");
+				assertEquals(1, count(db, "SELECT COUNT(*) FROM Parent WHERE Name = 'Name; 11'"), "quoted ;");
+			} finally {
+				db.close(bundleName);
+			}
+
+			// loading again replaces the tables
+			loader = new ScriptLoader(bundleName, dir, false);
+			loader.load();
+			db = new Db(bundleName, bundleName);
+			try {
+				assertEquals(11, count(db, "SELECT COUNT(*) FROM Parent"), "Parent rows reloaded");
+			} finally {
+				db.close(bundleName);
+			}
+		} finally {
+			Utils.deletePath(dir);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.dea42.build;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.sheets.v4.Sheets;
+
+/**
+ * Checks paging through a tab in row windows gives the same rows as getting the
+ * whole tab, including the empty rows Google leaves off the end of a window.
+ *
+ * @author avata
+ *
+ */
+public class SheetFetcherTest {
+	private static final String TAB = "Tab's";
+	private static final int ROW_COUNT = 14;
+	private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+	/**
+	 * Rows 1-3 and 10-11 have values, the rest are empty.
+	 */
+	private static List<Object> row(int rowNum, boolean formulas) {
+		if (rowNum <= 3 || rowNum == 10 || rowNum == 11) {
+			if (formulas && rowNum == 10)
+				return Arrays.<Object>asList("=HYPERLINK(\"http://x/10\",\"r10\")", "b10");
+			return Arrays.<Object>asList("r" + rowNum, "b" + rowNum);
+		}
+		return new ArrayList<>();
+	}
+
+	/**
+	 * The rows of a range as Google returns them with trailing empty rows left off
+	 */
+	private static List<Object> rows(int first, int last, boolean formulas) {
+		List<Object> rtn = new ArrayList<>();
+		for (int rowNum = first; rowNum <= last; rowNum++) {
+			rtn.add(row(rowNum, formulas));
+		}
+		while (!rtn.isEmpty() && ((List<?>) rtn.get(rtn.size() - 1)).isEmpty()) {
+			rtn.remove(rtn.size() - 1);
+		}
+		return rtn;
+	}
+
+	private Sheets mockSheets(final AtomicInteger calls) {
+		MockHttpTransport transport = new MockHttpTransport() {
+			@Override
+			public LowLevelHttpRequest buildRequest(String method, final String url) throws IOException {
+				return new MockLowLevelHttpRequest(url) {
+					@Override
+					public LowLevelHttpResponse execute() throws IOException {
+						calls.incrementAndGet();
+						Map<String, String> params = new HashMap<>();
+						for (String param : url.substring(url.indexOf('?') + 1).split("&")) {
+							String[] kv = param.split("=", 2);
+							params.put(kv[0], URLDecoder.decode(kv[1], "UTF-8"));
+						}
+						String range = params.get("ranges");
+						boolean formulas = SheetFetcher.FORMULAS.equals(params.get("valueRenderOption"));
+						int first = 1;
+						int last = ROW_COUNT;
+						int bang = range.indexOf('!');
+						if (bang > -1) {
+							String[] rowNums = range.substring(bang + 1).split(":");
+							first = Integer.parseInt(rowNums[0]);
+							last = Integer.parseInt(rowNums[1]);
+						}
+						Map<String, Object> valueRange = new LinkedHashMap<>();
+						valueRange.put("range", range);
+						List<Object> values = rows(first, last, formulas);
+						if (!values.isEmpty())
+							valueRange.put("values", values);
+						Map<String, Object> response = new LinkedHashMap<>();
+						response.put("spreadsheetId", "id");
+						response.put("valueRanges", Collections.singletonList(valueRange));
+						return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE)
+								.setContent(JSON_FACTORY.toString(response));
+					}
+				};
+			}
+		};
+		return new Sheets.Builder(transport, JSON_FACTORY, null).setApplicationName("test").build();
+	}
+
+	private List<List<Object>> read(SheetFetcher.TabValues data, Map<Integer, List<Object>> formulaRows) {
+		List<List<Object>> rtn = new ArrayList<>();
+		for (List<Object> row : data) {
+			List<Object> f = data.getFormulaRow(rtn.size());
+			if (f != null && !f.isEmpty())
+				formulaRows.put(rtn.size(), f);
+			rtn.add(row);
+		}
+		return rtn;
+	}
+
+	@Test
+	public void testWindows() throws IOException {
+		List<String> tabs = Collections.singletonList(TAB);
+		AtomicInteger calls = new AtomicInteger();
+		Map<Integer, List<Object>> wholeFormulas = new HashMap<>();
+		List<List<Object>> whole = read(
+				new SheetFetcher(mockSheets(calls), "id").fetch(tabs).get(TAB), wholeFormulas);
+		assertEquals(11, whole.size(), "whole tab rows");
+		assertEquals(2, calls.get(), "whole tab calls");
+
+		for (int window : new int[] { 1, 3, 4, 5, 20 }) {
+			calls.set(0);
+			AtomicLong bytes = new AtomicLong();
+			Map<Integer, List<Object>> formulas = new HashMap<>();
+			SheetFetcher fetcher = new SheetFetcher(mockSheets(calls), "id", bytes, window);
+			List<List<Object>> paged = read(
+					fetcher.fetch(tabs, Collections.singletonMap(TAB, ROW_COUNT)).get(TAB), formulas);
+			assertEquals(whole, paged, "rows with window " + window);
+			assertEquals(wholeFormulas, formulas, "formulas with window " + window);
+			int windows = (ROW_COUNT + window - 1) / window;
+			assertEquals(windows * 2, calls.get(), "calls with window " + window);
+			assertEquals(true, bytes.get() > 0, "bytes counted");
+		}
+
+		// without a row count paging stops at the first empty window
+		calls.set(0);
+		SheetFetcher.TabValues data = new SheetFetcher(mockSheets(calls), "id", new AtomicLong(), 3).fetch(tabs)
+				.get(TAB);
+		List<List<Object>> paged = read(data, new HashMap<Integer, List<Object>>());
+		assertEquals(whole.subList(0, 3), paged, "stopped at empty window");
+		assertNull(data.getFormulaRow(0), "only the current window's formulas");
+	}
+}
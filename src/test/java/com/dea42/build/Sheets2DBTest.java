@@ -193,7 +193,7 @@ public class Sheets2DBTest {
 	 * {@link com.dea42.build.Sheets2DB#parseDateStr(java.lang.String)}.
 	 */
 	@Test
-	void testParseDateStr() {
+	public void testParseDateStr() {
 		/*
 		 * Sat 5/23/20 10:00 PM 1:30:00 05-23-2020 202005232200
 		 */
@@ -204,10 +204,12 @@ public class Sheets2DBTest {
 		parseDateStr("Sat 5/3/20 1:3 PM", gc.getTimeInMillis());
 		parseDateStr("5/3/20 1:3 PM", gc.getTimeInMillis());
 		parseDateStr("202005031303", gc.getTimeInMillis());
+		parseDateStr("2020-05-03 13:03:00.000", gc.getTimeInMillis());
 
 		gc.set(Calendar.HOUR_OF_DAY, 0);
 		gc.set(Calendar.MINUTE, 0);
 		parseDateStr("05-03-2020", gc.getTimeInMillis());
+		parseDateStr("2020-05-03", gc.getTimeInMillis());
 
 		gc = new GregorianCalendar(2020, 4, 23, 22, 00);
 		parseDateStr("202005232200", gc.getTimeInMillis());
@@ -218,6 +220,12 @@ public class Sheets2DBTest {
 		gc = new GregorianCalendar(1970, 0, 1, 13, 30);
 		parseDateStr("13:30:00", gc.getTimeInMillis());
 		parseDateStr("1:30:00 PM", gc.getTimeInMillis());
+
+		// not dates
+		parseDateStr("Hello world", 0);
+		parseDateStr("12345", 0);
+		parseDateStr("Sat 5/3/20", 0);
+		parseDateStr("1.2.3.4.5", 0);
 	}
 
 	/**
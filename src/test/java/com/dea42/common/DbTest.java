@@ -1,7 +1,11 @@
 package com.dea42.common;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 
 import org.junit.jupiter.api.Test;
@@ -24,4 +28,27 @@ public class DbTest {
 		assertEquals("Chech db.url empty", expected, url);
 	}
 
+	/**
+	 * Check close() leaves the connection open while in a session and endSession()
+	 * closes it.
+	 */
+	@Test
+	public void testSession() throws SQLException {
+		Db db = new Db("DbTest", "genSpringTest");
+		Connection conn = db.beginSession("DbTest");
+		assertTrue(db.isInSession(), "Check in session");
+		db.close("DbTest");
+		assertSame(conn, db.getConnection("DbTest"), "Check connection reused after close()");
+		assertFalse(conn.isClosed(), "Check connection still open");
+
+		db.begin("DbTest");
+		assertFalse(conn.getAutoCommit(), "Check in transaction");
+		db.commit("DbTest");
+		assertTrue(conn.getAutoCommit(), "Check transaction ended");
+
+		db.endSession("DbTest");
+		assertFalse(db.isInSession(), "Check session ended");
+		assertTrue(conn.isClosed(), "Check connection closed");
+	}
+
 }